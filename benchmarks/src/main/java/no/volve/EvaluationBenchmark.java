@@ -0,0 +1,49 @@
+package no.volve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites the generated expression to normal form with the standard rules.
+ * <p>
+ * A fresh evaluator is created for every invocation: results are marked as being in normal form for the rule set
+ * that produced them, so evaluating the same expression twice with one evaluator would measure only that check.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    @State(Scope.Thread)
+    public static class Evaluator {
+        @Param({"INTERPRETED", "DISCRIMINATION_NET", "COMPILED"})
+        public EvaluationEngine.MatchingMode matchingMode;
+
+        StandardEvaluator evaluator;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            evaluator = new StandardEvaluator();
+            evaluator.setMatchingMode(matchingMode);
+        }
+    }
+
+    @Benchmark
+    public Node evaluate(ExpressionState state, Evaluator evaluator) {
+        return evaluator.evaluator.evaluate(state.expression);
+    }
+}
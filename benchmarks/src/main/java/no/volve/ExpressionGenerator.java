@@ -0,0 +1,214 @@
+package no.volve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of benchmark expressions. The same shape, size and seed always give the same expression,
+ * so results from different runs and machines are comparable.
+ * <p>
+ * Every variable leaf is a fresh symbol and numbers only meet symbols under {@code Plus}, so the like-term rules of
+ * {@link StandardEvaluator} see no coefficients to collect and the benchmarks measure matching and rewriting rather
+ * than a particular simplification.
+ */
+class ExpressionGenerator {
+    static final long DEFAULT_SEED = 0x5eed_1234_abcdL;
+
+    enum Shape {
+        /**
+         * One {@code Plus} with {@code size} terms, mixing numbers, symbols and small products.
+         */
+        WIDE_SUM,
+        /**
+         * A random binary tree of {@code Plus}, {@code Times} and {@code Power} of depth {@code size}.
+         */
+        DEEP_NESTING,
+        /**
+         * A product of {@code size} binomials, whose expansion has {@code 2^size} terms.
+         */
+        POLYNOMIAL
+    }
+
+    private final SplittableRandom random;
+    private int variables;
+
+    ExpressionGenerator(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    ExpressionGenerator() {
+        this(DEFAULT_SEED);
+    }
+
+    Node generate(Shape shape, int size) {
+        switch (shape) {
+            case WIDE_SUM:
+                return wideSum(size);
+            case DEEP_NESTING:
+                return symbolic(size);
+            default:
+                return polynomial(size);
+        }
+    }
+
+    /**
+     * Returns a sum of {@code terms} terms {@code f[x, g[y]]}, each with a fresh {@code x}, inside {@code depth}
+     * nested {@code Times[1, ...]}.
+     */
+    Node wrappedSum(int terms, int depth) {
+        Node shared = new FunctionNode("g", Arrays.asList(variable()));
+        List<Node> sum = new ArrayList<>();
+        for (int i = 0; i < terms; i++) {
+            sum.add(new FunctionNode("f", Arrays.asList(variable(), shared)));
+        }
+        Node node = new FunctionNode("Plus", sum);
+        for (int i = 0; i < depth; i++) {
+            node = new FunctionNode("Times", Arrays.asList(new IntegerNode(1), node));
+        }
+        return node;
+    }
+
+    private Node wideSum(int size) {
+        List<Node> terms = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    terms.add(number());
+                    break;
+                case 1:
+                    terms.add(variable());
+                    break;
+                default:
+                    terms.add(new FunctionNode("Times", Arrays.asList(variable(), variable())));
+            }
+        }
+        return new FunctionNode("Plus", terms);
+    }
+
+    private Node symbolic(int depth) {
+        if (depth <= 1) {
+            return variable();
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return new FunctionNode("Plus", Arrays.asList(symbolic(depth - 1), numeric(Math.min(depth - 1, 3))));
+            case 1:
+                return new FunctionNode("Times", Arrays.asList(symbolic(depth - 1), variable()));
+            case 2:
+                return new FunctionNode("Power", Arrays.asList(symbolic(depth - 1), new IntegerNode(2 + random.nextInt(3))));
+            default:
+                return new FunctionNode("Plus", Arrays.asList(variable(), symbolic(depth - 1)));
+        }
+    }
+
+    private Node numeric(int depth) {
+        if (depth <= 1) {
+            return number();
+        }
+        String name = random.nextBoolean() ? "Plus" : "Times";
+        return new FunctionNode(name, Arrays.asList(numeric(depth - 1), numeric(depth - 1)));
+    }
+
+    private Node polynomial(int size) {
+        List<Node> factors = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            factors.add(new FunctionNode("Plus", Arrays.asList(variable(), number())));
+        }
+        return new FunctionNode("Times", factors);
+    }
+
+    private Node number() {
+        return new IntegerNode(1 + random.nextInt(99));
+    }
+
+    /**
+     * Returns a fresh symbol. Names are spelled in letters only, as {@link MathematicaParser} reads no digits in
+     * symbol names.
+     */
+    private Node variable() {
+        StringBuilder name = new StringBuilder();
+        int index = variables++;
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return new VariableNode(name.append('x').reverse().toString());
+    }
+
+    /**
+     * Renders the expression in the form read by {@link MathematicaParser}.
+     */
+    static String toMathematica(Node node) {
+        StringBuilder builder = new StringBuilder();
+        appendMathematica(node, builder);
+        return builder.toString();
+    }
+
+    private static void appendMathematica(Node node, StringBuilder builder) {
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            builder.append(functionNode.name).append('[');
+            for (int i = 0; i < functionNode.arguments.size(); i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                appendMathematica(functionNode.arguments.get(i), builder);
+            }
+            builder.append(']');
+        } else {
+            appendAtom(node, builder);
+        }
+    }
+
+    /**
+     * Renders the expression in the infix form read by {@link StandardMathParser}, with every operation in
+     * parentheses. Unlike {@link StandardMathFormatter} this keeps all arguments of an n-ary sum or product.
+     */
+    static String toInfix(Node node) {
+        StringBuilder builder = new StringBuilder();
+        appendInfix(node, builder);
+        return builder.toString();
+    }
+
+    private static void appendInfix(Node node, StringBuilder builder) {
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            String operator;
+            switch (functionNode.name) {
+                case "Plus":
+                    operator = " + ";
+                    break;
+                case "Times":
+                    operator = " * ";
+                    break;
+                case "Power":
+                    operator = " ^ ";
+                    break;
+                default:
+                    throw new IllegalArgumentException("No infix form for " + functionNode.name);
+            }
+            builder.append('(');
+            for (int i = 0; i < functionNode.arguments.size(); i++) {
+                if (i > 0) {
+                    builder.append(operator);
+                }
+                appendInfix(functionNode.arguments.get(i), builder);
+            }
+            builder.append(')');
+        } else {
+            appendAtom(node, builder);
+        }
+    }
+
+    private static void appendAtom(Node node, StringBuilder builder) {
+        if (node instanceof IntegerNode) {
+            builder.append(((IntegerNode) node).toPlainString());
+        } else if (node instanceof VariableNode) {
+            builder.append(((VariableNode) node).name);
+        } else {
+            throw new IllegalArgumentException("Unexpected node: " + node);
+        }
+    }
+}
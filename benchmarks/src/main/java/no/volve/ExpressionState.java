@@ -0,0 +1,35 @@
+package no.volve;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * One generated expression in every form the benchmarks start from.
+ */
+@State(Scope.Benchmark)
+public class ExpressionState {
+    @Param({"WIDE_SUM", "DEEP_NESTING", "POLYNOMIAL"})
+    public ExpressionGenerator.Shape shape;
+
+    @Param({"10", "100", "400"})
+    public int size;
+
+    Node expression;
+    String mathematica;
+    String infix;
+    List<String> tokens;
+    Node infixExpression;
+
+    @Setup
+    public void setUp() {
+        expression = new ExpressionGenerator().generate(shape, size);
+        mathematica = ExpressionGenerator.toMathematica(expression);
+        infix = ExpressionGenerator.toInfix(expression);
+        tokens = new StandardMathTokenizer(infix).tokenize();
+        infixExpression = new StandardMathParser(tokens).parse();
+    }
+}
@@ -0,0 +1,105 @@
+package no.volve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches a fixed set of patterns against every subexpression of the generated expression, with the interpretive
+ * {@link PatternMatcher}, with precompiled patterns and through the discrimination net.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatcherBenchmark {
+    private static final String[] PATTERNS = {
+            "Plus[Blank[x], Blank[x]]",
+            "Plus[Blank[x], Times[-1, Blank[x]]]",
+            "Times[Blank[x], Blank[x]]",
+            "Times[1, Blank[x]]",
+            "Power[Blank[x], 2]",
+            "Plus[Blank[x], BlankSequence[y]]",
+            "Times[BlankSequence[x], Plus[Blank[y], Blank[z]]]"
+    };
+
+    @State(Scope.Benchmark)
+    public static class Patterns {
+        final List<Node> subexpressions = new ArrayList<>();
+        final List<Node> patterns = new ArrayList<>();
+        final List<CompiledPattern> compiledPatterns = new ArrayList<>();
+        DiscriminationNet discriminationNet;
+
+        @Setup
+        public void setUp(ExpressionState state) {
+            collect(state.expression);
+            MathematicaParser parser = new MathematicaParser();
+            List<Rule> rules = new ArrayList<>();
+            for (String pattern : PATTERNS) {
+                Node node = parser.parse(pattern);
+                patterns.add(node);
+                compiledPatterns.add(CompiledPattern.compile(node));
+                rules.add(new Rule(node, node));
+            }
+            discriminationNet = new DiscriminationNet(rules);
+        }
+
+        private void collect(Node node) {
+            subexpressions.add(node);
+            if (node instanceof FunctionNode) {
+                for (Node arg : ((FunctionNode) node).arguments) {
+                    collect(arg);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int interpreted(Patterns patterns) {
+        PatternMatcher matcher = new PatternMatcher();
+        int matches = 0;
+        for (Node candidate : patterns.subexpressions) {
+            for (Node pattern : patterns.patterns) {
+                if (matcher.match(pattern, candidate, new HashMap<>())) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int compiled(Patterns patterns) {
+        int matches = 0;
+        for (Node candidate : patterns.subexpressions) {
+            for (CompiledPattern pattern : patterns.compiledPatterns) {
+                if (pattern.match(candidate, pattern.newSlots())) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int discriminationNet(Patterns patterns) {
+        int matches = 0;
+        for (Node candidate : patterns.subexpressions) {
+            matches += patterns.discriminationNet.match(candidate).size();
+        }
+        return matches;
+    }
+}
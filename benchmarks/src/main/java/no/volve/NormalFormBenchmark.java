@@ -0,0 +1,56 @@
+package no.volve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites a wide sum wrapped in {@code Times[1, ...]} a hundred times. Every layer removed at the root rewrites
+ * the node around the sum, so this measures that the sum, once in normal form, is not evaluated again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalFormBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Expression {
+        @Param({"1000", "10000"})
+        public int terms;
+
+        Node expression;
+
+        @Setup
+        public void setUp() {
+            expression = new ExpressionGenerator().wrappedSum(terms, 100);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Evaluator {
+        StandardEvaluator evaluator;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            evaluator = new StandardEvaluator();
+        }
+    }
+
+    @Benchmark
+    public Node evaluate(Expression expression, Evaluator evaluator) {
+        return evaluator.evaluator.evaluate(expression.expression);
+    }
+}
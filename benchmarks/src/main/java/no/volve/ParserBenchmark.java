@@ -0,0 +1,43 @@
+package no.volve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text in and text out: tokenizing, both parsers and the formatter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Benchmark
+    public List<String> tokenize(ExpressionState state) {
+        return new StandardMathTokenizer(state.infix).tokenize();
+    }
+
+    @Benchmark
+    public Node parseStandardMath(ExpressionState state) {
+        return new StandardMathParser(state.tokens).parse();
+    }
+
+    @Benchmark
+    public Node parseMathematica(ExpressionState state) {
+        return new MathematicaParser().parse(state.mathematica);
+    }
+
+    @Benchmark
+    public String format(ExpressionState state) {
+        return new StandardMathFormatter(new StandardMathParser(state.tokens)).format(state.infixExpression);
+    }
+}
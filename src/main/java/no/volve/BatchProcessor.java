@@ -0,0 +1,258 @@
+package no.volve;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates a stream of expressions, one per line, writing one result line per input line in input order.
+ * <p>
+ * A reader thread submits every line to a pool of workers that tokenize, parse, evaluate and format it, and queues
+ * the pending results in input order. The calling thread writes them as they complete. The queue is bounded, so
+ * the reader blocks when workers or output fall behind, and memory stays bounded however long the input is.
+ */
+class BatchProcessor {
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final int threads;
+    private final int queueCapacity;
+
+    BatchProcessor(int threads) {
+        this(threads, threads * 256);
+    }
+
+    BatchProcessor(int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Threads and queue capacity must be positive: " + threads + ", " + queueCapacity);
+        }
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    Summary run(BufferedReader input, WritableByteChannel output) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "magica-batch-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Worker worker = new Worker();
+        BlockingQueue<Future<Result>> pending = new ArrayBlockingQueue<>(queueCapacity);
+        CompletableFuture<Result> end = CompletableFuture.completedFuture(null);
+        IOException[] readFailure = new IOException[1];
+
+        Thread reader = new Thread(() -> {
+            try {
+                try {
+                    String line;
+                    while ((line = input.readLine()) != null) {
+                        String expression = line;
+                        pending.put(workers.submit(() -> worker.process(expression)));
+                    }
+                } catch (IOException e) {
+                    readFailure[0] = e;
+                }
+                pending.put(end);
+            } catch (InterruptedException e) {
+                // The writer gave up and is no longer taking results
+                Thread.currentThread().interrupt();
+            }
+        }, "magica-batch-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        long expressions = 0;
+        long errors = 0;
+        try {
+            LineWriter writer = new LineWriter(output);
+            Future<Result> future;
+            while ((future = pending.take()) != end) {
+                Result result = await(future);
+                expressions++;
+                if (result.error) {
+                    errors++;
+                }
+                latencies.record(result.nanos);
+                writer.write(result.line);
+            }
+            writer.flush();
+            reader.join();
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+        if (readFailure[0] != null) {
+            throw readFailure[0];
+        }
+        return new Summary(expressions, errors, System.nanoTime() - start, latencies);
+    }
+
+    private static Result await(Future<Result> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return new Result("Error: " + e.getCause(), true, 0);
+        }
+    }
+
+    /**
+     * The tokenizer, parser and formatter are created per line, as in the interactive loop; one evaluator serves
+     * all worker threads.
+     */
+    private static class Worker {
+        private final StandardEvaluator evaluator = new StandardEvaluator();
+
+        Result process(String input) {
+            long start = System.nanoTime();
+            String expression = input.trim();
+            if (expression.isEmpty()) {
+                return new Result("", false, System.nanoTime() - start);
+            }
+            try {
+                StandardMathParser parser = new StandardMathParser(expression);
+                Node evaluatedExpression = evaluator.evaluate(parser.parse());
+                String formattedExpression = new StandardMathFormatter(parser).format(evaluatedExpression);
+                return new Result(formattedExpression, false, System.nanoTime() - start);
+            } catch (Exception e) {
+                return new Result("Error: " + e.getMessage(), true, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static class Result {
+        final String line;
+        final boolean error;
+        final long nanos;
+
+        Result(String line, boolean error, long nanos) {
+            this.line = line;
+            this.error = error;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Encodes lines as UTF-8 into a direct buffer, writing it to the channel whenever it fills up.
+     */
+    private static class LineWriter {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+        LineWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(String line) throws IOException {
+            encode(CharBuffer.wrap(line));
+            encode(CharBuffer.wrap("\n"));
+        }
+
+        private void encode(CharBuffer chars) throws IOException {
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isUnderflow()) {
+                    encoder.reset();
+                    return;
+                } else if (result.isOverflow()) {
+                    drain();
+                } else {
+                    result.throwException();
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void flush() throws IOException {
+            drain();
+        }
+    }
+
+    /**
+     * Histogram of latencies with buckets of exponentially growing width, 16 per power of two, so percentiles are
+     * accurate to about 6% in constant memory.
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 16;
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long total;
+        private long max;
+
+        void record(long nanos) {
+            long value = Math.max(1, nanos);
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = exponent < 4 ? (int) (value << (4 - exponent)) & (SUB_BUCKETS - 1)
+                    : (int) (value >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+            counts[exponent * SUB_BUCKETS + subBucket]++;
+            total++;
+            max = Math.max(max, nanos);
+        }
+
+        /**
+         * Returns an upper bound of the given percentile in nanoseconds, or 0 if nothing was recorded.
+         */
+        long percentile(double percentile) {
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(1, rank) && counts[i] > 0) {
+                    int exponent = i / SUB_BUCKETS;
+                    long subBucket = i % SUB_BUCKETS;
+                    long upper = exponent < 4 ? (SUB_BUCKETS + subBucket + 1) >>> (4 - exponent)
+                            : (SUB_BUCKETS + subBucket + 1) << (exponent - 4);
+                    return Math.min(max, upper);
+                }
+            }
+            return 0;
+        }
+
+        long max() {
+            return max;
+        }
+    }
+
+    static class Summary {
+        final long expressions;
+        final long errors;
+        final long elapsedNanos;
+        final LatencyHistogram latencies;
+
+        Summary(long expressions, long errors, long elapsedNanos, LatencyHistogram latencies) {
+            this.expressions = expressions;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%d expressions (%d errors) in %.3f s, %.0f expressions/s; latency p50 %.1f us, p99 %.1f us, max %.1f us",
+                    expressions, errors, seconds, seconds > 0 ? expressions / seconds : 0.0,
+                    latencies.percentile(50) / 1e3, latencies.percentile(99) / 1e3, latencies.max() / 1e3);
+        }
+    }
+}
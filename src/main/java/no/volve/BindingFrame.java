@@ -0,0 +1,97 @@
+package no.volve;
+
+import java.util.*;
+
+/**
+ * The variable bindings of a match in progress, kept as a trail: every binding is pushed into the next slot, and
+ * backtracking pops back to a mark taken earlier instead of copying the bindings before each alternative.
+ * <p>
+ * A sequence variable is bound to a range of a function's arguments, and its {@code Sequence} node is only built
+ * once the match has succeeded, so a match that fails allocates nothing. A frame is reused for any number of
+ * matches by one thread; {@link #toMap} hands the bindings of a successful match to a {@link NodeTransformer} as a
+ * map of their own.
+ */
+final class BindingFrame {
+    private String[] variables = new String[8];
+    private Node[] values = new Node[8];
+    // Start of the argument range for a sequence binding, whose value is the function the arguments belong to
+    private int[] sequenceStarts = new int[8];
+    private int size;
+
+    /**
+     * Returns the value bound to the variable, or null if it is unbound. A later binding hides an earlier one.
+     */
+    Node get(String variable) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (variables[i].equals(variable)) {
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    boolean isBound(String variable) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (variables[i].equals(variable)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void bind(String variable, Node value) {
+        push(variable, value, -1);
+    }
+
+    /**
+     * Binds the variable to the arguments of the function from {@code start} on.
+     */
+    void bindSequence(String variable, FunctionNode function, int start) {
+        push(variable, function, start);
+    }
+
+    private void push(String variable, Node value, int sequenceStart) {
+        if (size == variables.length) {
+            variables = Arrays.copyOf(variables, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            sequenceStarts = Arrays.copyOf(sequenceStarts, size * 2);
+        }
+        variables[size] = variable;
+        values[size] = value;
+        sequenceStarts[size] = sequenceStart;
+        size++;
+    }
+
+    int mark() {
+        return size;
+    }
+
+    /**
+     * Removes every binding made since the mark was taken.
+     */
+    void undo(int mark) {
+        // Clear the references too, so a reused frame does not keep old expressions alive
+        Arrays.fill(variables, mark, size, null);
+        Arrays.fill(values, mark, size, null);
+        size = mark;
+    }
+
+    private Node value(int slot) {
+        if (sequenceStarts[slot] < 0) {
+            return values[slot];
+        }
+        List<Node> arguments = ((FunctionNode) values[slot]).arguments;
+        return new FunctionNode("Sequence", new ArrayList<>(arguments.subList(sequenceStarts[slot], arguments.size())));
+    }
+
+    /**
+     * Copies the bindings made since the mark into a map of their own, which stays valid after the frame is reused.
+     */
+    Map<String, Node> toMap(int mark) {
+        Map<String, Node> bindings = new HashMap<>();
+        for (int i = mark; i < size; i++) {
+            bindings.put(variables[i], value(i));
+        }
+        return bindings;
+    }
+}
@@ -0,0 +1,375 @@
+package no.volve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates one numeric expression over whole columns of doubles.
+ * <p>
+ * The expression is turned into a tree of column operations, each a simple loop over a block of rows writing into
+ * a register, so the JIT can unroll and vectorize them and no object is created per row. Registers are reused once
+ * their value has been consumed and input columns are read in place, so the registers of even a very wide
+ * expression stay in cache. Large columns are split into ranges of blocks evaluated in parallel, each range with
+ * its own registers.
+ * <p>
+ * The supported expressions are those of {@link ExpressionCompiler}.
+ */
+class ColumnEvaluator {
+    static final int BLOCK_SIZE = 1024;
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private final ColumnOperation root;
+    final int registerCount;
+    private final int rows;
+
+    ColumnEvaluator(Node expression, Map<String, double[]> columns) {
+        List<String> variables = new ArrayList<>(columns.keySet());
+        Map<String, Integer> slots = new HashMap<>();
+        int rows = -1;
+        for (int i = 0; i < variables.size(); i++) {
+            double[] column = columns.get(variables.get(i));
+            if (rows >= 0 && column.length != rows) {
+                throw new IllegalArgumentException("Column " + variables.get(i) + " has " + column.length + " rows, expected " + rows);
+            }
+            rows = column.length;
+            slots.put(variables.get(i), i);
+        }
+        if (rows < 0) {
+            throw new IllegalArgumentException("At least one column is required");
+        }
+        ExpressionCompiler.validate(expression, slots);
+
+        this.rows = rows;
+        int[] registerCount = new int[1];
+        this.root = build(expression, columns, 0, registerCount);
+        this.registerCount = registerCount[0];
+    }
+
+    /**
+     * Evaluates the expression for every row of the columns, which must all have the same length. Columns of at
+     * least {@link #PARALLEL_THRESHOLD} rows are split across the pool, if one is given.
+     */
+    static double[] evaluate(Node expression, Map<String, double[]> columns, ForkJoinPool pool) {
+        ColumnEvaluator evaluator = new ColumnEvaluator(expression, columns);
+        double[] result = new double[evaluator.rows];
+        if (pool == null || evaluator.rows < PARALLEL_THRESHOLD) {
+            evaluator.evaluateRange(result, 0, evaluator.rows);
+            return result;
+        }
+
+        int blocks = (evaluator.rows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int blocksPerTask = Math.max(16, blocks / (pool.getParallelism() * 4));
+        EvaluateRangeTask task = evaluator.new EvaluateRangeTask(result, 0, blocks, blocksPerTask);
+        Thread thread = Thread.currentThread();
+        if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+        return result;
+    }
+
+    private void evaluateRange(double[] result, int from, int to) {
+        double[][] registers = new double[registerCount][BLOCK_SIZE];
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, to - start);
+            root.evaluate(registers, start, length);
+            System.arraycopy(root.values(registers), root.offset(start), result, start, length);
+        }
+    }
+
+    private class EvaluateRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] result;
+        private final int fromBlock;
+        private final int toBlock;
+        private final int blocksPerTask;
+
+        EvaluateRangeTask(double[] result, int fromBlock, int toBlock, int blocksPerTask) {
+            this.result = result;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.blocksPerTask = blocksPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock <= blocksPerTask) {
+                evaluateRange(result, fromBlock * BLOCK_SIZE, Math.min(rows, toBlock * BLOCK_SIZE));
+                return;
+            }
+            int middle = (fromBlock + toBlock) >>> 1;
+            invokeAll(new EvaluateRangeTask(result, fromBlock, middle, blocksPerTask),
+                    new EvaluateRangeTask(result, middle, toBlock, blocksPerTask));
+        }
+    }
+
+    /**
+     * Builds the operation for a node whose result goes into the given register. Operands use the registers above
+     * it, and an operand's register is free again once the node has consumed it, so the number of registers grows
+     * with the depth of the expression rather than its size. Variables and constants take no register.
+     */
+    private static ColumnOperation build(Node node, Map<String, double[]> columns, int register, int[] registerCount) {
+        if (node instanceof VariableNode) {
+            return new VariableColumn(columns.get(((VariableNode) node).name));
+        } else if (!(node instanceof FunctionNode)) {
+            return new ConstantColumn(ExpressionCompiler.constant(node));
+        }
+        registerCount[0] = Math.max(registerCount[0], register + 1);
+
+        FunctionNode function = (FunctionNode) node;
+        ColumnOperation[] operands = new ColumnOperation[function.arguments.size()];
+        switch (function.name) {
+            case "Plus":
+            case "Times":
+                // Each operand is folded into the result before the next is evaluated, so they share a register
+                for (int i = 0; i < operands.length; i++) {
+                    operands[i] = build(function.arguments.get(i), columns, register + 1, registerCount);
+                }
+                return new FoldColumn(register, function.name, operands);
+            case "Subtract":
+            case "Divide":
+            case "Power":
+                ColumnOperation left = build(function.arguments.get(0), columns, register + 1, registerCount);
+                int next = left instanceof RegisterOperation ? register + 2 : register + 1;
+                ColumnOperation right = build(function.arguments.get(1), columns, next, registerCount);
+                return new BinaryColumn(register, function.name, left, right);
+            case "Minus":
+                return new NegateColumn(register, build(function.arguments.get(0), columns, register + 1, registerCount));
+            default:
+                MathFunction mathFunction = MathFunction.of(function.name);
+                ColumnOperation operand = build(function.arguments.get(0), columns, register + 1, registerCount);
+                return new FunctionColumn(register, mathFunction, operand);
+        }
+    }
+
+    /**
+     * Computes one subexpression for a block of rows.
+     */
+    private abstract static class ColumnOperation {
+        abstract void evaluate(double[][] registers, int from, int length);
+
+        /**
+         * Returns the array holding the values of the block evaluated last.
+         */
+        abstract double[] values(double[][] registers);
+
+        /**
+         * Returns where the block starting at row {@code from} begins in {@link #values}.
+         */
+        int offset(int from) {
+            return 0;
+        }
+    }
+
+    /**
+     * An operation that computes its block into a register of its own.
+     */
+    private abstract static class RegisterOperation extends ColumnOperation {
+        final int register;
+
+        RegisterOperation(int register) {
+            this.register = register;
+        }
+
+        @Override
+        double[] values(double[][] registers) {
+            return registers[register];
+        }
+    }
+
+    /**
+     * Reads a block of an input column where it is, without copying it.
+     */
+    private static class VariableColumn extends ColumnOperation {
+        private final double[] column;
+
+        VariableColumn(double[] column) {
+            this.column = column;
+        }
+
+        @Override
+        void evaluate(double[][] registers, int from, int length) {
+            // The column already holds every block
+        }
+
+        @Override
+        double[] values(double[][] registers) {
+            return column;
+        }
+
+        @Override
+        int offset(int from) {
+            return from;
+        }
+    }
+
+    private static class ConstantColumn extends ColumnOperation {
+        // Filled once and only ever read, so every block and thread shares it
+        private final double[] values = new double[BLOCK_SIZE];
+
+        ConstantColumn(double value) {
+            Arrays.fill(values, value);
+        }
+
+        @Override
+        void evaluate(double[][] registers, int from, int length) {
+            // Every block has the same values
+        }
+
+        @Override
+        double[] values(double[][] registers) {
+            return values;
+        }
+    }
+
+    private static class FoldColumn extends RegisterOperation {
+        private final boolean product;
+        private final ColumnOperation[] operands;
+
+        FoldColumn(int register, String name, ColumnOperation[] operands) {
+            super(register);
+            this.product = "Times".equals(name);
+            this.operands = operands;
+        }
+
+        @Override
+        void evaluate(double[][] registers, int from, int length) {
+            double[] out = registers[register];
+            Arrays.fill(out, 0, length, product ? 1.0 : 0.0);
+            for (ColumnOperation operand : operands) {
+                operand.evaluate(registers, from, length);
+                double[] in = operand.values(registers);
+                int offset = operand.offset(from);
+                if (product) {
+                    for (int i = 0; i < length; i++) {
+                        out[i] *= in[offset + i];
+                    }
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        out[i] += in[offset + i];
+                    }
+                }
+            }
+        }
+    }
+
+    private static class BinaryColumn extends RegisterOperation {
+        private final String name;
+        private final ColumnOperation left;
+        private final ColumnOperation right;
+
+        BinaryColumn(int register, String name, ColumnOperation left, ColumnOperation right) {
+            super(register);
+            this.name = name;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void evaluate(double[][] registers, int from, int length) {
+            left.evaluate(registers, from, length);
+            right.evaluate(registers, from, length);
+            double[] out = registers[register];
+            double[] a = left.values(registers);
+            double[] b = right.values(registers);
+            int aOffset = left.offset(from);
+            int bOffset = right.offset(from);
+            switch (name) {
+                case "Subtract":
+                    for (int i = 0; i < length; i++) {
+                        out[i] = a[aOffset + i] - b[bOffset + i];
+                    }
+                    break;
+                case "Divide":
+                    for (int i = 0; i < length; i++) {
+                        out[i] = a[aOffset + i] / b[bOffset + i];
+                    }
+                    break;
+                case "Power":
+                    for (int i = 0; i < length; i++) {
+                        out[i] = Math.pow(a[aOffset + i], b[bOffset + i]);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Not a binary operation: " + name);
+            }
+        }
+    }
+
+    private static class NegateColumn extends RegisterOperation {
+        private final ColumnOperation operand;
+
+        NegateColumn(int register, ColumnOperation operand) {
+            super(register);
+            this.operand = operand;
+        }
+
+        @Override
+        void evaluate(double[][] registers, int from, int length) {
+            operand.evaluate(registers, from, length);
+            double[] out = registers[register];
+            double[] in = operand.values(registers);
+            int offset = operand.offset(from);
+            for (int i = 0; i < length; i++) {
+                out[i] = -in[offset + i];
+            }
+        }
+    }
+
+    private static class FunctionColumn extends RegisterOperation {
+        private final MathFunction function;
+        private final ColumnOperation operand;
+
+        FunctionColumn(int register, MathFunction function, ColumnOperation operand) {
+            super(register);
+            this.function = function;
+            this.operand = operand;
+        }
+
+        @Override
+        void evaluate(double[][] registers, int from, int length) {
+            operand.evaluate(registers, from, length);
+            double[] out = registers[register];
+            double[] in = operand.values(registers);
+            int offset = operand.offset(from);
+            // One loop per function, so each calls its Math method directly
+            switch (function) {
+                case SIN:
+                    for (int i = 0; i < length; i++) {
+                        out[i] = Math.sin(in[offset + i]);
+                    }
+                    break;
+                case COS:
+                    for (int i = 0; i < length; i++) {
+                        out[i] = Math.cos(in[offset + i]);
+                    }
+                    break;
+                case TAN:
+                    for (int i = 0; i < length; i++) {
+                        out[i] = Math.tan(in[offset + i]);
+                    }
+                    break;
+                case LOG:
+                    for (int i = 0; i < length; i++) {
+                        out[i] = Math.log(in[offset + i]);
+                    }
+                    break;
+                case EXP:
+                    for (int i = 0; i < length; i++) {
+                        out[i] = Math.exp(in[offset + i]);
+                    }
+                    break;
+                default:
+                    throw new AssertionError(function);
+            }
+        }
+    }
+}
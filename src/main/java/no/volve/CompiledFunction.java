@@ -0,0 +1,13 @@
+package no.volve;
+
+/**
+ * A numeric expression compiled by {@link ExpressionCompiler}, evaluated on primitive doubles.
+ */
+@FunctionalInterface
+public interface CompiledFunction {
+    /**
+     * Evaluates the expression with the variables bound to the given values, in the order the variables were
+     * listed when the expression was compiled.
+     */
+    double apply(double[] arguments);
+}
@@ -0,0 +1,222 @@
+package no.volve;
+
+import java.util.*;
+
+/**
+ * A rule pattern compiled into a tree of specialized matcher closures.
+ * <p>
+ * Heads, literals and arities are baked into the closures when the pattern is compiled, so matching does no
+ * pattern-tree interpretation, and every pattern variable is assigned a slot index so bindings go into a plain
+ * array instead of a map. The matching semantics are the same as {@link PatternMatcher}.
+ */
+class CompiledPattern {
+    private static final Node[] NO_SLOTS = new Node[0];
+
+    @FunctionalInterface
+    private interface NodeMatcher {
+        boolean match(Node candidate, Node[] slots);
+    }
+
+    @FunctionalInterface
+    private interface ArgumentsMatcher {
+        boolean match(List<Node> candidates, int index, Node[] slots);
+    }
+
+    private final String[] variables;
+    private final NodeMatcher matcher;
+
+    private CompiledPattern(String[] variables, NodeMatcher matcher) {
+        this.variables = variables;
+        this.matcher = matcher;
+    }
+
+    static CompiledPattern compile(Node pattern) {
+        Compiler compiler = new Compiler();
+        NodeMatcher matcher = compiler.compile(pattern);
+        return new CompiledPattern(compiler.variables.toArray(new String[0]), matcher);
+    }
+
+    /**
+     * Compiles the argument patterns separately but with one numbering of their variables, so the arguments can be
+     * matched in any order into the same slot array.
+     */
+    static CompiledPattern[] compileArguments(List<Node> patterns) {
+        Compiler compiler = new Compiler();
+        NodeMatcher[] matchers = new NodeMatcher[patterns.size()];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = compiler.compile(patterns.get(i));
+        }
+        String[] variables = compiler.variables.toArray(new String[0]);
+        CompiledPattern[] compiled = new CompiledPattern[matchers.length];
+        for (int i = 0; i < matchers.length; i++) {
+            compiled[i] = new CompiledPattern(variables, matchers[i]);
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the slot of a variable, or -1 if the pattern does not bind it.
+     */
+    int slot(String variable) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(variable)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a fresh slot array for one match attempt.
+     */
+    Node[] newSlots() {
+        return variables.length == 0 ? NO_SLOTS : new Node[variables.length];
+    }
+
+    boolean match(Node candidate, Node[] slots) {
+        return matcher.match(candidate, slots);
+    }
+
+    /**
+     * Converts the slots of a successful match into the name-keyed bindings {@link NodeTransformer}s expect.
+     */
+    Map<String, Node> bindings(Node[] slots) {
+        Map<String, Node> bindings = new HashMap<>();
+        for (int i = 0; i < variables.length; i++) {
+            if (slots[i] != null) {
+                bindings.put(variables[i], slots[i]);
+            }
+        }
+        return bindings;
+    }
+
+    private static class Compiler {
+        private final List<String> variables = new ArrayList<>();
+
+        private int slot(String variable) {
+            int index = variables.indexOf(variable);
+            if (index < 0) {
+                variables.add(variable);
+                index = variables.size() - 1;
+            }
+            return index;
+        }
+
+        NodeMatcher compile(Node pattern) {
+            if (pattern instanceof FunctionNode) {
+                FunctionNode function = (FunctionNode) pattern;
+                NodeMatcher functionMatcher = compileFunction(function);
+                if ("Blank".equals(function.name)) {
+                    NodeMatcher blankMatcher = compileBlank(function);
+                    return (candidate, slots) -> candidate instanceof FunctionNode
+                            ? functionMatcher.match(candidate, slots)
+                            : blankMatcher.match(candidate, slots);
+                }
+                return functionMatcher;
+            } else if (pattern instanceof IntegerNode) {
+                return (candidate, slots) -> candidate instanceof IntegerNode && pattern.equals(candidate);
+            } else if (pattern instanceof VariableNode) {
+                String name = ((VariableNode) pattern).name;
+                return (candidate, slots) -> candidate instanceof VariableNode && name.equals(((VariableNode) candidate).name);
+            }
+            return (candidate, slots) -> false;
+        }
+
+        private NodeMatcher compileFunction(FunctionNode function) {
+            String name = function.name;
+            ArgumentsMatcher arguments = compileArguments(function.arguments, 0);
+            if (hasSequence(function.arguments)) {
+                return (candidate, slots) -> candidate instanceof FunctionNode
+                        && name.equals(((FunctionNode) candidate).name)
+                        && arguments.match(((FunctionNode) candidate).arguments, 0, slots);
+            }
+            int arity = function.arguments.size();
+            return (candidate, slots) -> {
+                if (!(candidate instanceof FunctionNode)) {
+                    return false;
+                }
+                FunctionNode candidateFunction = (FunctionNode) candidate;
+                return candidateFunction.arguments.size() == arity
+                        && name.equals(candidateFunction.name)
+                        && arguments.match(candidateFunction.arguments, 0, slots);
+            };
+        }
+
+        private NodeMatcher compileBlank(FunctionNode blank) {
+            if (blank.arguments.isEmpty()) {
+                return (candidate, slots) -> true;
+            }
+            if (!(blank.arguments.get(0) instanceof VariableNode)) {
+                return (candidate, slots) -> false;
+            }
+            int slot = slot(((VariableNode) blank.arguments.get(0)).name);
+            return (candidate, slots) -> {
+                Node bound = slots[slot];
+                if (bound == null) {
+                    slots[slot] = candidate;
+                    return true;
+                }
+                return bound.equals(candidate);
+            };
+        }
+
+        private ArgumentsMatcher compileArguments(List<Node> patterns, int index) {
+            if (index == patterns.size()) {
+                return (candidates, position, slots) -> position == candidates.size();
+            }
+
+            Node pattern = patterns.get(index);
+            if (isSequence(pattern)) {
+                FunctionNode sequence = (FunctionNode) pattern;
+                if (index == patterns.size() - 1) {
+                    boolean allowEmpty = "BlankNullSequence".equals(sequence.name);
+                    int slot = sequence.arguments.size() == 1 && sequence.arguments.get(0) instanceof VariableNode
+                            ? slot(((VariableNode) sequence.arguments.get(0)).name) : -1;
+                    return (candidates, position, slots) -> {
+                        if (!allowEmpty && position >= candidates.size()) {
+                            return false;
+                        }
+                        if (slot >= 0) {
+                            slots[slot] = new FunctionNode("Sequence", new ArrayList<>(candidates.subList(position, candidates.size())));
+                        }
+                        return true;
+                    };
+                }
+                ArgumentsMatcher rest = compileArguments(patterns, index + 1);
+                return (candidates, position, slots) -> {
+                    for (int i = position; i <= candidates.size(); i++) {
+                        Node[] saved = slots.clone();
+                        if (rest.match(candidates, i, slots)) {
+                            return true;
+                        }
+                        System.arraycopy(saved, 0, slots, 0, slots.length);
+                    }
+                    return false;
+                };
+            }
+
+            NodeMatcher element = compile(pattern);
+            ArgumentsMatcher rest = compileArguments(patterns, index + 1);
+            return (candidates, position, slots) -> position < candidates.size()
+                    && element.match(candidates.get(position), slots)
+                    && rest.match(candidates, position + 1, slots);
+        }
+
+        private static boolean hasSequence(List<Node> patterns) {
+            for (Node pattern : patterns) {
+                if (isSequence(pattern)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isSequence(Node pattern) {
+            if (pattern instanceof FunctionNode) {
+                String name = ((FunctionNode) pattern).name;
+                return "BlankSequence".equals(name) || "BlankNullSequence".equals(name);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package no.volve;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Many-to-one matcher that compiles a whole rule list into a single discrimination tree.
+ * <p>
+ * Each pattern is flattened into its preorder sequence of heads, literals and blanks, and the sequences of all
+ * rules are merged into one trie, so rules sharing a prefix (e.g. every {@code Plus[Blank[x], ...]}) share the
+ * states for it. A candidate is walked once against the trie and every applicable rule is returned together with
+ * its bindings, in rule order.
+ * <p>
+ * The net follows the semantics of {@link PatternMatcher}: {@code Blank} only stands for atomic subexpressions,
+ * and a sequence blank is only supported as the last argument of a function. Patterns the net cannot represent
+ * are matched with the interpretive matcher and merged into the result by their rule order. Orderless rules are
+ * kept out of the net too: every one for the candidate's head is returned unmatched, to be matched by its
+ * {@link OrderlessPattern} when the engine gets to it.
+ */
+class DiscriminationNet {
+    private final State root = new State();
+    private final List<Rule> fallbackRules = new ArrayList<>();
+    private final List<Integer> fallbackPriorities = new ArrayList<>();
+    private final PatternMatcher fallbackMatcher = new PatternMatcher();
+    private final Map<String, List<Match>> orderlessRules = new HashMap<>();
+    private final int maxDepth;
+
+    DiscriminationNet(List<Rule> rules) {
+        this(rules, Collections.emptyMap());
+    }
+
+    DiscriminationNet(List<Rule> rules, Map<Rule, OrderlessPattern> orderlessPatterns) {
+        int depth = 0;
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            List<Token> tokens = new ArrayList<>();
+            OrderlessPattern orderless = orderlessPatterns.get(rule);
+            if (orderless != null) {
+                orderlessRules.computeIfAbsent(((FunctionNode) rule.pattern).name, head -> new ArrayList<>())
+                        .add(new Match(i, rule, orderless));
+            } else if (flatten(rule.pattern, tokens)) {
+                insert(tokens, new Leaf(i, rule, tokens));
+                depth = Math.max(depth, tokens.size());
+            } else {
+                fallbackRules.add(rule);
+                fallbackPriorities.add(i);
+            }
+        }
+        this.maxDepth = depth;
+    }
+
+    /**
+     * Returns every rule whose pattern matches the candidate, in rule order, together with its bindings, and every
+     * orderless rule that may match it.
+     */
+    List<Match> match(Node candidate) {
+        return match(candidate, null);
+    }
+
+    /**
+     * Same as {@link #match(Node)}, additionally passing the rule index of every rule the net tried and rejected to
+     * {@code rejected}: a rule whose path the candidate reached but whose repeated variables bound different
+     * subexpressions, or a fallback rule that did not match.
+     */
+    List<Match> match(Node candidate, IntConsumer rejected) {
+        List<Match> matches = new ArrayList<>();
+        if (maxDepth > 0) {
+            walk(root, new Cons(candidate, null), 0, new Node[maxDepth], matches, rejected);
+        }
+        if (candidate instanceof FunctionNode) {
+            List<Match> orderless = orderlessRules.get(((FunctionNode) candidate).name);
+            if (orderless != null) {
+                matches.addAll(orderless);
+            }
+        }
+        for (int i = 0; i < fallbackRules.size(); i++) {
+            Rule rule = fallbackRules.get(i);
+            Map<String, Node> bindings = fallbackMatcher.matchBindings(rule.pattern, candidate);
+            if (bindings != null) {
+                matches.add(new Match(fallbackPriorities.get(i), rule, bindings));
+            } else if (rejected != null) {
+                rejected.accept(fallbackPriorities.get(i));
+            }
+        }
+        if (matches.size() > 1) {
+            matches.sort(Comparator.comparingInt(match -> match.priority));
+        }
+        return matches;
+    }
+
+    private void walk(State state, Cons pending, int depth, Node[] path, List<Match> matches, IntConsumer rejected) {
+        if (pending == null) {
+            for (Leaf leaf : state.leaves) {
+                Map<String, Node> bindings = leaf.bind(path);
+                if (bindings != null) {
+                    matches.add(new Match(leaf.priority, leaf.rule, bindings));
+                } else if (rejected != null) {
+                    rejected.accept(leaf.priority);
+                }
+            }
+            return;
+        }
+
+        Node term = pending.head;
+        path[depth] = term;
+        if (term instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) term;
+            int arity = functionNode.arguments.size();
+            Map<Integer, State> byArity = state.functionEdges.get(functionNode.name);
+            if (byArity != null) {
+                State next = byArity.get(arity);
+                if (next != null) {
+                    walk(next, push(pending.tail, functionNode.arguments, arity), depth + 1, path, matches, rejected);
+                }
+            }
+            List<SequenceEdge> sequenceEdges = state.sequenceEdges.get(functionNode.name);
+            if (sequenceEdges != null) {
+                for (SequenceEdge edge : sequenceEdges) {
+                    if (arity >= edge.prefixLength + (edge.allowEmpty ? 0 : 1)) {
+                        walk(edge.target, push(pending.tail, functionNode.arguments, edge.prefixLength), depth + 1, path, matches, rejected);
+                    }
+                }
+            }
+        } else {
+            State next = state.atomEdges.get(term);
+            if (next != null) {
+                walk(next, pending.tail, depth + 1, path, matches, rejected);
+            }
+            if (state.blankEdge != null) {
+                walk(state.blankEdge, pending.tail, depth + 1, path, matches, rejected);
+            }
+        }
+    }
+
+    private static Cons push(Cons tail, List<Node> arguments, int count) {
+        Cons result = tail;
+        for (int i = count - 1; i >= 0; i--) {
+            result = new Cons(arguments.get(i), result);
+        }
+        return result;
+    }
+
+    private void insert(List<Token> tokens, Leaf leaf) {
+        State state = root;
+        for (Token token : tokens) {
+            switch (token.kind) {
+                case FUNCTION:
+                    state = state.functionEdges.computeIfAbsent(token.name, name -> new HashMap<>())
+                            .computeIfAbsent(token.arity, arity -> new State());
+                    break;
+                case SEQUENCE:
+                    state = state.sequenceEdge(token.name, token.arity, token.allowEmpty);
+                    break;
+                case ATOM:
+                    state = state.atomEdges.computeIfAbsent(token.atom, atom -> new State());
+                    break;
+                case BLANK:
+                    if (state.blankEdge == null) {
+                        state.blankEdge = new State();
+                    }
+                    state = state.blankEdge;
+                    break;
+            }
+        }
+        state.leaves.add(leaf);
+    }
+
+    /**
+     * Appends the preorder tokens of a pattern, returning false if the pattern cannot be represented in the net.
+     */
+    private static boolean flatten(Node pattern, List<Token> tokens) {
+        if (pattern instanceof IntegerNode || pattern instanceof VariableNode) {
+            tokens.add(Token.atom(pattern));
+            return true;
+        }
+        if (!(pattern instanceof FunctionNode)) {
+            return false;
+        }
+
+        FunctionNode function = (FunctionNode) pattern;
+        if ("Blank".equals(function.name)) {
+            if (function.arguments.isEmpty()) {
+                tokens.add(Token.blank(null));
+                return true;
+            } else if (function.arguments.size() == 1 && function.arguments.get(0) instanceof VariableNode) {
+                tokens.add(Token.blank(((VariableNode) function.arguments.get(0)).name));
+                return true;
+            }
+            return false;
+        }
+        if (isSequenceBlank(function)) {
+            return false;
+        }
+
+        int last = function.arguments.size() - 1;
+        if (last >= 0 && function.arguments.get(last) instanceof FunctionNode
+                && isSequenceBlank((FunctionNode) function.arguments.get(last))) {
+            FunctionNode sequence = (FunctionNode) function.arguments.get(last);
+            String variable = sequence.arguments.size() == 1 && sequence.arguments.get(0) instanceof VariableNode
+                    ? ((VariableNode) sequence.arguments.get(0)).name : null;
+            Token token = Token.sequence(function.name, last, "BlankNullSequence".equals(sequence.name), variable);
+            tokens.add(token);
+            boolean supported = flattenArguments(function.arguments.subList(0, last), tokens);
+            token.bindOrder = tokens.size() - 0.5;
+            return supported;
+        }
+
+        tokens.add(Token.function(function.name, function.arguments.size()));
+        return flattenArguments(function.arguments, tokens);
+    }
+
+    private static boolean flattenArguments(List<Node> arguments, List<Token> tokens) {
+        for (Node arg : arguments) {
+            if (arg instanceof FunctionNode && isSequenceBlank((FunctionNode) arg)) {
+                return false;
+            }
+            if (!flatten(arg, tokens)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSequenceBlank(FunctionNode node) {
+        return "BlankSequence".equals(node.name) || "BlankNullSequence".equals(node.name);
+    }
+
+    public static class Match {
+        public final int priority;
+        public final Rule rule;
+        /** The bindings of the match, or null for an orderless rule, which binds while it rewrites. */
+        public final Map<String, Node> bindings;
+        final OrderlessPattern orderless;
+
+        Match(int priority, Rule rule, Map<String, Node> bindings) {
+            this.priority = priority;
+            this.rule = rule;
+            this.bindings = bindings;
+            this.orderless = null;
+        }
+
+        Match(int priority, Rule rule, OrderlessPattern orderless) {
+            this.priority = priority;
+            this.rule = rule;
+            this.bindings = null;
+            this.orderless = orderless;
+        }
+
+        /**
+         * Applies the rule to the node it was matched against, returning null if the rule does not rewrite it.
+         */
+        Node rewrite(Node node) {
+            return orderless != null ? orderless.rewrite(node, rule.transformer) : rule.transformer.transform(node, bindings);
+        }
+
+        boolean matches(Node node) {
+            return orderless == null || orderless.matches(node);
+        }
+    }
+
+    private enum Kind {
+        FUNCTION, SEQUENCE, ATOM, BLANK
+    }
+
+    private static class Token {
+        final Kind kind;
+        final String name;
+        final int arity;
+        final boolean allowEmpty;
+        final Node atom;
+        final String variable;
+        // Sequence variables are bound after the fixed arguments preceding them, as in PatternMatcher
+        double bindOrder;
+
+        private Token(Kind kind, String name, int arity, boolean allowEmpty, Node atom, String variable) {
+            this.kind = kind;
+            this.name = name;
+            this.arity = arity;
+            this.allowEmpty = allowEmpty;
+            this.atom = atom;
+            this.variable = variable;
+        }
+
+        static Token function(String name, int arity) {
+            return new Token(Kind.FUNCTION, name, arity, false, null, null);
+        }
+
+        static Token sequence(String name, int prefixLength, boolean allowEmpty, String variable) {
+            return new Token(Kind.SEQUENCE, name, prefixLength, allowEmpty, null, variable);
+        }
+
+        static Token atom(Node atom) {
+            return new Token(Kind.ATOM, null, 0, false, atom, null);
+        }
+
+        static Token blank(String variable) {
+            return new Token(Kind.BLANK, null, 0, false, null, variable);
+        }
+    }
+
+    private static class State {
+        final Map<String, Map<Integer, State>> functionEdges = new HashMap<>();
+        final Map<String, List<SequenceEdge>> sequenceEdges = new HashMap<>();
+        final Map<Node, State> atomEdges = new HashMap<>();
+        State blankEdge;
+        final List<Leaf> leaves = new ArrayList<>();
+
+        State sequenceEdge(String name, int prefixLength, boolean allowEmpty) {
+            List<SequenceEdge> edges = sequenceEdges.computeIfAbsent(name, n -> new ArrayList<>());
+            for (SequenceEdge edge : edges) {
+                if (edge.prefixLength == prefixLength && edge.allowEmpty == allowEmpty) {
+                    return edge.target;
+                }
+            }
+            SequenceEdge edge = new SequenceEdge(prefixLength, allowEmpty, new State());
+            edges.add(edge);
+            return edge.target;
+        }
+    }
+
+    private static class SequenceEdge {
+        final int prefixLength;
+        final boolean allowEmpty;
+        final State target;
+
+        SequenceEdge(int prefixLength, boolean allowEmpty, State target) {
+            this.prefixLength = prefixLength;
+            this.allowEmpty = allowEmpty;
+            this.target = target;
+        }
+    }
+
+    /**
+     * A rule stored at the end of its pattern's path, with the path positions its variables bind to.
+     */
+    private static class Leaf {
+        final int priority;
+        final Rule rule;
+        final String[] variables;
+        final int[] positions;
+        final int[] sequencePrefixes;
+
+        Leaf(int priority, Rule rule, List<Token> tokens) {
+            this.priority = priority;
+            this.rule = rule;
+            List<Integer> slots = new ArrayList<>();
+            for (int i = 0; i < tokens.size(); i++) {
+                Token token = tokens.get(i);
+                if (token.variable != null) {
+                    if (token.kind != Kind.SEQUENCE) {
+                        token.bindOrder = i;
+                    }
+                    slots.add(i);
+                }
+            }
+            slots.sort(Comparator.comparingDouble(slot -> tokens.get(slot).bindOrder));
+            this.variables = new String[slots.size()];
+            this.positions = new int[slots.size()];
+            this.sequencePrefixes = new int[slots.size()];
+            for (int i = 0; i < slots.size(); i++) {
+                Token token = tokens.get(slots.get(i));
+                variables[i] = token.variable;
+                positions[i] = slots.get(i);
+                sequencePrefixes[i] = token.kind == Kind.SEQUENCE ? token.arity : -1;
+            }
+        }
+
+        Map<String, Node> bind(Node[] path) {
+            Map<String, Node> bindings = new HashMap<>();
+            for (int i = 0; i < variables.length; i++) {
+                Node term = path[positions[i]];
+                if (sequencePrefixes[i] >= 0) {
+                    List<Node> arguments = ((FunctionNode) term).arguments;
+                    bindings.put(variables[i], new FunctionNode("Sequence",
+                            new ArrayList<>(arguments.subList(sequencePrefixes[i], arguments.size()))));
+                } else {
+                    Node bound = bindings.get(variables[i]);
+                    if (bound == null) {
+                        bindings.put(variables[i], term);
+                    } else if (!bound.equals(term)) {
+                        return null;
+                    }
+                }
+            }
+            return bindings;
+        }
+    }
+
+    private static class Cons {
+        final Node head;
+        final Cons tail;
+
+        Cons(Node head, Cons tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+    }
+}
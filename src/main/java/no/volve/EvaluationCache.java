@@ -0,0 +1,147 @@
+package no.volve;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded memoization cache for evaluation results, keyed by the structure of the evaluated node and the version
+ * of the rule set that evaluated it.
+ * <p>
+ * The cache is split into independently locked segments, each evicting its least recently used entry when full,
+ * so one cache can be shared by several engines and threads. Results are cached for every evaluated subtree,
+ * so an expression containing a previously evaluated subexpression benefits as well.
+ */
+public class EvaluationCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public EvaluationCache(int maximumSize) {
+        if (maximumSize < SEGMENTS) {
+            throw new IllegalArgumentException("Cache size must be at least " + SEGMENTS + ": " + maximumSize);
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maximumSize / SEGMENTS);
+        }
+    }
+
+    Node get(int ruleSetVersion, Node node) {
+        Key key = new Key(ruleSetVersion, node);
+        Node result = segmentFor(key).get(key);
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    void put(int ruleSetVersion, Node node, Node result) {
+        Key key = new Key(ruleSetVersion, node);
+        segmentFor(key).put(key, result);
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public Stats stats() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private Segment segmentFor(Key key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long size;
+
+        Stats(long hits, long misses, long evictions, long size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + '}';
+        }
+    }
+
+    private class Segment {
+        private final LinkedHashMap<Key, Node> entries;
+
+        Segment(int capacity) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Node> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized Node get(Key key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(Key key, Node result) {
+            entries.put(key, result);
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    private static class Key {
+        private final int ruleSetVersion;
+        private final Node node;
+
+        Key(int ruleSetVersion, Node node) {
+            this.ruleSetVersion = ruleSetVersion;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return ruleSetVersion == key.ruleSetVersion && Objects.equals(node, key.node);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * ruleSetVersion + node.hashCode();
+        }
+    }
+}
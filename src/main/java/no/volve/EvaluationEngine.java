@@ -1,35 +1,225 @@
 package no.volve;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
+/**
+ * Rewrites expressions with the rules of a {@link RuleSet} until no rule applies.
+ * <p>
+ * The setters configure the engine and are not synchronized: call them before the engine is published to other
+ * threads. A configured engine is safe for concurrent use. Nodes are immutable and the rule set is read-only, the
+ * metrics are lock-free counters, and the trace keeps each thread's evaluation apart; only an
+ * {@link EvaluationCache}, if one is set, locks, and then only one of its segments per lookup.
+ */
 public class EvaluationEngine {
     public enum Attribute {
         COMMUTATIVE
     }
 
+    public enum MatchingMode {
+        /** Match every candidate rule separately with the interpretive {@link PatternMatcher}. */
+        INTERPRETED,
+        /** Match all rules at once with a {@link DiscriminationNet} compiled from the rule list. */
+        DISCRIMINATION_NET,
+        /** Match every candidate rule separately with its {@link CompiledPattern}. */
+        COMPILED
+    }
+
     private final PatternMatcher patternMatcher;
-    private final List<Rule> simplificationRules;
+    private final RuleSet ruleSet;
+    private final RuleIndex ruleIndex;
+    private final DiscriminationNet discriminationNet;
     private final Map<String, Set<Attribute>> functionAttributes;
+    private MatchingMode matchingMode = MatchingMode.DISCRIMINATION_NET;
+    private EvaluationCache evaluationCache;
+    private ForkJoinPool parallelPool;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private final EvaluationMetrics metrics;
+    private boolean metricsEnabled;
+    private RewriteTrace rewriteTrace;
+    private boolean flightRecorderEvents;
+    private boolean instrumented;
+
+    /** Minimum number of arguments still to be evaluated before a node is evaluated in parallel. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 512;
+
+    private static final AtomicInteger RULE_SET_VERSIONS = new AtomicInteger();
+    private final int ruleSetVersion = RULE_SET_VERSIONS.incrementAndGet();
 
     public EvaluationEngine(PatternMatcher patternMatcher, List<Rule> rules, Map<String, Set<Attribute>> functionAttributes) {
+        this(patternMatcher, new RuleSet(rules, functionAttributes));
+    }
+
+    /**
+     * Creates an engine for a rule set that may be shared with other engines. Settings, metrics and normal-form
+     * marks stay per engine; cached results are shared by rule set.
+     */
+    public EvaluationEngine(PatternMatcher patternMatcher, RuleSet ruleSet) {
         this.patternMatcher = patternMatcher;
-        this.simplificationRules = rules;
-        this.functionAttributes = functionAttributes;
+        this.ruleSet = ruleSet;
+        this.ruleIndex = ruleSet.ruleIndex;
+        this.discriminationNet = ruleSet.discriminationNet;
+        this.functionAttributes = ruleSet.getFunctionAttributes();
+        this.metrics = new EvaluationMetrics(ruleSet.getRules());
+    }
+
+    public RuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    public MatchingMode getMatchingMode() {
+        return matchingMode;
+    }
+
+    /**
+     * Selects how rule patterns are matched. All modes fire the same rules; the interpretive mode is kept
+     * so the results of the compiled matchers can be cross-checked.
+     */
+    public void setMatchingMode(MatchingMode matchingMode) {
+        this.matchingMode = matchingMode;
+    }
+
+    public EvaluationCache getEvaluationCache() {
+        return evaluationCache;
+    }
+
+    /**
+     * Sets the cache used to memoize evaluation results of function nodes, or null to disable memoization.
+     * A cache may be shared between engines. Entries are keyed by the {@link RuleSet}, so engines built on the same
+     * rule set reuse each other's results, and engines with different rules never see them.
+     */
+    public void setEvaluationCache(EvaluationCache evaluationCache) {
+        this.evaluationCache = evaluationCache;
+    }
+
+    public ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    /**
+     * Sets the pool used to evaluate the arguments of wide function nodes in parallel, or null to evaluate
+     * everything on the calling thread.
+     */
+    public void setParallelPool(ForkJoinPool parallelPool) {
+        this.parallelPool = parallelPool;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets how many arguments of a node must still need evaluation before they are split across the pool.
+     * Arguments that are atoms or already in normal form are not counted, since they cost nothing to evaluate.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 2) {
+            throw new IllegalArgumentException("Parallel threshold must be at least 2: " + parallelThreshold);
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Returns the metrics of this engine, which are only updated while {@link #setMetricsEnabled enabled}.
+     */
+    public EvaluationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        updateInstrumented();
+    }
+
+    public RewriteTrace getRewriteTrace() {
+        return rewriteTrace;
+    }
+
+    /**
+     * Sets the recorder that every rule firing is written to, or null to record nothing.
+     */
+    public void setRewriteTrace(RewriteTrace rewriteTrace) {
+        this.rewriteTrace = rewriteTrace;
+        updateInstrumented();
+    }
+
+    public boolean isFlightRecorderEvents() {
+        return flightRecorderEvents;
+    }
+
+    /**
+     * Enables emitting a {@link RewriteEvent} to Java Flight Recorder for every rule firing. The events are still
+     * subject to the settings of the running recordings.
+     */
+    public void setFlightRecorderEvents(boolean flightRecorderEvents) {
+        this.flightRecorderEvents = flightRecorderEvents;
+        updateInstrumented();
+    }
+
+    private void updateInstrumented() {
+        instrumented = metricsEnabled || rewriteTrace != null || flightRecorderEvents;
     }
 
     public Node evaluate(Node node) {
+        RewriteTrace trace = rewriteTrace;
+        if (trace == null) {
+            return evaluate(node, 0);
+        }
+        trace.evaluationStarted();
+        try {
+            return evaluate(node, 0);
+        } finally {
+            trace.evaluationFinished();
+        }
+    }
+
+    private Node evaluate(Node node, int depth) {
+        if (node.normalFormVersion == ruleSetVersion) {
+            return node;
+        }
+        EvaluationCache cache = evaluationCache;
+        if (cache != null && node instanceof FunctionNode) {
+            Node cached = cache.get(ruleSet.version, node);
+            if (cached != null) {
+                return cached;
+            }
+            Node result = rewrite(node, depth);
+            cache.put(ruleSet.version, node, result);
+            return result;
+        }
+        return rewrite(node, depth);
+    }
+
+    private Node rewrite(Node node, int depth) {
         boolean globalChanged;
         do {
+            // Nodes already in normal form under this rule set are not descended into again
+            if (node.normalFormVersion == ruleSetVersion) {
+                return node;
+            }
             globalChanged = false;
+            boolean recording = metricsEnabled;
+            if (recording) {
+                metrics.recordPass();
+            }
 
             // Recursively call applyRules to arguments
             if (node instanceof FunctionNode) {
                 FunctionNode functionNode = (FunctionNode) node;
-                List<Node> newArguments = functionNode.arguments.stream()
-                        .map(this::evaluate)
-                        .collect(Collectors.toList());
+                List<Node> newArguments = evaluateArguments(functionNode.arguments, depth + 1);
                 node = new FunctionNode(functionNode.name, flattenArguments(newArguments));
+                if (recording) {
+                    metrics.recordNodeAllocation();
+                }
             }
 
             // Apply sorting if needed
@@ -38,24 +228,91 @@ public class EvaluationEngine {
                 Set<Attribute> attributes = functionAttributes.get(functionNode.name);
                 if (attributes != null && attributes.contains(Attribute.COMMUTATIVE)) {
                     node = new FunctionNode(functionNode.name, sortArguments(functionNode.arguments));
+                    if (recording) {
+                        metrics.recordNodeAllocation();
+                    }
                 }
             }
 
-            // Run each rule in order
-            for (Rule rule : simplificationRules) {
-                Node newNode = applyRule(node, rule);
-                if (newNode != null && !newNode.equals(node)) {
-                    node = newNode;
-                    globalChanged = true;
-                    break;
-                }
+            Node newNode = instrumented ? applyRulesInstrumented(node, depth) : applyRules(node);
+            if (newNode != null) {
+                node = newNode;
+                globalChanged = true;
             }
 
         } while (globalChanged);
 
+        node = NodeFactory.intern(node);
+        node.normalFormVersion = ruleSetVersion;
         return node;
     }
 
+    private List<Node> evaluateArguments(List<Node> arguments, int depth) {
+        ForkJoinPool pool = parallelPool;
+        if (pool == null || arguments.size() < parallelThreshold || pendingArguments(arguments) < parallelThreshold) {
+            return arguments.stream()
+                    .map(arg -> evaluate(arg, depth))
+                    .collect(Collectors.toList());
+        }
+
+        Node[] results = new Node[arguments.size()];
+        int chunkSize = Math.max(16, arguments.size() / (pool.getParallelism() * 4));
+        EvaluateArgumentsTask task = new EvaluateArgumentsTask(arguments, results, 0, arguments.size(), chunkSize, depth);
+        Thread thread = Thread.currentThread();
+        if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Counts the arguments that still have work to do, i.e. function nodes not yet in normal form.
+     */
+    private int pendingArguments(List<Node> arguments) {
+        int pending = 0;
+        for (Node arg : arguments) {
+            if (arg instanceof FunctionNode && arg.normalFormVersion != ruleSetVersion) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    private class EvaluateArgumentsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Node> arguments;
+        private final transient Node[] results;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private final int depth;
+
+        EvaluateArgumentsTask(List<Node> arguments, Node[] results, int from, int to, int chunkSize, int depth) {
+            this.arguments = arguments;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) {
+                    results[i] = evaluate(arguments.get(i), depth);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EvaluateArgumentsTask(arguments, results, from, middle, chunkSize, depth),
+                    new EvaluateArgumentsTask(arguments, results, middle, to, chunkSize, depth));
+        }
+    }
+
     private List<Node> flattenArguments(List<Node> arguments) {
         List<Node> flattenedArguments = new ArrayList<>();
         for (Node arg : arguments) {
@@ -69,9 +326,129 @@ public class EvaluationEngine {
     }
 
 
+    /**
+     * Applies the first rule that changes the node, returning the rewritten node or null if no rule fired.
+     */
+    private Node applyRules(Node node) {
+        if (matchingMode == MatchingMode.DISCRIMINATION_NET) {
+            for (DiscriminationNet.Match match : discriminationNet.match(node)) {
+                Node newNode = match.rewrite(node);
+                if (newNode != null && !newNode.equals(node)) {
+                    return newNode;
+                }
+            }
+        } else if (matchingMode == MatchingMode.COMPILED) {
+            for (Rule rule : ruleIndex.candidates(node)) {
+                Node newNode = applyCompiledRule(node, rule);
+                if (newNode != null && !newNode.equals(node)) {
+                    return newNode;
+                }
+            }
+        } else {
+            // Run each rule that could match this head and arity, in order
+            for (Rule rule : ruleIndex.candidates(node)) {
+                Node newNode = applyRule(node, rule);
+                if (newNode != null && !newNode.equals(node)) {
+                    return newNode;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #applyRules}, additionally updating the metrics for every rule tried and tracing the rule that
+     * fires, as far as each is enabled.
+     */
+    private Node applyRulesInstrumented(Node node, int depth) {
+        boolean recording = metricsEnabled;
+        if (matchingMode == MatchingMode.DISCRIMINATION_NET) {
+            // Rules the net rejected during its walk count as attempts that did not match
+            IntConsumer rejected = recording ? ruleIndex -> metrics.rule(ruleIndex).attempts.increment() : null;
+            for (DiscriminationNet.Match match : discriminationNet.match(node, rejected)) {
+                long start = recording ? System.nanoTime() : 0;
+                Node newNode = match.rewrite(node);
+                boolean fired = newNode != null && !newNode.equals(node);
+                if (recording) {
+                    recordAttempt(match.priority, fired || match.matches(node), fired, start);
+                }
+                if (fired) {
+                    traceRewrite(match.priority, node, newNode, depth);
+                    return newNode;
+                }
+            }
+            return null;
+        }
+        for (Rule rule : ruleIndex.candidates(node)) {
+            long start = recording ? System.nanoTime() : 0;
+            Node newNode = null;
+            boolean matched;
+            OrderlessPattern orderless = ruleSet.orderlessPattern(rule);
+            if (orderless != null) {
+                newNode = orderless.rewrite(node, rule.transformer);
+                matched = newNode != null || orderless.matches(node);
+            } else if (matchingMode == MatchingMode.COMPILED) {
+                Node[] slots = rule.compiledPattern().newSlots();
+                matched = rule.compiledPattern().match(node, slots);
+                if (matched) {
+                    newNode = rule.transformer.transform(node, rule.compiledPattern().bindings(slots));
+                }
+            } else {
+                Map<String, Node> bindings = patternMatcher.matchBindings(rule.pattern, node);
+                matched = bindings != null;
+                if (matched) {
+                    newNode = rule.transformer.transform(node, bindings);
+                }
+            }
+            boolean fired = newNode != null && !newNode.equals(node);
+            if (recording) {
+                recordAttempt(ruleSet.indexOf(rule), matched, fired, start);
+            }
+            if (fired) {
+                traceRewrite(ruleSet.indexOf(rule), node, newNode, depth);
+                return newNode;
+            }
+        }
+        return null;
+    }
+
+    private void recordAttempt(int ruleIndex, boolean matched, boolean fired, long start) {
+        EvaluationMetrics.RuleCounters counters = metrics.rule(ruleIndex);
+        counters.attempts.increment();
+        if (matched) {
+            counters.matches.increment();
+            (fired ? counters.fires : counters.rejections).increment();
+        }
+        counters.nanos.add(System.nanoTime() - start);
+    }
+
+    private void traceRewrite(int ruleIndex, Node node, Node newNode, int depth) {
+        RewriteTrace trace = rewriteTrace;
+        if (trace == null && !flightRecorderEvents) {
+            return;
+        }
+        String head = node instanceof FunctionNode ? ((FunctionNode) node).name : node.getClass().getSimpleName();
+        if (flightRecorderEvents) {
+            RewriteEvent event = new RewriteEvent();
+            if (event.isEnabled()) {
+                event.ruleIndex = ruleIndex;
+                event.head = head;
+                event.depth = depth;
+                event.commit();
+            }
+        }
+        if (trace != null) {
+            trace.record(ruleIndex, head, depth, node, newNode);
+        }
+    }
+
     private Node applyRule(Node node, Rule rule) {
-        Map<String, Node> bindings = new HashMap<>();
-        if (patternMatcher.match(rule.pattern, node, bindings)) {
+        OrderlessPattern orderless = ruleSet.orderlessPattern(rule);
+        if (orderless != null) {
+            return orderless.rewrite(node, rule.transformer);
+        }
+        Map<String, Node> bindings = patternMatcher.matchBindings(rule.pattern, node);
+        if (bindings != null) {
             Node transformedNode = rule.transformer.transform(node, bindings);
             if (transformedNode != null) {
                 return transformedNode;
@@ -80,18 +457,41 @@ public class EvaluationEngine {
         return node;
     }
 
+    private Node applyCompiledRule(Node node, Rule rule) {
+        OrderlessPattern orderless = ruleSet.orderlessPattern(rule);
+        if (orderless != null) {
+            return orderless.rewrite(node, rule.transformer);
+        }
+        Node[] slots = rule.compiledPattern().newSlots();
+        if (rule.compiledPattern().match(node, slots)) {
+            Node transformedNode = rule.transformer.transform(node, rule.compiledPattern().bindings(slots));
+            if (transformedNode != null) {
+                return transformedNode;
+            }
+        }
+        return node;
+    }
+
     private List<Node> sortArguments(List<Node> arguments) {
-        arguments.sort(new NodeComparator());
-        return arguments;
+        List<Node> sortedArguments = new ArrayList<>(arguments);
+        sortedArguments.sort(new NodeComparator());
+        return sortedArguments;
     }
 
-    private static class NodeComparator implements Comparator<Node> {
+    /**
+     * The order the arguments of commutative functions are sorted in.
+     */
+    static class NodeComparator implements Comparator<Node> {
         @Override
         public int compare(Node n1, Node n2) {
             if (n1 instanceof IntegerNode && n2 instanceof IntegerNode) {
-                return Integer.compare(((IntegerNode) n1).value, ((IntegerNode) n2).value);
+                return ((IntegerNode) n1).compareTo((IntegerNode) n2);
+            } else if (n1 instanceof RationalNode && n2 instanceof RationalNode) {
+                return ((RationalNode) n1).compareTo((RationalNode) n2);
             } else if (n1 instanceof RealNode && n2 instanceof RealNode) {
                 return ((RealNode) n1).value.compareTo(((RealNode) n2).value);
+            } else if (n1 instanceof MachineRealNode && n2 instanceof MachineRealNode) {
+                return Double.compare(((MachineRealNode) n1).value, ((MachineRealNode) n2).value);
             } else if (n1 instanceof VariableNode && n2 instanceof VariableNode) {
                 return ((VariableNode) n1).name.compareTo(((VariableNode) n2).name);
             } else if (n1 instanceof FunctionNode && n2 instanceof FunctionNode) {
@@ -122,12 +522,16 @@ public class EvaluationEngine {
         private int nodeTypeIndex(Node node) {
             if (node instanceof IntegerNode) {
                 return 0;
-            } else if (node instanceof RealNode) {
+            } else if (node instanceof RationalNode) {
                 return 1;
-            } else if (node instanceof VariableNode) {
+            } else if (node instanceof RealNode) {
                 return 2;
-            } else if (node instanceof FunctionNode) {
+            } else if (node instanceof MachineRealNode) {
                 return 3;
+            } else if (node instanceof VariableNode) {
+                return 4;
+            } else if (node instanceof FunctionNode) {
+                return 5;
             }
             return -1;
         }
@@ -0,0 +1,206 @@
+package no.volve;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing where an {@link EvaluationEngine} spends its time, per rule and for the engine as a whole.
+ * <p>
+ * Counters are {@link LongAdder}s, so engines evaluating in parallel do not contend on them. They are only updated
+ * while metrics are enabled on the engine; a disabled engine pays one field check per rule application.
+ * <p>
+ * In {@link EvaluationEngine.MatchingMode#DISCRIMINATION_NET} mode all rules are matched in one walk of the net, so
+ * a rule sees an attempt only if the net tried it: its path led to the candidate, it is an orderless rule for the
+ * candidate's head, or it is matched outside the net. Rules the net rules out by the candidate's shape are never
+ * counted, and the time of a rule covers the transformer and any orderless matching, not the walk.
+ */
+public class EvaluationMetrics implements EvaluationMetricsMXBean {
+    private final List<Rule> rules;
+    private final RuleCounters[] ruleCounters;
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder nodeAllocations = new LongAdder();
+
+    EvaluationMetrics(List<Rule> rules) {
+        this.rules = rules;
+        this.ruleCounters = new RuleCounters[rules.size()];
+        for (int i = 0; i < ruleCounters.length; i++) {
+            ruleCounters[i] = new RuleCounters();
+        }
+    }
+
+    RuleCounters rule(int index) {
+        return ruleCounters[index];
+    }
+
+    void recordPass() {
+        passes.increment();
+    }
+
+    void recordNodeAllocation() {
+        nodeAllocations.increment();
+    }
+
+    /**
+     * Returns a copy of the current counter values. Counters updated concurrently with the snapshot may be
+     * partially included.
+     */
+    public Snapshot snapshot() {
+        List<RuleStatistics> statistics = new ArrayList<>(ruleCounters.length);
+        for (int i = 0; i < ruleCounters.length; i++) {
+            RuleCounters counters = ruleCounters[i];
+            statistics.add(new RuleStatistics(i, fullForm(rules.get(i).pattern), counters.attempts.sum(),
+                    counters.matches.sum(), counters.rejections.sum(), counters.fires.sum(), counters.nanos.sum()));
+        }
+        return new Snapshot(passes.sum(), nodeAllocations.sum(), statistics);
+    }
+
+    @Override
+    public void reset() {
+        for (RuleCounters counters : ruleCounters) {
+            counters.attempts.reset();
+            counters.matches.reset();
+            counters.rejections.reset();
+            counters.fires.reset();
+            counters.nanos.reset();
+        }
+        passes.reset();
+        nodeAllocations.reset();
+    }
+
+    @Override
+    public long getPasses() {
+        return passes.sum();
+    }
+
+    @Override
+    public long getNodeAllocations() {
+        return nodeAllocations.sum();
+    }
+
+    @Override
+    public List<RuleStatistics> getRules() {
+        return snapshot().rules;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * {@code no.volve:type=EvaluationMetrics,name=<name>}, returning the name they were registered under.
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("no.volve:type=EvaluationMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    private static String fullForm(Node node) {
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            StringBuilder builder = new StringBuilder(functionNode.name).append('[');
+            for (int i = 0; i < functionNode.arguments.size(); i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(fullForm(functionNode.arguments.get(i)));
+            }
+            return builder.append(']').toString();
+        } else if (node instanceof VariableNode) {
+            return ((VariableNode) node).name;
+        } else if (node instanceof IntegerNode) {
+            return ((IntegerNode) node).toPlainString();
+        } else if (node instanceof RealNode) {
+            return ((RealNode) node).value.toPlainString();
+        }
+        return String.valueOf(node);
+    }
+
+    static class RuleCounters {
+        final LongAdder attempts = new LongAdder();
+        final LongAdder matches = new LongAdder();
+        final LongAdder rejections = new LongAdder();
+        final LongAdder fires = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    /**
+     * Counter values at one point in time.
+     */
+    public static class Snapshot {
+        public final long passes;
+        public final long nodeAllocations;
+        public final List<RuleStatistics> rules;
+
+        Snapshot(long passes, long nodeAllocations, List<RuleStatistics> rules) {
+            this.passes = passes;
+            this.nodeAllocations = nodeAllocations;
+            this.rules = Collections.unmodifiableList(rules);
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{passes=" + passes + ", nodeAllocations=" + nodeAllocations + ", rules=" + rules + '}';
+        }
+    }
+
+    /**
+     * Counter values of one rule. A rejection is a match whose transformer returned null or the unchanged node;
+     * a fire is a match that rewrote the node.
+     */
+    public static class RuleStatistics {
+        private final int index;
+        private final String pattern;
+        private final long attempts;
+        private final long matches;
+        private final long rejections;
+        private final long fires;
+        private final long nanos;
+
+        RuleStatistics(int index, String pattern, long attempts, long matches, long rejections, long fires, long nanos) {
+            this.index = index;
+            this.pattern = pattern;
+            this.attempts = attempts;
+            this.matches = matches;
+            this.rejections = rejections;
+            this.fires = fires;
+            this.nanos = nanos;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public long getAttempts() {
+            return attempts;
+        }
+
+        public long getMatches() {
+            return matches;
+        }
+
+        public long getRejections() {
+            return rejections;
+        }
+
+        public long getFires() {
+            return fires;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "RuleStatistics{index=" + index + ", pattern=" + pattern + ", attempts=" + attempts
+                    + ", matches=" + matches + ", rejections=" + rejections + ", fires=" + fires + ", nanos=" + nanos + '}';
+        }
+    }
+}
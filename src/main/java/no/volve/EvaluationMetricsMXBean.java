@@ -0,0 +1,16 @@
+package no.volve;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link EvaluationMetrics}, for reading the counters over JMX.
+ */
+public interface EvaluationMetricsMXBean {
+    long getPasses();
+
+    long getNodeAllocations();
+
+    List<EvaluationMetrics.RuleStatistics> getRules();
+
+    void reset();
+}
@@ -0,0 +1,402 @@
+package no.volve;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles numeric expressions to JVM bytecode for repeated evaluation.
+ * <p>
+ * The expression is translated into a hidden class implementing {@link CompiledFunction}, whose single method is
+ * straight-line double arithmetic reading the variables from its argument array. Once the JIT has compiled it,
+ * evaluating a point costs a few nanoseconds and allocates nothing. Expressions too large for one method fall back
+ * to a tree of closures.
+ * <p>
+ * Supported are numbers, the listed variables, {@code Plus}, {@code Times}, {@code Subtract}, {@code Divide},
+ * {@code Power}, {@code Minus} and the functions {@code sin}, {@code cos}, {@code tan}, {@code log} and {@code exp}.
+ */
+public class ExpressionCompiler {
+    private static final int MAX_CODE_LENGTH = 65535;
+    private static final int MAX_STACK = 65535;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DALOAD = 0x31;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * Compiles an expression over the given variables.
+     *
+     * @throws IllegalArgumentException if the expression contains an unknown variable or unsupported function
+     */
+    public static CompiledFunction compile(Node expression, List<String> variables) {
+        Map<String, Integer> slots = new HashMap<>();
+        for (int i = 0; i < variables.size(); i++) {
+            slots.put(variables.get(i), i);
+        }
+        validate(expression, slots);
+
+        BytecodeWriter writer = new BytecodeWriter(slots);
+        int maxStack = writer.emit(expression);
+        if (writer.code.size() + 1 > MAX_CODE_LENGTH || maxStack > MAX_STACK) {
+            return interpret(expression, slots);
+        }
+        writer.code.write(DRETURN);
+
+        try {
+            byte[] classFile = writer.classFile(maxStack);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (CompiledFunction) lookup.lookupClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException | IOException e) {
+            throw new IllegalStateException("Could not define compiled expression", e);
+        }
+    }
+
+    /**
+     * Builds a tree of closures evaluating the expression, for expressions that do not fit in a single method.
+     */
+    static CompiledFunction interpret(Node expression, Map<String, Integer> slots) {
+        if (expression instanceof VariableNode) {
+            int slot = slots.get(((VariableNode) expression).name);
+            return arguments -> arguments[slot];
+        } else if (!(expression instanceof FunctionNode)) {
+            double value = constant(expression);
+            return arguments -> value;
+        }
+
+        FunctionNode function = (FunctionNode) expression;
+        CompiledFunction[] operands = new CompiledFunction[function.arguments.size()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = interpret(function.arguments.get(i), slots);
+        }
+        switch (function.name) {
+            case "Plus":
+                return arguments -> {
+                    double sum = 0;
+                    for (CompiledFunction operand : operands) {
+                        sum += operand.apply(arguments);
+                    }
+                    return sum;
+                };
+            case "Times":
+                return arguments -> {
+                    double product = 1;
+                    for (CompiledFunction operand : operands) {
+                        product *= operand.apply(arguments);
+                    }
+                    return product;
+                };
+            case "Subtract":
+                return arguments -> operands[0].apply(arguments) - operands[1].apply(arguments);
+            case "Divide":
+                return arguments -> operands[0].apply(arguments) / operands[1].apply(arguments);
+            case "Power":
+                return arguments -> Math.pow(operands[0].apply(arguments), operands[1].apply(arguments));
+            case "Minus":
+                return arguments -> -operands[0].apply(arguments);
+            default:
+                MathFunction mathFunction = MathFunction.of(function.name);
+                return arguments -> mathFunction.apply(operands[0].apply(arguments));
+        }
+    }
+
+    static void validate(Node expression, Map<String, Integer> slots) {
+        if (expression instanceof VariableNode) {
+            if (!slots.containsKey(((VariableNode) expression).name)) {
+                throw new IllegalArgumentException("Unknown variable: " + ((VariableNode) expression).name);
+            }
+        } else if (expression instanceof FunctionNode) {
+            FunctionNode function = (FunctionNode) expression;
+            int arity = function.arguments.size();
+            boolean valid;
+            switch (function.name) {
+                case "Plus":
+                case "Times":
+                    valid = true;
+                    break;
+                case "Subtract":
+                case "Divide":
+                case "Power":
+                    valid = arity == 2;
+                    break;
+                default:
+                    valid = arity == 1 && ("Minus".equals(function.name) || MathFunction.forName(function.name) != null);
+            }
+            if (!valid) {
+                throw new IllegalArgumentException("Cannot compile function: " + function.name + " with " + arity + " arguments");
+            }
+            for (Node arg : function.arguments) {
+                validate(arg, slots);
+            }
+        } else {
+            constant(expression);
+        }
+    }
+
+    static double constant(Node node) {
+        if (node instanceof IntegerNode) {
+            return ((IntegerNode) node).doubleValue();
+        } else if (node instanceof RationalNode) {
+            return ((RationalNode) node).doubleValue();
+        } else if (node instanceof RealNode) {
+            return ((RealNode) node).value.doubleValue();
+        } else if (node instanceof MachineRealNode) {
+            return ((MachineRealNode) node).value;
+        }
+        throw new IllegalArgumentException("Cannot compile node: " + node);
+    }
+
+    /**
+     * Writes the class file of a {@link CompiledFunction} implementation. The code has no branches, so no stack
+     * map frames are needed.
+     */
+    private static class BytecodeWriter {
+        private final Map<String, Integer> slots;
+        private final ConstantPool constantPool = new ConstantPool();
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        BytecodeWriter(Map<String, Integer> slots) {
+            this.slots = slots;
+        }
+
+        /**
+         * Emits code leaving the value of the node on the operand stack, returning the stack depth it needs.
+         */
+        int emit(Node node) {
+            if (node instanceof VariableNode) {
+                code.write(ALOAD_1);
+                pushInt(slots.get(((VariableNode) node).name));
+                code.write(DALOAD);
+                return 2;
+            } else if (!(node instanceof FunctionNode)) {
+                writeIndexed(LDC2_W, constantPool.doubleConstant(constant(node)));
+                return 2;
+            }
+
+            FunctionNode function = (FunctionNode) node;
+            switch (function.name) {
+                case "Plus":
+                    return emitFold(function.arguments, DADD, 0.0);
+                case "Times":
+                    return emitFold(function.arguments, DMUL, 1.0);
+                case "Subtract":
+                    return emitBinary(function.arguments, DSUB);
+                case "Divide":
+                    return emitBinary(function.arguments, DDIV);
+                case "Power": {
+                    int depth = emitBinary(function.arguments, -1);
+                    invokeMath("pow", "(DD)D");
+                    return depth;
+                }
+                case "Minus": {
+                    int depth = emit(function.arguments.get(0));
+                    code.write(DNEG);
+                    return depth;
+                }
+                default: {
+                    int depth = emit(function.arguments.get(0));
+                    invokeMath(MathFunction.of(function.name).functionName, "(D)D");
+                    return depth;
+                }
+            }
+        }
+
+        private int emitFold(List<Node> arguments, int opcode, double identity) {
+            if (arguments.isEmpty()) {
+                writeIndexed(LDC2_W, constantPool.doubleConstant(identity));
+                return 2;
+            }
+            int depth = emit(arguments.get(0));
+            for (int i = 1; i < arguments.size(); i++) {
+                depth = Math.max(depth, 2 + emit(arguments.get(i)));
+                code.write(opcode);
+            }
+            return depth;
+        }
+
+        private int emitBinary(List<Node> arguments, int opcode) {
+            int depth = Math.max(emit(arguments.get(0)), 2 + emit(arguments.get(1)));
+            if (opcode >= 0) {
+                code.write(opcode);
+            }
+            return depth;
+        }
+
+        private void invokeMath(String name, String descriptor) {
+            writeIndexed(INVOKESTATIC, constantPool.methodRef("java/lang/Math", name, descriptor));
+        }
+
+        private void pushInt(int value) {
+            if (value <= 5) {
+                code.write(ICONST_0 + value);
+            } else if (value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(value);
+            } else if (value <= Short.MAX_VALUE) {
+                code.write(SIPUSH);
+                code.write(value >> 8);
+                code.write(value);
+            } else {
+                writeIndexed(LDC_W, constantPool.intConstant(value));
+            }
+        }
+
+        private void writeIndexed(int opcode, int index) {
+            code.write(opcode);
+            code.write(index >> 8);
+            code.write(index);
+        }
+
+        byte[] classFile(int maxStack) throws IOException {
+            int thisClass = constantPool.classRef("no/volve/CompiledExpression");
+            int superClass = constantPool.classRef("java/lang/Object");
+            int interfaceClass = constantPool.classRef("no/volve/CompiledFunction");
+            int objectInit = constantPool.methodRef("java/lang/Object", "<init>", "()V");
+            int initName = constantPool.utf8("<init>");
+            int initDescriptor = constantPool.utf8("()V");
+            int applyName = constantPool.utf8("apply");
+            int applyDescriptor = constantPool.utf8("([D)D");
+            int codeName = constantPool.utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            constantPool.write(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            byte[] initCode = {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN};
+            writeMethod(out, initName, initDescriptor, codeName, 1, 1, initCode);
+            writeMethod(out, applyName, applyDescriptor, codeName, maxStack, 2, code.toByteArray());
+
+            out.writeShort(0); // class attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // code attributes
+        }
+    }
+
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, 1, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, 1, () -> {
+                out.writeByte(7);
+                out.writeShort(name);
+            });
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + descriptor, 1, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("M" + owner + "." + name + descriptor, 1, () -> {
+                out.writeByte(10);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        int doubleConstant(double value) {
+            // Doubles take two constant pool slots
+            return entry("D" + Double.doubleToRawLongBits(value), 2, () -> {
+                out.writeByte(6);
+                out.writeDouble(value);
+            });
+        }
+
+        int intConstant(int value) {
+            return entry("I" + value, 1, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        private int entry(String key, int size, EntryWriter writer) {
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            entries.put(key, count);
+            count += size;
+            return count - size;
+        }
+
+        void write(DataOutputStream classOut) throws IOException {
+            out.flush();
+            classOut.writeShort(count);
+            classOut.write(bytes.toByteArray());
+        }
+
+        @FunctionalInterface
+        private interface EntryWriter {
+            void write() throws IOException;
+        }
+    }
+}
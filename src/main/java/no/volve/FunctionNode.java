@@ -3,13 +3,19 @@ package no.volve;
 import java.util.List;
 import java.util.Objects;
 
+/**
+ * A function application. Like every node it is immutable: the arguments are copied into an unmodifiable list on
+ * construction, so the structural hash computed up front stays valid and nodes can be shared between threads.
+ */
 class FunctionNode extends Node {
     public final String name;
     public final List<Node> arguments;
+    private final int hash;
 
     public FunctionNode(String name, List<Node> arguments) {
         this.name = name;
-        this.arguments = arguments;
+        this.arguments = List.copyOf(arguments);
+        this.hash = 31 * Objects.hashCode(name) + this.arguments.hashCode();
     }
 
     @Override
@@ -26,11 +32,14 @@ class FunctionNode extends Node {
             return false;
         }
         FunctionNode that = (FunctionNode) obj;
+        if (hash != that.hash || (interned && that.interned)) {
+            return false;
+        }
         return Objects.equals(name, that.name) && Objects.equals(arguments, that.arguments);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, arguments);
+        return hash;
     }
 }
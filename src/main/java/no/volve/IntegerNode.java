@@ -1,13 +1,189 @@
 package no.volve;
 
-import java.util.Objects;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 
+/**
+ * An exact integer of arbitrary size. Values that fit in a {@code long} are stored and computed on directly;
+ * an operation that overflows promotes its result to a {@link BigInteger}, and results that fit in a
+ * {@code long} again are demoted, so small arithmetic never allocates a {@code BigInteger}.
+ */
 class IntegerNode extends Node {
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+    /**
+     * The largest result, in bits, that {@link #pow} computes; about 315,000 decimal digits.
+     */
+    static final long MAX_POWER_BITS = 1L << 20;
 
-    public final int value;
+    /**
+     * The value if it fits in a {@code long}; only meaningful when {@link #isBig()} is false.
+     */
+    public final long value;
+    private final BigInteger bigValue;
 
-    IntegerNode(int value) {
+    IntegerNode(long value) {
         this.value = value;
+        this.bigValue = null;
+    }
+
+    IntegerNode(BigInteger value) {
+        if (value.compareTo(LONG_MIN) >= 0 && value.compareTo(LONG_MAX) <= 0) {
+            this.value = value.longValue();
+            this.bigValue = null;
+        } else {
+            this.value = 0;
+            this.bigValue = value;
+        }
+    }
+
+    /**
+     * Parses a string of decimal digits with an optional sign, creating a big value directly if it does not
+     * fit in a {@code long}.
+     */
+    static IntegerNode parse(CharSequence digits) {
+        int length = digits.length();
+        int start = length > 0 && (digits.charAt(0) == '-' || digits.charAt(0) == '+') ? 1 : 0;
+        if (length - start < 19) {
+            return new IntegerNode(Long.parseLong(digits, 0, length, 10));
+        }
+        return new IntegerNode(new BigInteger(digits.toString()));
+    }
+
+    public boolean isBig() {
+        return bigValue != null;
+    }
+
+    public boolean isZero() {
+        return bigValue == null && value == 0;
+    }
+
+    public boolean isOne() {
+        return bigValue == null && value == 1;
+    }
+
+    public int signum() {
+        return bigValue != null ? bigValue.signum() : Long.signum(value);
+    }
+
+    public BigInteger toBigInteger() {
+        return bigValue != null ? bigValue : BigInteger.valueOf(value);
+    }
+
+    public BigDecimal toBigDecimal() {
+        return bigValue != null ? new BigDecimal(bigValue) : BigDecimal.valueOf(value);
+    }
+
+    public double doubleValue() {
+        return bigValue != null ? bigValue.doubleValue() : (double) value;
+    }
+
+    public IntegerNode add(IntegerNode other) {
+        if (bigValue == null && other.bigValue == null) {
+            long result = value + other.value;
+            // Overflow iff both operands have the sign opposite to the result, as in Math.addExact
+            if (((value ^ result) & (other.value ^ result)) >= 0) {
+                return new IntegerNode(result);
+            }
+        }
+        return new IntegerNode(toBigInteger().add(other.toBigInteger()));
+    }
+
+    public IntegerNode subtract(IntegerNode other) {
+        if (bigValue == null && other.bigValue == null) {
+            long result = value - other.value;
+            if (((value ^ other.value) & (value ^ result)) >= 0) {
+                return new IntegerNode(result);
+            }
+        }
+        return new IntegerNode(toBigInteger().subtract(other.toBigInteger()));
+    }
+
+    public IntegerNode multiply(IntegerNode other) {
+        if (bigValue == null && other.bigValue == null) {
+            long high = Math.multiplyHigh(value, other.value);
+            long low = value * other.value;
+            if ((high == 0 && low >= 0) || (high == -1 && low < 0)) {
+                return new IntegerNode(low);
+            }
+        }
+        return new IntegerNode(toBigInteger().multiply(other.toBigInteger()));
+    }
+
+    public IntegerNode negate() {
+        if (bigValue == null && value != Long.MIN_VALUE) {
+            return new IntegerNode(-value);
+        }
+        return new IntegerNode(toBigInteger().negate());
+    }
+
+    /**
+     * Returns this value divided by the divisor if the division is exact, or null if it is not or the divisor is zero.
+     */
+    public IntegerNode divideExact(IntegerNode divisor) {
+        if (divisor.isZero()) {
+            return null;
+        }
+        if (bigValue == null && divisor.bigValue == null && !(value == Long.MIN_VALUE && divisor.value == -1)) {
+            return value % divisor.value == 0 ? new IntegerNode(value / divisor.value) : null;
+        }
+        BigInteger[] quotientAndRemainder = toBigInteger().divideAndRemainder(divisor.toBigInteger());
+        return quotientAndRemainder[1].signum() == 0 ? new IntegerNode(quotientAndRemainder[0]) : null;
+    }
+
+    /**
+     * Raises this value to a non-negative exponent by repeated squaring, or returns null if the result is not an
+     * integer or would have more than {@link #MAX_POWER_BITS} bits.
+     */
+    public IntegerNode pow(IntegerNode exponent) {
+        if (exponent.signum() < 0) {
+            if (bigValue == null && (value == 1 || value == -1)) {
+                return exponent.isEven() ? new IntegerNode(1) : this;
+            }
+            return null;
+        }
+        if (bigValue == null && (value == 0 || value == 1) && !exponent.isZero()) {
+            return this;
+        } else if (bigValue == null && value == -1) {
+            return exponent.isEven() ? new IntegerNode(1) : this;
+        }
+        // The result has at most bitLength * exponent bits; check before any multiplication is done
+        long bits = bigValue != null ? bigValue.bitLength() : 64 - Long.numberOfLeadingZeros(Math.abs(value));
+        if (exponent.isBig() || exponent.value > MAX_POWER_BITS / Math.max(bits, 1)) {
+            return null;
+        }
+
+        long remaining = exponent.value;
+        IntegerNode result = new IntegerNode(1);
+        IntegerNode base = this;
+        while (remaining > 0) {
+            if ((remaining & 1) == 1) {
+                result = result.multiply(base);
+            }
+            remaining >>= 1;
+            if (remaining > 0) {
+                base = base.multiply(base);
+            }
+        }
+        return result;
+    }
+
+    public boolean isEven() {
+        return bigValue != null ? !bigValue.testBit(0) : (value & 1) == 0;
+    }
+
+    public int compareTo(IntegerNode other) {
+        if (bigValue == null && other.bigValue == null) {
+            return Long.compare(value, other.value);
+        }
+        return toBigInteger().compareTo(other.toBigInteger());
+    }
+
+    /**
+     * Returns the decimal representation of the value.
+     */
+    public String toPlainString() {
+        return bigValue != null ? bigValue.toString() : Long.toString(value);
     }
 
     @Override
@@ -15,18 +191,21 @@ class IntegerNode extends Node {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         IntegerNode that = (IntegerNode) o;
-        return value == that.value;
+        if (bigValue == null || that.bigValue == null) {
+            return bigValue == that.bigValue && value == that.value;
+        }
+        return bigValue.equals(that.bigValue);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(value);
+        return bigValue != null ? bigValue.hashCode() : Long.hashCode(value);
     }
 
     @Override
     public String toString() {
         return "IntegerNode{" +
-                "value=" + value +
+                "value=" + toPlainString() +
                 '}';
     }
 }
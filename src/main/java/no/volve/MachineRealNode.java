@@ -0,0 +1,33 @@
+package no.volve;
+
+/**
+ * A real number in machine (IEEE 754 double) precision.
+ * <p>
+ * Arithmetic involving a machine real yields a machine real, so exact and arbitrary-precision operands are
+ * converted to doubles as soon as they meet one.
+ */
+public class MachineRealNode extends Node {
+    public final double value;
+
+    MachineRealNode(double value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MachineRealNode that = (MachineRealNode) o;
+        return Double.compare(value, that.value) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return "MachineRealNode{value=" + value + '}';
+    }
+}
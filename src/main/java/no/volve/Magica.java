@@ -1,10 +1,24 @@
 package no.volve;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Scanner;
 
 public class Magica {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+
         StandardEvaluator evaluator = new StandardEvaluator();
         Scanner scanner = new Scanner(System.in);
 
@@ -21,7 +35,7 @@ public class Magica {
 
             try {
                 StandardMathTokenizer tokenizer = new StandardMathTokenizer(input);
-                StandardMathParser parser = new StandardMathParser(tokenizer.tokenize());
+                StandardMathParser parser = new StandardMathParser(tokenizer.tokenStream());
                 Node parsedExpression = parser.parse();
                 Node evaluatedExpression = evaluator.evaluate(parsedExpression);
                 StandardMathFormatter formatter = new StandardMathFormatter(parser);
@@ -34,4 +48,37 @@ public class Magica {
 
         System.out.println("Goodbye!");
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs {@code --batch [--threads N] [--output FILE] [FILE]}: evaluates one expression per line of the file, or of
+     * standard input if none is given, and writes the results in input order to the output file or standard output.
+     * A throughput and latency summary is printed to standard error.
+     */
+    private static void runBatch(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path inputFile = null;
+        Path outputFile = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--output") && i + 1 < args.length) {
+                outputFile = Path.of(args[++i]);
+            } else if (inputFile == null && !args[i].startsWith("--")) {
+                inputFile = Path.of(args[i]);
+            } else {
+                System.err.println("Usage: Magica --batch [--threads N] [--output FILE] [FILE]");
+                System.exit(2);
+            }
+        }
+
+        try (BufferedReader input = inputFile != null
+                ? Files.newBufferedReader(inputFile, StandardCharsets.UTF_8)
+                : new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+             WritableByteChannel output = outputFile != null
+                     ? Files.newByteChannel(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+                     : Channels.newChannel(System.out)) {
+            BatchProcessor.Summary summary = new BatchProcessor(threads).run(input, output);
+            System.err.println(summary);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package no.volve;
+
+/**
+ * The elementary functions of one argument known to the standard math syntax and to numeric evaluation. Each is
+ * named like the {@link Math} method computing it, which is what compiled expressions call.
+ */
+enum MathFunction {
+    SIN("sin"),
+    COS("cos"),
+    TAN("tan"),
+    LOG("log"),
+    EXP("exp");
+
+    private static final MathFunction[] VALUES = values();
+
+    public final String functionName;
+
+    MathFunction(String functionName) {
+        this.functionName = functionName;
+    }
+
+    /**
+     * Returns the function with the given name, or null if there is none.
+     */
+    static MathFunction forName(String name) {
+        for (MathFunction function : VALUES) {
+            if (function.functionName.equals(name)) {
+                return function;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the function with the given name, which must be known.
+     *
+     * @throws IllegalArgumentException if there is no function with that name
+     */
+    static MathFunction of(String name) {
+        MathFunction function = forName(name);
+        if (function == null) {
+            throw new IllegalArgumentException("Unknown function: " + name);
+        }
+        return function;
+    }
+
+    double apply(double x) {
+        switch (this) {
+            case SIN:
+                return Math.sin(x);
+            case COS:
+                return Math.cos(x);
+            case TAN:
+                return Math.tan(x);
+            case LOG:
+                return Math.log(x);
+            case EXP:
+                return Math.exp(x);
+            default:
+                throw new AssertionError(this);
+        }
+    }
+}
@@ -1,8 +1,20 @@
 package no.volve;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class MathematicaParser {
 
@@ -17,91 +29,375 @@ public class MathematicaParser {
         Parser parser = new Parser(input);
         return parser.parse();
     }
+
+    /**
+     * Parses the first expression read from the input.
+     */
+    public Node parse(Reader input) throws IOException {
+        return new Parser(input).next();
+    }
+
+    /**
+     * Passes every top-level expression in the input to the consumer as soon as it has been read, so inputs larger
+     * than memory can be processed one expression at a time. Expressions are separated by whitespace or commas.
+     */
+    public void parseAll(Reader input, Consumer<? super Node> consumer) throws IOException {
+        Parser parser = new Parser(input);
+        Node node;
+        while ((node = parser.next()) != null) {
+            consumer.accept(node);
+        }
+    }
+
+    /**
+     * Like {@link #parseAll(Reader, Consumer)}, for characters already in memory, such as a {@link CharBuffer} view
+     * of a mapped file. The characters are read in chunks and never copied as a whole.
+     */
+    public void parseAll(CharSequence input, Consumer<? super Node> consumer) {
+        Parser parser = new Parser(input);
+        Node node;
+        try {
+            while ((node = parser.next()) != null) {
+                consumer.accept(node);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void parseAll(Path file, Consumer<? super Node> consumer) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            parseAll(reader, consumer);
+        }
+    }
 }
 
+/**
+ * Reads FullForm expressions from a window of characters that is refilled from a {@link Reader} as it is consumed.
+ * <p>
+ * Open function applications are kept on an explicit stack, so the nesting depth is limited by the heap and not by
+ * the thread stack. A number or symbol is always parsed from contiguous characters in the window: when one reaches
+ * the end of the window, the window is compacted or grown before more characters are read.
+ */
 class Parser {
-    private final String input;
-    private int pos = 0;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int END = -1;
+    private static final int MAX_PRECISION = 100000;
+
+    private final Reader reader;
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private boolean exhausted;
+    // Symbols seen recently, by hash of their characters, so repeated heads share one string
+    private final String[] symbols = new String[1024];
+
+    Parser(CharSequence input) {
+        this(new CharSequenceReader(input), Math.max(16, Math.min(CHUNK_SIZE, input.length())));
+    }
+
+    Parser(Reader reader) {
+        this(reader, CHUNK_SIZE);
+    }
 
-    Parser(String input) {
-        this.input = input;
+    private Parser(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.buffer = new char[bufferSize];
     }
 
+    /**
+     * Parses the first expression, ignoring whatever follows it.
+     */
     Node parse() {
-        return parseExpression();
+        try {
+            Node node = parseExpression();
+            consumeWhitespace();
+            return node;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private Node parseExpression() {
-        char currentChar = input.charAt(pos);
-        if (Character.isDigit(currentChar) || currentChar == '-' || currentChar == '+' || currentChar == '.') {
-            return parseNumber();
-        } else if (Character.isLetter(currentChar)) {
-            return parseFunctionOrVariable();
-        } else {
+    /**
+     * Returns the next top-level expression, or null at the end of the input. Nothing after the expression is read
+     * before it is returned, so an interactive reader is not blocked on.
+     */
+    Node next() throws IOException {
+        int c;
+        while ((c = peek()) != END && (Character.isWhitespace(c) || c == ',')) {
+            position++;
+        }
+        return c == END ? null : parseExpression();
+    }
+
+    private Node parseExpression() throws IOException {
+        Deque<Application> stack = new ArrayDeque<>();
+        while (true) {
+            Node node;
+            int c = peek();
+            if (c == END) {
+                throw new IllegalArgumentException("Invalid input format");
+            } else if (Character.isDigit(c) || c == '-' || c == '+' || c == '.') {
+                node = parseNumber();
+            } else if (Character.isLetter(c)) {
+                String identifier = parseIdentifier();
+                if (peek() != '[') {
+                    node = new VariableNode(identifier);
+                } else {
+                    position++; // Consume '['
+                    consumeWhitespace();
+                    stack.push(new Application(identifier));
+                    node = closeEmpty(stack);
+                }
+            } else {
+                throw new IllegalArgumentException("Invalid input format");
+            }
+
+            // Add the node to the innermost open application, closing every application it completes
+            while (node != null) {
+                if (stack.isEmpty()) {
+                    return node;
+                }
+                stack.peek().arguments.add(node);
+                consumeWhitespace();
+                if (peek() == ',') {
+                    position++; // Consume ','
+                    consumeWhitespace();
+                }
+                node = closeEmpty(stack);
+            }
+        }
+    }
+
+    /**
+     * Closes the innermost application if the next character is its ']', returning the completed node.
+     */
+    private Node closeEmpty(Deque<Application> stack) throws IOException {
+        int c = peek();
+        if (c == END) {
             throw new IllegalArgumentException("Invalid input format");
+        } else if (c != ']') {
+            return null;
         }
+        position++; // Consume ']'
+        Application application = stack.pop();
+        return new FunctionNode(application.head, application.arguments);
     }
 
-    private Node parseNumber() {
-        boolean negative = false;
-        if (input.charAt(pos) == '+' || input.charAt(pos) == '-') {
-            negative = input.charAt(pos) == '-';
-            pos++;
+    private Node parseNumber() throws IOException {
+        int start = position;
+        int end = start;
+        if (buffer[end] == '+' || buffer[end] == '-') {
+            end++;
         }
-        StringBuilder number = new StringBuilder();
-        while (pos < input.length() && (Character.isDigit(input.charAt(pos)) || input.charAt(pos) == '.')) {
-            number.append(input.charAt(pos));
-            pos++;
+        int digitsStart = end;
+        boolean decimal = false;
+        while (true) {
+            if (end == limit) {
+                int shift = fill(start);
+                start -= shift;
+                digitsStart -= shift;
+                end -= shift;
+                if (end == limit) {
+                    break;
+                }
+            }
+            char c = buffer[end];
+            if (Character.isDigit(c)) {
+                end++;
+            } else if (c == '.') {
+                decimal = true;
+                end++;
+            } else {
+                break;
+            }
         }
-        if (number.length() == 0) {
+        position = end;
+        if (end == digitsStart) {
             throw new IllegalArgumentException("Invalid input format");
         }
-        if (number.toString().contains(".")) {
-            BigDecimal value = new BigDecimal(number.toString());
-            return negative ? new RealNode(value.negate()) : new RealNode(value);
-        } else {
-            int value = Integer.parseInt(number.toString());
-            return negative ? new IntegerNode(-value) : new IntegerNode(value);
+        boolean negative = buffer[start] == '-';
+        if (peek() == '`') {
+            position++; // Consume '`', which marks a machine-precision number unless a precision follows it
+            // Copied before the precision is read, which may move the window
+            String digits = new String(buffer, digitsStart, end - digitsStart);
+            int precision = parsePrecision();
+            if (precision == 0) {
+                double value = Double.parseDouble(digits);
+                return new MachineRealNode(negative ? -value : value);
+            }
+            BigDecimal value = withPrecision(new BigDecimal(digits), precision);
+            return new RealNode(negative ? value.negate() : value);
         }
+        if (decimal) {
+            BigDecimal value = new BigDecimal(buffer, digitsStart, end - digitsStart);
+            return new RealNode(negative ? value.negate() : value);
+        }
+        if (end - digitsStart <= 18) {
+            long value = 0;
+            for (int i = digitsStart; i < end; i++) {
+                value = value * 10 + Character.digit(buffer[i], 10);
+            }
+            return new IntegerNode(negative ? -value : value);
+        }
+        return IntegerNode.parse(CharBuffer.wrap(buffer, start, end - start));
     }
 
-    private Node parseFunctionOrVariable() {
-        StringBuilder identifier = new StringBuilder();
-        while (pos < input.length() && (Character.isAlphabetic(input.charAt(pos)) || input.charAt(pos) == '_')) {
-            identifier.append(input.charAt(pos));
-            pos++;
+    /**
+     * Reads the decimal digits after a '`', returning 0 if there are none. Accuracies ({@code ``}) and fractional
+     * precisions are rejected rather than read as a separate argument.
+     */
+    private int parsePrecision() throws IOException {
+        int precision = 0;
+        int c;
+        boolean digits = false;
+        while ((c = peek()) != END && Character.isDigit(c)) {
+            precision = precision * 10 + Character.digit(c, 10);
+            if (precision > MAX_PRECISION) {
+                throw new IllegalArgumentException("Precision is larger than " + MAX_PRECISION + " digits");
+            }
+            digits = true;
+            position++;
+        }
+        if (c == '`' || c == '.' || (digits && precision == 0)) {
+            throw new IllegalArgumentException("Unsupported number precision");
         }
+        return precision;
+    }
+
+    /**
+     * Rounds the value to the given number of significant digits, padding it with trailing zeros if it has fewer,
+     * so the precision is kept in the scale.
+     */
+    private static BigDecimal withPrecision(BigDecimal value, int precision) {
+        BigDecimal rounded = value.round(new MathContext(precision));
+        return rounded.setScale(rounded.scale() + precision - rounded.precision());
+    }
 
-        if (pos >= input.length() || input.charAt(pos) != '[') {
-            return new VariableNode(identifier.toString());
+    private String parseIdentifier() throws IOException {
+        int start = position;
+        int end = start;
+        int hash = 0;
+        while (true) {
+            if (end == limit) {
+                int shift = fill(start);
+                start -= shift;
+                end -= shift;
+                if (end == limit) {
+                    break;
+                }
+            }
+            char c = buffer[end];
+            if (!Character.isAlphabetic(c) && c != '_') {
+                break;
+            }
+            hash = 31 * hash + c;
+            end++;
         }
+        position = end;
+        return symbol(start, end, hash);
+    }
 
-        pos++; // Consume '['
-        consumeWhitespace();
-        List<Node> arguments = new ArrayList<>();
-        while (pos < input.length() && input.charAt(pos) != ']') {
-            arguments.add(parseExpression());
-            consumeWhitespace();
-            if (pos < input.length() && input.charAt(pos) == ',') {
-                pos++; // Consume ','
-                consumeWhitespace();
+    private String symbol(int start, int end, int hash) {
+        int slot = (hash ^ (hash >>> 16)) & (symbols.length - 1);
+        String symbol = symbols[slot];
+        if (symbol != null && symbol.length() == end - start) {
+            int i = 0;
+            while (i < symbol.length() && symbol.charAt(i) == buffer[start + i]) {
+                i++;
+            }
+            if (i == symbol.length()) {
+                return symbol;
             }
         }
+        symbol = new String(buffer, start, end - start);
+        symbols[slot] = symbol;
+        return symbol;
+    }
 
-        if (pos >= input.length() || input.charAt(pos) != ']') {
-            throw new IllegalArgumentException("Invalid input format");
+    private void consumeWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) != END && Character.isWhitespace(c)) {
+            position++;
         }
+    }
 
-        pos++; // Consume ']'
-        consumeWhitespace();
-        return new FunctionNode(identifier.toString(), arguments);
+    private int peek() throws IOException {
+        if (position == limit) {
+            fill(position);
+        }
+        return position < limit ? buffer[position] : END;
     }
 
-    private void consumeWhitespace() {
-        while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
-            pos++;
+    /**
+     * Reads more characters, keeping those from {@code keep} on, which start a token still being read. Returns how
+     * far the kept characters were moved towards the start of the buffer.
+     */
+    private int fill(int keep) throws IOException {
+        if (exhausted) {
+            return 0;
         }
+        int shift = keep;
+        int kept = limit - keep;
+        if (kept == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        System.arraycopy(buffer, keep, buffer, 0, kept);
+        position -= shift;
+        limit = kept;
+        int read;
+        do {
+            read = reader.read(buffer, limit, buffer.length - limit);
+        } while (read == 0);
+        if (read < 0) {
+            exhausted = true;
+        } else {
+            limit += read;
+        }
+        return shift;
     }
 
-}
+    /**
+     * Reads a character sequence in bulk, so a {@link CharBuffer} or string is consumed without a call per character.
+     */
+    private static class CharSequenceReader extends Reader {
+        private final CharSequence input;
+        private int position;
 
+        CharSequenceReader(CharSequence input) {
+            this.input = input;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            int count = Math.min(length, input.length() - position);
+            if (count <= 0) {
+                return length == 0 ? 0 : -1;
+            }
+            if (input instanceof String) {
+                ((String) input).getChars(position, position + count, buffer, offset);
+            } else if (input instanceof CharBuffer) {
+                ((CharBuffer) input).duplicate().position(((CharBuffer) input).position() + position).get(buffer, offset, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    buffer[offset + i] = input.charAt(position + i);
+                }
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class Application {
+        final String head;
+        final List<Node> arguments = new ArrayList<>();
+
+        Application(String head) {
+            this.head = head;
+        }
+    }
+}
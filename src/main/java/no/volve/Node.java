@@ -1,4 +1,16 @@
 package no.volve;
 
 abstract class Node {
+    /**
+     * Version of the rule set under which this node is known to be in normal form, or 0 if it has not been
+     * evaluated. Every {@link EvaluationEngine} has its own version, so a mark left by one engine is never
+     * trusted by another. The mark is written without synchronization: a thread that does not see it yet only
+     * evaluates the node again.
+     */
+    int normalFormVersion;
+
+    /**
+     * Whether this node is the canonical instance held by {@link NodeFactory}.
+     */
+    boolean interned;
 }
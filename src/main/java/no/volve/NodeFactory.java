@@ -0,0 +1,160 @@
+package no.volve;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash-consing factory for nodes.
+ * <p>
+ * Structurally equal nodes created through this factory are the same object, so repeated subexpressions share
+ * memory and two interned nodes are equal exactly when they are identical. Reals are the exception: they are
+ * equal regardless of scale but interned per scale, so {@code 2.50} keeps its trailing zero, and nodes containing
+ * them are not marked as interned. The table only holds weak references, so canonical nodes are reclaimed once
+ * nothing else refers to them.
+ */
+final class NodeFactory {
+    private static final ConcurrentHashMap<InternedRef, InternedRef> TABLE = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Node> QUEUE = new ReferenceQueue<>();
+
+    private NodeFactory() {
+    }
+
+    static IntegerNode integer(long value) {
+        return intern(new IntegerNode(value));
+    }
+
+    static VariableNode variable(String name) {
+        return intern(new VariableNode(name));
+    }
+
+    static FunctionNode function(String name, List<Node> arguments) {
+        return intern(new FunctionNode(name, arguments));
+    }
+
+    /**
+     * Returns the canonical node structurally equal to the given one, interning it and all its subexpressions
+     * if no such node exists yet.
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Node> T intern(T node) {
+        if (node.interned) {
+            return node;
+        }
+        Node candidate = node;
+        // Whether equality of the canonical node implies identity, which FunctionNode.equals relies on
+        boolean identityEquality = !(node instanceof RealNode);
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            List<Node> arguments = null;
+            for (int i = 0; i < functionNode.arguments.size(); i++) {
+                Node arg = functionNode.arguments.get(i);
+                Node canonicalArg = intern(arg);
+                identityEquality &= canonicalArg.interned;
+                if (canonicalArg != arg && arguments == null) {
+                    arguments = new ArrayList<>(functionNode.arguments.subList(0, i));
+                }
+                if (arguments != null) {
+                    arguments.add(canonicalArg);
+                }
+            }
+            if (arguments != null) {
+                candidate = new FunctionNode(functionNode.name, arguments);
+            }
+        } else if (!(node instanceof IntegerNode || node instanceof RationalNode || node instanceof RealNode
+                || node instanceof MachineRealNode || node instanceof VariableNode)) {
+            return node;
+        }
+
+        expungeStaleEntries();
+        while (true) {
+            InternedRef ref = new InternedRef(candidate, QUEUE);
+            // Most nodes are already interned, and a lookup takes no lock, unlike putIfAbsent on an occupied bin
+            InternedRef existing = TABLE.get(ref);
+            if (existing == null) {
+                existing = TABLE.putIfAbsent(ref, ref);
+                if (existing == null) {
+                    // Published after the node, so another thread may briefly see it unmarked and compare it
+                    // structurally instead
+                    candidate.interned = identityEquality;
+                    return (T) candidate;
+                }
+            }
+            Node canonical = existing.get();
+            if (canonical != null) {
+                return (T) canonical;
+            }
+            TABLE.remove(existing, existing);
+        }
+    }
+
+    /**
+     * Returns the number of canonical nodes currently in the table.
+     */
+    static int size() {
+        expungeStaleEntries();
+        return TABLE.size();
+    }
+
+    private static void expungeStaleEntries() {
+        Object ref;
+        while ((ref = QUEUE.poll()) != null) {
+            TABLE.remove(ref, ref);
+        }
+    }
+
+    /**
+     * Compares two nodes whose arguments are already canonical, so arguments are compared by identity and reals
+     * with their scale.
+     */
+    private static boolean shallowEquals(Node a, Node b) {
+        if (a.getClass() != b.getClass() || a.hashCode() != b.hashCode()) {
+            return false;
+        }
+        if (a instanceof FunctionNode) {
+            FunctionNode fa = (FunctionNode) a;
+            FunctionNode fb = (FunctionNode) b;
+            if (!fa.name.equals(fb.name) || fa.arguments.size() != fb.arguments.size()) {
+                return false;
+            }
+            for (int i = 0; i < fa.arguments.size(); i++) {
+                if (fa.arguments.get(i) != fb.arguments.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (a instanceof RealNode) {
+            return ((RealNode) a).value.equals(((RealNode) b).value);
+        }
+        return a.equals(b);
+    }
+
+    private static class InternedRef extends WeakReference<Node> {
+        private final int hash;
+
+        InternedRef(Node node, ReferenceQueue<Node> queue) {
+            super(node, queue);
+            this.hash = node.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof InternedRef) || hash != ((InternedRef) obj).hash) {
+                return false;
+            }
+            Node node = get();
+            Node other = ((InternedRef) obj).get();
+            return node != null && other != null && shallowEquals(node, other);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
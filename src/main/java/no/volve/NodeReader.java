@@ -0,0 +1,269 @@
+package no.volve;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Decodes node trees written by {@link NodeWriter}, one top-level node per call to {@link #read()}.
+ * <p>
+ * Nodes are decoded only when asked for, straight from the buffer. A file opened with {@link #open(Path)} is
+ * memory-mapped in windows of up to {@value #WINDOW_SIZE} bytes, so stores larger than a single mapping are read
+ * at the speed of the page cache without being copied onto the heap first. Back-references resolve to the node
+ * decoded earlier, so shared subtrees are shared in the result as well.
+ */
+final class NodeReader implements Closeable {
+    static final int WINDOW_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private ByteBuffer buffer;
+    private long windowStart;
+
+    private final List<VariableNode> symbols = new ArrayList<>();
+    private final List<Node> functions = new ArrayList<>();
+
+    NodeReader(ByteBuffer buffer) {
+        this(null, buffer.remaining(), buffer.slice());
+    }
+
+    private NodeReader(FileChannel channel, long size, ByteBuffer buffer) {
+        this.channel = channel;
+        this.size = size;
+        this.buffer = buffer;
+        byte[] magic = new byte[NodeWriter.MAGIC.length];
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = readByte();
+        }
+        if (!Arrays.equals(magic, NodeWriter.MAGIC)) {
+            throw new IllegalArgumentException("Not a node stream");
+        }
+        int version = readByte();
+        if (version != NodeWriter.VERSION) {
+            throw new IllegalArgumentException("Unsupported node stream version: " + version);
+        }
+    }
+
+    static NodeReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            return new NodeReader(channel, size, channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW_SIZE)));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the next top-level node, or null at the end of the stream.
+     *
+     * @throws IllegalArgumentException if the stream is malformed or truncated
+     */
+    Node read() {
+        while (true) {
+            if (position() == size) {
+                return null;
+            }
+            int tag = readByte();
+            if (tag != NodeWriter.RESET) {
+                return readNode(tag);
+            }
+            symbols.clear();
+            functions.clear();
+        }
+    }
+
+    /**
+     * Decodes a node with an explicit stack of the functions whose arguments are still being read.
+     */
+    private Node readNode(int tag) {
+        Deque<PendingFunction> stack = new ArrayDeque<>();
+        while (true) {
+            Node node;
+            if (tag == NodeWriter.FUNCTION) {
+                String head = readSymbol().name;
+                int arity = readLength();
+                int index = functions.size();
+                functions.add(null);
+                if (arity > 0) {
+                    stack.push(new PendingFunction(head, arity, index));
+                    tag = readByte();
+                    continue;
+                }
+                node = new FunctionNode(head, new ArrayList<>(0));
+                functions.set(index, node);
+            } else {
+                node = readLeaf(tag);
+            }
+
+            // Add the node to its function, completing every function it was the last argument of
+            while (true) {
+                PendingFunction function = stack.peek();
+                if (function == null) {
+                    return node;
+                }
+                function.arguments.add(node);
+                if (function.arguments.size() < function.arity) {
+                    break;
+                }
+                stack.pop();
+                node = new FunctionNode(function.head, function.arguments);
+                functions.set(function.index, node);
+            }
+            tag = readByte();
+        }
+    }
+
+    private Node readLeaf(int tag) {
+        switch (tag) {
+            case NodeWriter.INTEGER:
+                long zigzag = readVarint();
+                return new IntegerNode((zigzag >>> 1) ^ -(zigzag & 1));
+            case NodeWriter.BIG_INTEGER:
+                return new IntegerNode(readBigInteger());
+            case NodeWriter.RATIONAL:
+                long numerator = readVarint();
+                return rational(new IntegerNode((numerator >>> 1) ^ -(numerator & 1)), new IntegerNode(readVarint()));
+            case NodeWriter.BIG_RATIONAL:
+                return rational(new IntegerNode(readBigInteger()), new IntegerNode(readBigInteger()));
+            case NodeWriter.REAL:
+                int scale = (int) readVarint();
+                return new RealNode(new BigDecimal(readBigInteger(), (scale >>> 1) ^ -(scale & 1)));
+            case NodeWriter.MACHINE_REAL:
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = bits << 8 | (readByte() & 0xFF);
+                }
+                return new MachineRealNode(Double.longBitsToDouble(bits));
+            case NodeWriter.SYMBOL:
+                return readSymbol();
+            case NodeWriter.REFERENCE:
+                long index = readVarint();
+                if (index >= functions.size() || functions.get((int) index) == null) {
+                    throw new IllegalArgumentException("Invalid back-reference: " + index);
+                }
+                return functions.get((int) index);
+            default:
+                throw new IllegalArgumentException("Unknown tag: " + tag);
+        }
+    }
+
+    private Node rational(IntegerNode numerator, IntegerNode denominator) {
+        Node rational = RationalNode.valueOf(numerator, denominator);
+        if (rational == null) {
+            throw new IllegalArgumentException("Rational with zero denominator");
+        }
+        return rational;
+    }
+
+    private VariableNode readSymbol() {
+        long index = readVarint();
+        if (index > 0) {
+            if (index > symbols.size()) {
+                throw new IllegalArgumentException("Invalid symbol reference: " + index);
+            }
+            return symbols.get((int) index - 1);
+        }
+        VariableNode symbol = new VariableNode(new String(readBytes(readLength()), StandardCharsets.UTF_8));
+        symbols.add(symbol);
+        return symbol;
+    }
+
+    private BigInteger readBigInteger() {
+        return new BigInteger(readBytes(readLength()));
+    }
+
+    private int readLength() {
+        long length = readVarint();
+        if (length > size - position()) {
+            throw new IllegalArgumentException("Length exceeds the stream: " + length);
+        }
+        return (int) length;
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private byte[] readBytes(int length) {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            ensureAvailable();
+            int count = Math.min(length - offset, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            offset += count;
+        }
+        return bytes;
+    }
+
+    private byte readByte() {
+        ensureAvailable();
+        return buffer.get();
+    }
+
+    private long position() {
+        return windowStart + buffer.position();
+    }
+
+    /**
+     * Maps the next window of the file once the current one is used up.
+     */
+    private void ensureAvailable() {
+        if (buffer.hasRemaining()) {
+            return;
+        }
+        long next = position();
+        if (channel == null || next >= size) {
+            throw new IllegalArgumentException("Unexpected end of node stream");
+        }
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, next, Math.min(size - next, WINDOW_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        windowStart = next;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private static class PendingFunction {
+        final String head;
+        final int arity;
+        final int index;
+        final List<Node> arguments;
+
+        PendingFunction(String head, int arity, int index) {
+            this.head = head;
+            this.arity = arity;
+            this.index = index;
+            this.arguments = new ArrayList<>(Math.min(arity, 1024));
+        }
+    }
+}
@@ -4,4 +4,21 @@ import java.util.Map;
 
 public abstract class NodeTransformer {
     public abstract Node transform(Node node, Map<String, Node> bindings);
-}
\ No newline at end of file
+
+    /**
+     * Returns whether a variable may be bound to the value. Orderless matching skips every assignment binding a
+     * value this rejects without calling {@link #transform}, so it may only reject values for which the transform
+     * returns null or the node unchanged.
+     */
+    public boolean accepts(Node value) {
+        return true;
+    }
+
+    /**
+     * Returns whether swapping the values of two blanks that each occur once in the pattern never changes whether
+     * the transform applies. Orderless matching then only tries such blanks in one order.
+     */
+    public boolean isSymmetric() {
+        return false;
+    }
+}
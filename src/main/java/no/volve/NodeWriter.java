@@ -0,0 +1,323 @@
+package no.volve;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes node trees in a compact binary format, read back by {@link NodeReader}.
+ * <p>
+ * The stream starts with {@link #MAGIC} and a version byte, followed by any number of top-level nodes. Each node is
+ * a tag byte and its payload, with function arguments following their function in order:
+ * <ul>
+ * <li>{@link #INTEGER}: zigzag varint; {@link #BIG_INTEGER}: varint length and two's complement bytes</li>
+ * <li>{@link #RATIONAL}: zigzag varint numerator and varint denominator; {@link #BIG_RATIONAL}: both as big
+ * integers</li>
+ * <li>{@link #REAL}: zigzag varint scale and the unscaled value as a big integer; {@link #MACHINE_REAL}: 8 bytes</li>
+ * <li>{@link #SYMBOL}: a symbol reference</li>
+ * <li>{@link #FUNCTION}: a symbol reference for the head, a varint argument count, then the arguments</li>
+ * <li>{@link #REFERENCE}: varint index of an earlier function, counting functions in the order their tags appear</li>
+ * <li>{@link #RESET}: forget all symbols and functions written so far</li>
+ * </ul>
+ * A symbol reference is a varint: 0 introduces a new symbol, written as a varint length and UTF-8 bytes, and any
+ * other value {@code n} refers to the {@code n}th symbol introduced.
+ * <p>
+ * Structurally equal function nodes are written once; every later occurrence, in the same tree or in a later one,
+ * is a back-reference. Both tables grow until {@link #reset()}, which also makes the following nodes independent
+ * of everything before them. The writer resets by itself before a node once the tables hold more than
+ * {@value #TABLE_LIMIT} entries, which bounds what a reader has to keep in memory for long streams.
+ */
+final class NodeWriter implements Closeable, Flushable {
+    static final byte[] MAGIC = {'M', 'G', 'C', 'N'};
+    static final int VERSION = 1;
+
+    static final int INTEGER = 1;
+    static final int BIG_INTEGER = 2;
+    static final int REAL = 3;
+    static final int MACHINE_REAL = 4;
+    static final int SYMBOL = 5;
+    static final int FUNCTION = 6;
+    static final int REFERENCE = 7;
+    static final int RESET = 8;
+    static final int RATIONAL = 9;
+    static final int BIG_RATIONAL = 10;
+
+    static final int TABLE_LIMIT = 1 << 16;
+
+    private final OutputStream output;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int count;
+
+    private final Map<String, Integer> symbols = new HashMap<>();
+    // Structural identity of every subtree seen, keyed by its leaf value or by its head and argument identities
+    private final Map<Object, Integer> identities = new HashMap<>();
+    // Index of the written function for each identity, or -1 if that subtree has not been written yet
+    private int[] functionIndices = new int[256];
+    private int functions;
+
+    NodeWriter(OutputStream output) throws IOException {
+        this.output = output;
+        write(MAGIC, 0, MAGIC.length);
+        writeByte(VERSION);
+    }
+
+    /**
+     * Appends a top-level node. Deep trees are traversed with an explicit stack.
+     */
+    void write(Node node) throws IOException {
+        if (identities.size() > TABLE_LIMIT) {
+            reset();
+        }
+        Map<Node, Integer> subtrees = identify(node);
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            Node next = pending.pop();
+            if (!(next instanceof FunctionNode)) {
+                writeLeaf(next);
+                continue;
+            }
+            FunctionNode function = (FunctionNode) next;
+            int identity = subtrees.get(function);
+            if (functionIndices[identity] >= 0) {
+                writeByte(REFERENCE);
+                writeVarint(functionIndices[identity]);
+                continue;
+            }
+            functionIndices[identity] = functions++;
+            writeByte(FUNCTION);
+            writeSymbol(function.name);
+            writeVarint(function.arguments.size());
+            for (int i = function.arguments.size() - 1; i >= 0; i--) {
+                pending.push(function.arguments.get(i));
+            }
+        }
+    }
+
+    /**
+     * Forgets the symbols and functions written so far, so a reader can start decoding from the next node without
+     * having seen the earlier ones, and both sides can release their tables.
+     */
+    void reset() throws IOException {
+        writeByte(RESET);
+        symbols.clear();
+        identities.clear();
+        functions = 0;
+    }
+
+    /**
+     * Assigns every function node of the tree its structural identity, children before parents.
+     */
+    private Map<Node, Integer> identify(Node root) {
+        Map<Node, Integer> subtrees = new IdentityHashMap<>();
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.peek();
+            if (subtrees.containsKey(node)) {
+                pending.pop();
+                continue;
+            }
+            if (!(node instanceof FunctionNode)) {
+                subtrees.put(node, identity(leafKey(node)));
+                pending.pop();
+                continue;
+            }
+            FunctionNode function = (FunctionNode) node;
+            int[] key = new int[function.arguments.size() + 1];
+            boolean ready = true;
+            for (int i = 0; i < function.arguments.size(); i++) {
+                Integer argument = subtrees.get(function.arguments.get(i));
+                if (argument == null) {
+                    ready = false;
+                    pending.push(function.arguments.get(i));
+                } else {
+                    key[i + 1] = argument;
+                }
+            }
+            if (ready) {
+                key[0] = symbol(function.name);
+                subtrees.put(function, identity(new FunctionKey(key)));
+                pending.pop();
+            }
+        }
+        return subtrees;
+    }
+
+    private int identity(Object key) {
+        Integer identity = identities.get(key);
+        if (identity == null) {
+            identity = identities.size();
+            identities.put(key, identity);
+            if (identity >= functionIndices.length) {
+                functionIndices = Arrays.copyOf(functionIndices, functionIndices.length * 2);
+            }
+            functionIndices[identity] = -1;
+        }
+        return identity;
+    }
+
+    private static Object leafKey(Node node) {
+        // Reals that differ only in scale are equal nodes, but are kept apart so the scale survives
+        return node instanceof RealNode ? ((RealNode) node).value : node;
+    }
+
+    /**
+     * Returns the identity of a symbol for function keys. It is independent of whether the symbol was written.
+     */
+    private int symbol(String name) {
+        return identity(new SymbolKey(name));
+    }
+
+    private void writeLeaf(Node node) throws IOException {
+        if (node instanceof IntegerNode) {
+            IntegerNode integer = (IntegerNode) node;
+            if (integer.isBig()) {
+                writeByte(BIG_INTEGER);
+                writeBigInteger(integer.toBigInteger());
+            } else {
+                writeByte(INTEGER);
+                writeVarint((integer.value << 1) ^ (integer.value >> 63));
+            }
+        } else if (node instanceof RationalNode) {
+            RationalNode rational = (RationalNode) node;
+            if (rational.isBig()) {
+                writeByte(BIG_RATIONAL);
+                writeBigInteger(rational.numerator().toBigInteger());
+                writeBigInteger(rational.denominator().toBigInteger());
+            } else {
+                long numerator = rational.numerator().value;
+                writeByte(RATIONAL);
+                writeVarint((numerator << 1) ^ (numerator >> 63));
+                writeVarint(rational.denominator().value);
+            }
+        } else if (node instanceof RealNode) {
+            RealNode real = (RealNode) node;
+            int scale = real.value.scale();
+            writeByte(REAL);
+            writeVarint((scale << 1) ^ (scale >> 31));
+            writeBigInteger(real.value.unscaledValue());
+        } else if (node instanceof MachineRealNode) {
+            long bits = Double.doubleToRawLongBits(((MachineRealNode) node).value);
+            writeByte(MACHINE_REAL);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (bits >>> shift));
+            }
+        } else if (node instanceof VariableNode) {
+            writeByte(SYMBOL);
+            writeSymbol(((VariableNode) node).name);
+        } else {
+            throw new IllegalArgumentException("Cannot serialize node: " + node.getClass().getName());
+        }
+    }
+
+    private void writeSymbol(String name) throws IOException {
+        Integer index = symbols.get(name);
+        if (index != null) {
+            writeVarint(index);
+            return;
+        }
+        symbols.put(name, symbols.size() + 1);
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        writeVarint(0);
+        writeVarint(bytes.length);
+        write(bytes, 0, bytes.length);
+    }
+
+    private void writeBigInteger(BigInteger value) throws IOException {
+        byte[] bytes = value.toByteArray();
+        writeVarint(bytes.length);
+        write(bytes, 0, bytes.length);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) value;
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - count) {
+            drain();
+            if (length > buffer.length) {
+                output.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    private void drain() throws IOException {
+        output.write(buffer, 0, count);
+        count = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        output.close();
+    }
+
+    private static final class SymbolKey {
+        private final String name;
+
+        SymbolKey(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SymbolKey && ((SymbolKey) o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+
+    private static final class FunctionKey {
+        private final int[] identities;
+        private final int hash;
+
+        FunctionKey(int[] identities) {
+            this.identities = identities;
+            this.hash = Arrays.hashCode(identities);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FunctionKey && Arrays.equals(((FunctionKey) o).identities, identities);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package no.volve;
+
+import java.util.*;
+
+/**
+ * A pattern for a commutative head, matched against the candidate's arguments in any order.
+ * <p>
+ * A pattern {@code f[p1, ..., pn]} matches {@code f[c1, ..., cm]} with {@code m >= n} when every {@code pi} matches
+ * a different argument. The rule then rewrites only the arguments it matched, and the result takes the place of
+ * the first of them among the arguments left over, so {@code Plus[Blank[x], Times[-1, Blank[x]]]} cancels two
+ * terms wherever they are in a wide sum.
+ * <p>
+ * Trying every assignment would take up to m!/(m-n)! attempts, so the pattern's arguments are matched most
+ * constrained first. Literals and sub-patterns with a fixed head only look at the arguments with that value or
+ * head, found through an index of the candidate's arguments, and a rule is given up without binding anything if
+ * there are not enough of them. A blank whose variable is already bound looks up the bound value the same way.
+ * Only free blanks are tried against every remaining argument that a blank can match at all, and only against those
+ * the transformer {@link NodeTransformer#accepts accepts}, so a rule for numbers passes over the symbols of a wide sum
+ * without building anything for them. Free blanks whose variables occur nowhere else match the same arguments, so
+ * when the transformer is {@link NodeTransformer#isSymmetric symmetric} in them they take arguments in increasing
+ * position only; for any other transformer every order is tried.
+ * <p>
+ * Sub-patterns are matched positionally by {@link CompiledPattern}, with the same semantics as everywhere else.
+ */
+final class OrderlessPattern {
+    private static final int[] NONE = new int[0];
+    // Candidates with at most this many arguments are scanned rather than indexed
+    private static final int INDEX_THRESHOLD = 8;
+    // Index key of the arguments a free blank can match: atoms, and functions named Blank
+    private static final Object BLANK_CANDIDATES = new Object();
+
+    private final String head;
+    // The pattern's arguments in matching order, with what each requires of a candidate
+    private final CompiledPattern[] arguments;
+    private final Object[] keys;
+    private final int[] blankSlots;
+    private final boolean[] increasing;
+    // Distinct keys and how many arguments need each, checked before matching
+    private final Object[] requiredKeys;
+    private final int[] requiredCounts;
+
+    private OrderlessPattern(String head, List<Node> ordered, int interchangeableFrom) {
+        this.head = head;
+        this.arguments = CompiledPattern.compileArguments(ordered);
+        this.keys = new Object[ordered.size()];
+        this.blankSlots = new int[ordered.size()];
+        this.increasing = new boolean[ordered.size()];
+        Map<Object, Integer> required = new LinkedHashMap<>();
+        for (int i = 0; i < ordered.size(); i++) {
+            Node pattern = ordered.get(i);
+            String variable = blankVariable(pattern);
+            if (isBlank(pattern)) {
+                blankSlots[i] = variable != null ? arguments[i].slot(variable) : -1;
+            } else {
+                keys[i] = keyOf(pattern);
+                blankSlots[i] = -1;
+                required.merge(keys[i], 1, Integer::sum);
+            }
+            increasing[i] = i > interchangeableFrom;
+        }
+        this.requiredKeys = required.keySet().toArray();
+        this.requiredCounts = required.values().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Compiles the pattern for orderless matching, or returns null if it is matched positionally: when its head is
+     * not commutative, when it has fewer than two arguments, or when it has a sequence blank.
+     */
+    static OrderlessPattern compile(Node pattern, Map<String, Set<EvaluationEngine.Attribute>> functionAttributes) {
+        if (!(pattern instanceof FunctionNode)) {
+            return null;
+        }
+        FunctionNode function = (FunctionNode) pattern;
+        Set<EvaluationEngine.Attribute> attributes = functionAttributes.get(function.name);
+        if (attributes == null || !attributes.contains(EvaluationEngine.Attribute.COMMUTATIVE) || function.arguments.size() < 2) {
+            return null;
+        }
+        for (Node argument : function.arguments) {
+            if (argument instanceof FunctionNode && isSequence(((FunctionNode) argument).name)) {
+                return null;
+            }
+        }
+
+        Map<String, Integer> occurrences = new HashMap<>();
+        countVariables(function, occurrences);
+        List<Node> constrained = new ArrayList<>();
+        List<Node> shared = new ArrayList<>();
+        List<Node> interchangeable = new ArrayList<>();
+        for (Node argument : function.arguments) {
+            if (!isBlank(argument)) {
+                constrained.add(argument);
+            } else {
+                String variable = blankVariable(argument);
+                (variable != null && occurrences.get(variable) > 1 ? shared : interchangeable).add(argument);
+            }
+        }
+        List<Node> ordered = new ArrayList<>(constrained);
+        ordered.addAll(shared);
+        int interchangeableFrom = ordered.size();
+        ordered.addAll(interchangeable);
+        return new OrderlessPattern(function.name, ordered, interchangeableFrom);
+    }
+
+    /**
+     * Rewrites the node with the first assignment of its arguments the transformer accepts, returning null if
+     * there is none.
+     */
+    Node rewrite(Node node, NodeTransformer transformer) {
+        Search search = search(node, transformer);
+        return search != null && search.match(0) ? search.result : null;
+    }
+
+    /**
+     * Returns whether some assignment of the node's arguments matches, regardless of any transformer.
+     */
+    boolean matches(Node node) {
+        Search search = search(node, null);
+        return search != null && search.match(0);
+    }
+
+    private Search search(Node node, NodeTransformer transformer) {
+        if (!(node instanceof FunctionNode)) {
+            return null;
+        }
+        FunctionNode function = (FunctionNode) node;
+        if (!function.name.equals(head) || function.arguments.size() < arguments.length) {
+            return null;
+        }
+        Search search = new Search(function, transformer);
+        for (int i = 0; i < requiredKeys.length; i++) {
+            if (search.count(requiredKeys[i]) < requiredCounts[i]) {
+                return null;
+            }
+        }
+        return search;
+    }
+
+    /**
+     * The value an argument is indexed by: the head of a function, or the atom itself.
+     */
+    private static Object keyOf(Node node) {
+        return node instanceof FunctionNode ? ((FunctionNode) node).name : node;
+    }
+
+    private static boolean isBlank(Node pattern) {
+        return pattern instanceof FunctionNode && "Blank".equals(((FunctionNode) pattern).name);
+    }
+
+    /**
+     * Returns whether a blank can match the argument: a function only matches if it is itself a Blank.
+     */
+    private static boolean isBlankCandidate(Node argument) {
+        return !(argument instanceof FunctionNode) || isBlank(argument);
+    }
+
+    private static boolean isSequence(String name) {
+        return "BlankSequence".equals(name) || "BlankNullSequence".equals(name);
+    }
+
+    private static String blankVariable(Node pattern) {
+        if (pattern instanceof FunctionNode) {
+            FunctionNode blank = (FunctionNode) pattern;
+            if (("Blank".equals(blank.name) || isSequence(blank.name))
+                    && blank.arguments.size() == 1 && blank.arguments.get(0) instanceof VariableNode) {
+                return ((VariableNode) blank.arguments.get(0)).name;
+            }
+        }
+        return null;
+    }
+
+    private static void countVariables(Node pattern, Map<String, Integer> occurrences) {
+        String variable = blankVariable(pattern);
+        if (variable != null) {
+            occurrences.merge(variable, 1, Integer::sum);
+        } else if (pattern instanceof FunctionNode) {
+            for (Node argument : ((FunctionNode) pattern).arguments) {
+                countVariables(argument, occurrences);
+            }
+        }
+    }
+
+    /**
+     * One match attempt, assigning pattern arguments to candidate arguments depth first.
+     */
+    private class Search {
+        private final FunctionNode function;
+        private final List<Node> candidates;
+        private final NodeTransformer transformer;
+        private final Map<Object, int[]> index;
+        private final boolean[] used;
+        private final int[] chosen = new int[arguments.length];
+        private final Node[] slots = arguments[0].newSlots();
+        // The slots as they were before each pattern argument was matched, to undo its bindings
+        private final Node[][] saved = new Node[arguments.length][];
+        Node result;
+
+        Search(FunctionNode function, NodeTransformer transformer) {
+            this.function = function;
+            this.candidates = function.arguments;
+            this.transformer = transformer;
+            this.used = new boolean[candidates.size()];
+            this.index = candidates.size() > INDEX_THRESHOLD ? index(candidates) : null;
+        }
+
+        private Map<Object, int[]> index(List<Node> candidates) {
+            // Counted first, so every position array is allocated once at its final size
+            Map<Object, int[]> counts = new HashMap<>();
+            for (Node candidate : candidates) {
+                counts.computeIfAbsent(keyOf(candidate), key -> new int[1])[0]++;
+                if (isBlankCandidate(candidate)) {
+                    counts.computeIfAbsent(BLANK_CANDIDATES, key -> new int[1])[0]++;
+                }
+            }
+            Map<Object, int[]> index = new HashMap<>();
+            counts.forEach((key, count) -> {
+                index.put(key, new int[count[0]]);
+                count[0] = 0;
+            });
+            for (int i = 0; i < candidates.size(); i++) {
+                Node candidate = candidates.get(i);
+                Object key = keyOf(candidate);
+                index.get(key)[counts.get(key)[0]++] = i;
+                if (isBlankCandidate(candidate)) {
+                    index.get(BLANK_CANDIDATES)[counts.get(BLANK_CANDIDATES)[0]++] = i;
+                }
+            }
+            return index;
+        }
+
+        int count(Object key) {
+            if (index != null) {
+                return index.getOrDefault(key, NONE).length;
+            }
+            int count = 0;
+            for (Node candidate : candidates) {
+                if (key.equals(keyOf(candidate))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        boolean match(int k) {
+            if (k == arguments.length) {
+                return complete();
+            }
+            Object key = keys[k];
+            if (key == null && blankSlots[k] >= 0 && slots[blankSlots[k]] != null) {
+                key = keyOf(slots[blankSlots[k]]);
+            }
+            int[] positions = null;
+            if (index != null) {
+                positions = index.getOrDefault(key != null ? key : BLANK_CANDIDATES, NONE);
+            }
+            int count = positions != null ? positions.length : candidates.size();
+            int from = increasing[k] && (transformer == null || transformer.isSymmetric()) ? chosen[k - 1] + 1 : 0;
+            boolean guarded = transformer != null && keys[k] == null;
+            for (int i = 0; i < count; i++) {
+                int position = positions != null ? positions[i] : i;
+                if (position < from || used[position]) {
+                    continue;
+                }
+                Node candidate = candidates.get(position);
+                if (positions == null && key != null && !key.equals(keyOf(candidate))) {
+                    continue;
+                }
+                if (guarded && !transformer.accepts(candidate)) {
+                    continue;
+                }
+                if (saved[k] == null) {
+                    saved[k] = new Node[slots.length];
+                }
+                System.arraycopy(slots, 0, saved[k], 0, slots.length);
+                if (arguments[k].match(candidate, slots)) {
+                    used[position] = true;
+                    chosen[k] = position;
+                    if (match(k + 1)) {
+                        return true;
+                    }
+                    used[position] = false;
+                }
+                System.arraycopy(saved[k], 0, slots, 0, slots.length);
+            }
+            return false;
+        }
+
+        private boolean complete() {
+            if (transformer == null) {
+                return true;
+            }
+            // Values bound inside sub-patterns have not been offered to the transformer yet
+            for (Node value : slots) {
+                if (value != null && !transformer.accepts(value)) {
+                    return false;
+                }
+            }
+            boolean whole = arguments.length == candidates.size();
+            Node subject = function;
+            if (!whole) {
+                // In the order of the candidate's arguments, without looking at the ones left over
+                int[] positions = chosen.clone();
+                Arrays.sort(positions);
+                List<Node> matched = new ArrayList<>(positions.length);
+                for (int position : positions) {
+                    matched.add(candidates.get(position));
+                }
+                subject = new FunctionNode(head, matched);
+            }
+            Node rewritten = transformer.transform(subject, arguments[0].bindings(slots));
+            if (rewritten == null || rewritten.equals(subject)) {
+                return false;
+            }
+            if (whole) {
+                result = rewritten;
+                return true;
+            }
+
+            List<Node> remaining = new ArrayList<>(candidates.size() - arguments.length + 1);
+            boolean placed = false;
+            for (int i = 0; i < candidates.size(); i++) {
+                if (!used[i]) {
+                    remaining.add(candidates.get(i));
+                } else if (!placed) {
+                    placed = true;
+                    if (rewritten instanceof FunctionNode && head.equals(((FunctionNode) rewritten).name)) {
+                        remaining.addAll(((FunctionNode) rewritten).arguments);
+                    } else {
+                        remaining.add(rewritten);
+                    }
+                }
+            }
+            result = new FunctionNode(head, remaining);
+            return true;
+        }
+    }
+}
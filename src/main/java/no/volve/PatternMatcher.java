@@ -2,20 +2,70 @@ package no.volve;
 
 import java.util.*;
 
+/**
+ * Interpretive pattern matcher. Bindings go into a {@link BindingFrame} that is reused by every match on the same
+ * thread, and trying another split of a sequence unwinds the frame rather than copying it, so a failed match
+ * allocates nothing.
+ */
 public class PatternMatcher {
+    private static final ThreadLocal<BindingFrame> FRAMES = ThreadLocal.withInitial(BindingFrame::new);
 
     public boolean match(Node pattern, Node candidate) {
-        Map<String, Node> bindings = new HashMap<>();
-        return match(pattern, candidate, bindings);
+        BindingFrame frame = FRAMES.get();
+        int mark = frame.mark();
+        try {
+            return match(pattern, candidate, frame);
+        } finally {
+            frame.undo(mark);
+        }
     }
 
+    /**
+     * Matches the candidate, consistently with the bindings already in the map, and adds the new bindings to the
+     * map if it matches. The map is left as it was if it does not.
+     */
     public boolean match(Node pattern, Node candidate, Map<String, Node> bindings) {
+        BindingFrame frame = FRAMES.get();
+        int mark = frame.mark();
+        try {
+            for (Map.Entry<String, Node> binding : bindings.entrySet()) {
+                frame.bind(binding.getKey(), binding.getValue());
+            }
+            int start = frame.mark();
+            if (!match(pattern, candidate, frame)) {
+                return false;
+            }
+            bindings.putAll(frame.toMap(start));
+            return true;
+        } finally {
+            frame.undo(mark);
+        }
+    }
+
+    /**
+     * Returns the bindings of a match in a map of their own, or null if the candidate does not match.
+     */
+    Map<String, Node> matchBindings(Node pattern, Node candidate) {
+        BindingFrame frame = FRAMES.get();
+        int mark = frame.mark();
+        try {
+            return match(pattern, candidate, frame) ? frame.toMap(mark) : null;
+        } finally {
+            frame.undo(mark);
+        }
+    }
+
+    /**
+     * Matches the candidate, pushing bindings onto the frame. A failed match may leave bindings behind; the caller
+     * unwinds them.
+     */
+    boolean match(Node pattern, Node candidate, BindingFrame frame) {
         if (pattern instanceof FunctionNode && candidate instanceof FunctionNode) {
             FunctionNode patternFunction = (FunctionNode) pattern;
             FunctionNode candidateFunction = (FunctionNode) candidate;
 
             if (patternFunction.name.equals(candidateFunction.name)) {
-                return matchArguments(patternFunction.arguments, candidateFunction.arguments, 0, 0, bindings);
+                return matchArguments(patternFunction.arguments, candidateFunction, 0, 0, frame);
             }
         } else if (pattern instanceof IntegerNode && candidate instanceof IntegerNode) {
             return pattern.equals(candidate);
@@ -25,13 +75,14 @@ public class PatternMatcher {
             FunctionNode patternFunction = (FunctionNode) pattern;
 
             if ("Blank".equals(patternFunction.name)) {
-                return matchBlank(patternFunction, candidate, bindings);
+                return matchBlank(patternFunction, candidate, frame);
             }
         }
         return false;
     }
 
-    private boolean matchArguments(List<Node> patternArgs, List<Node> candidateArgs, int patternIndex, int candidateIndex, Map<String, Node> bindings) {
+    private boolean matchArguments(List<Node> patternArgs, FunctionNode candidate, int patternIndex, int candidateIndex, BindingFrame frame) {
+        List<Node> candidateArgs = candidate.arguments;
         if (patternIndex == patternArgs.size()) {
             return candidateIndex == candidateArgs.size();
         }
@@ -46,74 +97,45 @@ public class PatternMatcher {
                     if ("BlankNullSequence".equals(patternFunction.name) || candidateIndex < candidateArgs.size()) {
                         if (patternFunction.arguments.size() == 1 && patternFunction.arguments.get(0) instanceof VariableNode) {
                             String varName = ((VariableNode) patternFunction.arguments.get(0)).name;
-                            List<Node> sequenceNodes = new ArrayList<>(candidateArgs.subList(candidateIndex, candidateArgs.size()));
-                            bindings.put(varName, new FunctionNode("Sequence", sequenceNodes));
+                            frame.bindSequence(varName, candidate, candidateIndex);
                         }
                         return true;
                     }
                 } else {
                     for (int i = candidateIndex; i <= candidateArgs.size(); i++) {
-                        Map<String, Node> tempBindings = new HashMap<>(bindings);
-                        if (matchArguments(patternArgs, candidateArgs, patternIndex + 1, i, tempBindings)) {
-                            bindings.putAll(tempBindings);
+                        int mark = frame.mark();
+                        if (matchArguments(patternArgs, candidate, patternIndex + 1, i, frame)) {
                             return true;
                         }
+                        frame.undo(mark);
                     }
                 }
                 return false;
             }
         }
 
-        if (candidateIndex < candidateArgs.size() && match(patternArg, candidateArgs.get(candidateIndex), bindings)) {
-            return matchArguments(patternArgs, candidateArgs, patternIndex + 1, candidateIndex + 1, bindings);
+        if (candidateIndex < candidateArgs.size() && match(patternArg, candidateArgs.get(candidateIndex), frame)) {
+            return matchArguments(patternArgs, candidate, patternIndex + 1, candidateIndex + 1, frame);
         }
 
         return false;
     }
 
-    private boolean matchBlank(FunctionNode pattern, Node candidate, Map<String, Node> bindings) {
+    private boolean matchBlank(FunctionNode pattern, Node candidate, BindingFrame frame) {
         if (pattern.arguments.isEmpty()) {
             return true;
         } else {
             Node patternArg = pattern.arguments.get(0);
             if (patternArg instanceof VariableNode) {
                 String varName = ((VariableNode) patternArg).name;
-                if (bindings.containsKey(varName)) {
-                    return bindings.get(varName).equals(candidate);
+                if (frame.isBound(varName)) {
+                    return frame.get(varName).equals(candidate);
                 } else {
-                    bindings.put(varName, candidate);
+                    frame.bind(varName, candidate);
                     return true;
                 }
             }
         }
         return false;
     }
-
-    private boolean matchBlankSequence(FunctionNode pattern, FunctionNode candidate, Map<String, Node> bindings) {
-        if (pattern.arguments.size() != 1 || !(pattern.arguments.get(0) instanceof VariableNode)) {
-            return false;
-        }
-        String varName = ((VariableNode) pattern.arguments.get(0)).name;
-
-        List<Node> sequenceNodes = new ArrayList<>();
-        for (Node arg : candidate.arguments) {
-            sequenceNodes.add(arg);
-        }
-        bindings.put(varName, new FunctionNode("Sequence", sequenceNodes));
-        return true;
-    }
-
-    private boolean matchBlankNullSequence(FunctionNode pattern, FunctionNode candidate, Map<String, Node> bindings) {
-        if (pattern.arguments.size() != 1 || !(pattern.arguments.get(0) instanceof VariableNode)) {
-            return false;
-        }
-        String varName = ((VariableNode) pattern.arguments.get(0)).name;
-
-        List<Node> sequenceNodes = new ArrayList<>();
-        for (Node arg : candidate.arguments) {
-            sequenceNodes.add(arg);
-        }
-        bindings.put(varName, new FunctionNode("Sequence", sequenceNodes));
-        return true;
-    }
-}
\ No newline at end of file
+}
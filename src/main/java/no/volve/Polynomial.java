@@ -0,0 +1,349 @@
+package no.volve;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Sparse multivariate polynomial with integer coefficients.
+ * <p>
+ * A monomial lists only the variables that occur in it, as {@code long}s packing the variable index in the high
+ * word and its exponent in the low one, sorted by variable. The size of a term therefore depends on its own degree
+ * and not on how many variables the whole expression has, and multiplying monomials is a merge of two sorted runs.
+ * The monomials of all terms share one array, in insertion order, and a term is found through an open-addressing
+ * table on its hash. Coefficients are {@code long}s, and a coefficient that overflows is promoted to a
+ * {@link BigInteger} for that term only.
+ * <p>
+ * Terms whose coefficient cancels to zero stay in the arrays; {@link #isZero(int)} tells them apart.
+ */
+final class Polynomial {
+    static final int MAX_EXPONENT = 0x7FFF;
+    private static final long EXPONENT_MASK = 0xFFFF_FFFFL;
+
+    // The factors of term i are factors[offsets[i]] up to factors[offsets[i + 1]]
+    private long[] factors;
+    private int[] offsets;
+    private int[] hashes;
+    private long[] coefficients;
+    // Coefficients that do not fit a long, overriding the entry in coefficients; null until the first one
+    private BigInteger[] bigCoefficients;
+    private int size;
+    // Term index + 1 per slot, 0 for an empty slot
+    private int[] table;
+
+    Polynomial() {
+        this(4);
+    }
+
+    private Polynomial(int capacity) {
+        this.factors = new long[capacity];
+        this.offsets = new int[capacity + 1];
+        this.hashes = new int[capacity];
+        this.coefficients = new long[capacity];
+        this.table = new int[Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1];
+    }
+
+    static Polynomial constant(BigInteger value) {
+        Polynomial polynomial = new Polynomial();
+        polynomial.addTerm(new long[0], 0, 0, hash(new long[0], 0, 0), value);
+        return polynomial;
+    }
+
+    static Polynomial variable(int variable) {
+        Polynomial polynomial = new Polynomial();
+        long[] monomial = {pack(variable, 1)};
+        polynomial.addTerm(monomial, 0, 1, hash(monomial, 0, 1), 1, null);
+        return polynomial;
+    }
+
+    /**
+     * Returns the number of terms, including any that cancelled to zero.
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isZero(int term) {
+        return coefficients[term] == 0 && (bigCoefficients == null || bigCoefficients[term] == null);
+    }
+
+    BigInteger coefficient(int term) {
+        if (bigCoefficients != null && bigCoefficients[term] != null) {
+            return bigCoefficients[term];
+        }
+        return BigInteger.valueOf(coefficients[term]);
+    }
+
+    /**
+     * Returns the number of variables with a nonzero exponent in the term.
+     */
+    int factorCount(int term) {
+        return offsets[term + 1] - offsets[term];
+    }
+
+    /**
+     * Returns the variable of a factor of the term, the factors being in increasing order of variable.
+     */
+    int factorVariable(int term, int factor) {
+        return (int) (factors[offsets[term] + factor] >>> 32);
+    }
+
+    int factorExponent(int term, int factor) {
+        return (int) (factors[offsets[term] + factor] & EXPONENT_MASK);
+    }
+
+    /**
+     * Returns the exponent of a variable in the term, zero if it does not occur.
+     */
+    int exponent(int term, int variable) {
+        // No factor has a zero exponent, so the probe is never found, and the variable's factor is where it would go
+        int next = -Arrays.binarySearch(factors, offsets[term], offsets[term + 1], pack(variable, 0)) - 1;
+        return next < offsets[term + 1] && (int) (factors[next] >>> 32) == variable ? (int) (factors[next] & EXPONENT_MASK) : 0;
+    }
+
+    /**
+     * Returns the number of terms with a nonzero coefficient.
+     */
+    int termCount() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!isZero(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds every term of the other polynomial to this one.
+     */
+    void add(Polynomial other) {
+        for (int i = 0; i < other.size; i++) {
+            if (other.isZero(i)) {
+                continue;
+            }
+            int from = other.offsets[i];
+            int length = other.offsets[i + 1] - from;
+            if (other.bigCoefficients != null && other.bigCoefficients[i] != null) {
+                addTerm(other.factors, from, length, other.hashes[i], other.bigCoefficients[i]);
+            } else {
+                addTerm(other.factors, from, length, other.hashes[i], other.coefficients[i], null);
+            }
+        }
+    }
+
+    void negate() {
+        for (int i = 0; i < size; i++) {
+            if (bigCoefficients != null && bigCoefficients[i] != null) {
+                bigCoefficients[i] = bigCoefficients[i].negate();
+            } else if (coefficients[i] == Long.MIN_VALUE) {
+                setBig(i, BigInteger.valueOf(Long.MIN_VALUE).negate());
+            } else {
+                coefficients[i] = -coefficients[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the product of both polynomials.
+     *
+     * @throws ArithmeticException if an exponent exceeds {@link #MAX_EXPONENT}
+     */
+    Polynomial multiply(Polynomial other) {
+        Polynomial product = new Polynomial((int) Math.max(4, Math.min((long) size * other.size, 1 << 16)));
+        long[] monomial = new long[maxFactors() + other.maxFactors()];
+        for (int i = 0; i < size; i++) {
+            if (isZero(i)) {
+                continue;
+            }
+            for (int j = 0; j < other.size; j++) {
+                if (other.isZero(j)) {
+                    continue;
+                }
+                int length = merge(factors, offsets[i], offsets[i + 1], other.factors, other.offsets[j], other.offsets[j + 1], monomial);
+                int hash = hash(monomial, 0, length);
+                long a = coefficients[i];
+                long b = other.coefficients[j];
+                boolean big = (bigCoefficients != null && bigCoefficients[i] != null)
+                        || (other.bigCoefficients != null && other.bigCoefficients[j] != null);
+                if (!big) {
+                    long high = Math.multiplyHigh(a, b);
+                    long low = a * b;
+                    // The product fits a long when the high word is the sign extension of the low one
+                    if (high == (low >> 63)) {
+                        product.addTerm(monomial, 0, length, hash, low, null);
+                        continue;
+                    }
+                }
+                product.addTerm(monomial, 0, length, hash, coefficient(i).multiply(other.coefficient(j)));
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Returns this polynomial raised to a non-negative power, by repeated squaring.
+     *
+     * @throws ArithmeticException if an exponent exceeds {@link #MAX_EXPONENT}
+     */
+    Polynomial pow(int exponent) {
+        Polynomial result = constant(BigInteger.ONE);
+        Polynomial base = this;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) {
+                result = result.multiply(base);
+            }
+            exponent >>>= 1;
+            if (exponent > 0) {
+                base = base.multiply(base);
+            }
+        }
+        return result;
+    }
+
+    private static long pack(int variable, int exponent) {
+        return (long) variable << 32 | exponent;
+    }
+
+    private int maxFactors() {
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, offsets[i + 1] - offsets[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Multiplies two monomials into {@code target}, adding the exponents of the variables they share, and returns
+     * the length of the product.
+     */
+    private static int merge(long[] a, int aFrom, int aTo, long[] b, int bFrom, int bTo, long[] target) {
+        int length = 0;
+        while (aFrom < aTo && bFrom < bTo) {
+            long x = a[aFrom];
+            long y = b[bFrom];
+            if ((x >>> 32) == (y >>> 32)) {
+                long sum = x + (y & EXPONENT_MASK);
+                if ((sum & EXPONENT_MASK) > MAX_EXPONENT) {
+                    throw new ArithmeticException("Exponent exceeds " + MAX_EXPONENT);
+                }
+                target[length++] = sum;
+                aFrom++;
+                bFrom++;
+            } else if (x < y) {
+                target[length++] = x;
+                aFrom++;
+            } else {
+                target[length++] = y;
+                bFrom++;
+            }
+        }
+        while (aFrom < aTo) {
+            target[length++] = a[aFrom++];
+        }
+        while (bFrom < bTo) {
+            target[length++] = b[bFrom++];
+        }
+        return length;
+    }
+
+    private void addTerm(long[] source, int from, int length, int hash, BigInteger coefficient) {
+        if (coefficient.bitLength() < 64) {
+            addTerm(source, from, length, hash, coefficient.longValue(), null);
+        } else {
+            addTerm(source, from, length, hash, 0, coefficient);
+        }
+    }
+
+    /**
+     * Adds a coefficient to the term with the monomial at {@code source[from]}, creating the term if needed. The
+     * coefficient is {@code big} if that is not null, and {@code small} otherwise.
+     */
+    private void addTerm(long[] source, int from, int length, int hash, long small, BigInteger big) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            int term = table[slot] - 1;
+            if (hashes[term] == hash
+                    && Arrays.equals(factors, offsets[term], offsets[term + 1], source, from, from + length)) {
+                addCoefficient(term, small, big);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == coefficients.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+            hashes = Arrays.copyOf(hashes, capacity);
+            coefficients = Arrays.copyOf(coefficients, capacity);
+            if (bigCoefficients != null) {
+                bigCoefficients = Arrays.copyOf(bigCoefficients, capacity);
+            }
+        }
+        int end = offsets[size];
+        if (end + length > factors.length) {
+            factors = Arrays.copyOf(factors, Math.max(factors.length * 2, end + length));
+        }
+        System.arraycopy(source, from, factors, end, length);
+        offsets[size + 1] = end + length;
+        hashes[size] = hash;
+        if (big != null) {
+            setBig(size, big);
+        } else {
+            coefficients[size] = small;
+        }
+        table[slot] = ++size;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+    }
+
+    private void addCoefficient(int term, long small, BigInteger big) {
+        boolean termIsBig = bigCoefficients != null && bigCoefficients[term] != null;
+        if (big == null && !termIsBig) {
+            long sum = coefficients[term] + small;
+            // Overflow if both operands have the same sign and the sum has the other
+            if (((coefficients[term] ^ sum) & (small ^ sum)) >= 0) {
+                coefficients[term] = sum;
+                return;
+            }
+        }
+        BigInteger sum = coefficient(term).add(big != null ? big : BigInteger.valueOf(small));
+        if (sum.bitLength() < 64) {
+            coefficients[term] = sum.longValue();
+            if (bigCoefficients != null) {
+                bigCoefficients[term] = null;
+            }
+        } else {
+            setBig(term, sum);
+        }
+    }
+
+    private void setBig(int term, BigInteger value) {
+        if (bigCoefficients == null) {
+            bigCoefficients = new BigInteger[coefficients.length];
+        }
+        bigCoefficients[term] = value;
+        coefficients[term] = 0;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int term = 0; term < size; term++) {
+            int slot = hashes[term] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = term + 1;
+        }
+    }
+
+    private static int hash(long[] source, int from, int length) {
+        long hash = 0;
+        for (int i = from; i < from + length; i++) {
+            hash = (hash + source[i]) * 0x9E37_79B9_7F4A_7C15L;
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
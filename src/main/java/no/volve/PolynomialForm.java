@@ -0,0 +1,278 @@
+package no.volve;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Converts expressions to {@link Polynomial}s and back, so sums, products and integer powers are combined with
+ * polynomial arithmetic instead of one rewrite pass per pair of terms.
+ * <p>
+ * Whatever is not a polynomial operation becomes a kernel, one variable of the polynomial: symbols, real numbers,
+ * other functions, and powers with an exponent that is not a small non-negative integer. When collecting, a sum
+ * inside a product or power is a kernel too, so like terms and equal factors are combined but nothing is
+ * multiplied out; when expanding, it is multiplied out. The result is built with its terms and factors in the
+ * order the engine sorts them, so an expression that has nothing to collect converts back to an equal one.
+ * <p>
+ * Most sums the engine sees have nothing to collect, so an expression already in that form is recognized from its
+ * shape and returned as it is, without building a polynomial.
+ */
+final class PolynomialForm {
+    private static final int CONSTANT = 0;
+    private static final int SUM = 1;
+    private static final int PRODUCT = 2;
+    private static final int NEGATION = 3;
+    private static final int POWER = 4;
+    private static final int KERNEL = 5;
+
+    private static final Comparator<Node> ORDER = new EvaluationEngine.NodeComparator();
+
+    private final boolean expand;
+    private final List<Node> kernels = new ArrayList<>();
+    private final Map<Node, Integer> kernelIndex = new HashMap<>();
+
+    private PolynomialForm(boolean expand) {
+        this.expand = expand;
+    }
+
+    /**
+     * Combines like terms and equal factors, returning an equal node if there are none.
+     */
+    static Node collect(Node node) {
+        return new PolynomialForm(false).simplify(node);
+    }
+
+    /**
+     * Multiplies out every product of sums and integer power of a sum, and combines like terms.
+     */
+    static Node expand(Node node) {
+        return new PolynomialForm(true).simplify(node);
+    }
+
+    private Node simplify(Node node) {
+        if (isCollected(node)) {
+            return node;
+        }
+        try {
+            return toNode(convert(node, true));
+        } catch (ArithmeticException e) {
+            // An exponent too large for the packed monomials; the expression is left as it was
+            return node;
+        }
+    }
+
+    /**
+     * Returns how a node converts, when it is a term of a sum or a factor of a product.
+     */
+    private int classify(Node node, boolean term) {
+        if (node instanceof IntegerNode) {
+            return CONSTANT;
+        }
+        if (!(node instanceof FunctionNode)) {
+            return KERNEL;
+        }
+        FunctionNode function = (FunctionNode) node;
+        switch (function.name) {
+            case "Plus":
+                return term || expand ? SUM : KERNEL;
+            case "Times":
+                return PRODUCT;
+            case "Minus":
+                return function.arguments.size() == 1 ? NEGATION : KERNEL;
+            case "Power":
+                if (function.arguments.size() == 2 && function.arguments.get(1) instanceof IntegerNode) {
+                    IntegerNode exponent = (IntegerNode) function.arguments.get(1);
+                    if (!exponent.isBig() && exponent.value >= 0 && exponent.value <= Polynomial.MAX_EXPONENT) {
+                        return POWER;
+                    }
+                }
+                return KERNEL;
+            default:
+                return KERNEL;
+        }
+    }
+
+    private Polynomial convert(Node node, boolean term) {
+        switch (classify(node, term)) {
+            case CONSTANT:
+                return Polynomial.constant(((IntegerNode) node).toBigInteger());
+            case SUM: {
+                Polynomial sum = new Polynomial();
+                for (Node argument : ((FunctionNode) node).arguments) {
+                    sum.add(convert(argument, true));
+                }
+                return sum;
+            }
+            case PRODUCT: {
+                Polynomial product = Polynomial.constant(BigInteger.ONE);
+                for (Node argument : ((FunctionNode) node).arguments) {
+                    product = product.multiply(convert(argument, false));
+                }
+                return product;
+            }
+            case NEGATION: {
+                Polynomial negated = convert(((FunctionNode) node).arguments.get(0), false);
+                negated.negate();
+                return negated;
+            }
+            case POWER: {
+                FunctionNode power = (FunctionNode) node;
+                int exponent = (int) ((IntegerNode) power.arguments.get(1)).value;
+                return convert(power.arguments.get(0), false).pow(exponent);
+            }
+            default:
+                Integer variable = kernelIndex.get(node);
+                if (variable == null) {
+                    variable = kernels.size();
+                    kernelIndex.put(node, variable);
+                    kernels.add(node);
+                }
+                return Polynomial.variable(variable);
+        }
+    }
+
+    /**
+     * Returns whether converting the node would give it back unchanged: it is a sorted sum of terms no two of which
+     * are alike, with at most one nonzero integer among them, or it is a single such term. A term is a kernel, the
+     * power of a kernel, or a sorted product of powers of distinct kernels with an optional leading coefficient.
+     * Anything else, including every negation and nested sum, takes the full conversion.
+     */
+    private boolean isCollected(Node node) {
+        if (!(node instanceof FunctionNode) || !"Plus".equals(((FunctionNode) node).name)) {
+            return monomial(node) != null;
+        }
+        List<Node> terms = ((FunctionNode) node).arguments;
+        if (terms.size() < 2 || !isSorted(terms)) {
+            return false;
+        }
+        Set<List<Node>> monomials = new HashSet<>();
+        boolean constant = false;
+        for (Node term : terms) {
+            if (term instanceof IntegerNode) {
+                if (constant || ((IntegerNode) term).isZero()) {
+                    return false;
+                }
+                constant = true;
+                continue;
+            }
+            // A nested sum is a kernel as a factor, but its terms join this sum
+            List<Node> monomial = classify(term, true) == SUM ? null : monomial(term);
+            if (monomial == null || !monomials.add(monomial)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the factors of the term without its coefficient if it converts back unchanged, or null otherwise.
+     * Like terms have equal lists.
+     */
+    private List<Node> monomial(Node term) {
+        if (isPowerOfKernel(term)) {
+            return Collections.singletonList(term);
+        }
+        if (!(term instanceof FunctionNode) || !"Times".equals(((FunctionNode) term).name)) {
+            return null;
+        }
+        List<Node> factors = ((FunctionNode) term).arguments;
+        int from = 0;
+        if (!factors.isEmpty() && factors.get(0) instanceof IntegerNode) {
+            IntegerNode coefficient = (IntegerNode) factors.get(0);
+            if (coefficient.isZero() || coefficient.equals(new IntegerNode(1))) {
+                return null;
+            }
+            from = 1;
+        }
+        if (factors.size() - from < (from == 0 ? 2 : 1) || !isSorted(factors)) {
+            return null;
+        }
+        Set<Node> bases = new HashSet<>();
+        for (int i = from; i < factors.size(); i++) {
+            Node factor = factors.get(i);
+            if (!isPowerOfKernel(factor) || !bases.add(base(factor))) {
+                return null;
+            }
+        }
+        return factors.subList(from, factors.size());
+    }
+
+    /**
+     * Returns whether the node is a kernel, or a kernel to an integer power of at least two that is not itself an
+     * integer power.
+     */
+    private boolean isPowerOfKernel(Node node) {
+        int kind = classify(node, false);
+        if (kind == KERNEL) {
+            return true;
+        } else if (kind != POWER) {
+            return false;
+        }
+        FunctionNode power = (FunctionNode) node;
+        Node base = power.arguments.get(0);
+        return ((IntegerNode) power.arguments.get(1)).value >= 2 && classify(base, false) == KERNEL && !isIntegerPower(base);
+    }
+
+    private static Node base(Node factor) {
+        return factor instanceof FunctionNode && "Power".equals(((FunctionNode) factor).name) && ((FunctionNode) factor).arguments.size() == 2
+                ? ((FunctionNode) factor).arguments.get(0) : factor;
+    }
+
+    private static boolean isIntegerPower(Node node) {
+        return node instanceof FunctionNode && "Power".equals(((FunctionNode) node).name)
+                && ((FunctionNode) node).arguments.size() == 2 && ((FunctionNode) node).arguments.get(1) instanceof IntegerNode;
+    }
+
+    private static boolean isSorted(List<Node> nodes) {
+        for (int i = 1; i < nodes.size(); i++) {
+            if (ORDER.compare(nodes.get(i - 1), nodes.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Node toNode(Polynomial polynomial) {
+        List<Node> terms = new ArrayList<>();
+        for (int term = 0; term < polynomial.size(); term++) {
+            if (polynomial.isZero(term)) {
+                continue;
+            }
+            List<Node> factors = new ArrayList<>();
+            BigInteger coefficient = polynomial.coefficient(term);
+            if (!coefficient.equals(BigInteger.ONE)) {
+                factors.add(new IntegerNode(coefficient));
+            }
+            for (int factor = 0; factor < polynomial.factorCount(term); factor++) {
+                factors.add(power(kernels.get(polynomial.factorVariable(term, factor)), polynomial.factorExponent(term, factor)));
+            }
+            if (factors.isEmpty()) {
+                terms.add(new IntegerNode(coefficient));
+            } else if (factors.size() == 1) {
+                terms.add(factors.get(0));
+            } else {
+                factors.sort(ORDER);
+                terms.add(new FunctionNode("Times", factors));
+            }
+        }
+        if (terms.isEmpty()) {
+            return new IntegerNode(0);
+        } else if (terms.size() == 1) {
+            return terms.get(0);
+        }
+        terms.sort(ORDER);
+        return new FunctionNode("Plus", terms);
+    }
+
+    private static Node power(Node kernel, int exponent) {
+        if (exponent == 1) {
+            return kernel;
+        }
+        // A kernel that is itself an integer power, such as Power[x, -1], has its exponent multiplied instead
+        if (isIntegerPower(kernel)) {
+            FunctionNode power = (FunctionNode) kernel;
+            IntegerNode product = ((IntegerNode) power.arguments.get(1)).multiply(new IntegerNode(exponent));
+            return new FunctionNode("Power", Arrays.asList(power.arguments.get(0), product));
+        }
+        return new FunctionNode("Power", Arrays.asList(kernel, new IntegerNode(exponent)));
+    }
+}
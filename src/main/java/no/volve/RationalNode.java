@@ -0,0 +1,338 @@
+package no.volve;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * An exact fraction that is not an integer, in lowest terms with a positive denominator greater than one.
+ * <p>
+ * Like {@link IntegerNode}, a fraction whose numerator and denominator fit in {@code long}s is computed on directly,
+ * and only an operation that overflows falls back to {@link BigInteger}s. The arithmetic takes integers and
+ * fractions alike and normalizes its result, so a fraction that reduces to a whole number comes back as an
+ * {@link IntegerNode}.
+ */
+class RationalNode extends Node {
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    // Only meaningful when bigNumerator is null
+    private final long numerator;
+    private final long denominator;
+    // Both set if either part does not fit in a long, both null otherwise
+    private final BigInteger bigNumerator;
+    private final BigInteger bigDenominator;
+
+    private RationalNode(long numerator, long denominator) {
+        this.numerator = numerator;
+        this.denominator = denominator;
+        this.bigNumerator = null;
+        this.bigDenominator = null;
+    }
+
+    private RationalNode(BigInteger numerator, BigInteger denominator) {
+        if (fitsLong(numerator) && fitsLong(denominator)) {
+            this.numerator = numerator.longValue();
+            this.denominator = denominator.longValue();
+            this.bigNumerator = null;
+            this.bigDenominator = null;
+        } else {
+            this.numerator = 0;
+            this.denominator = 0;
+            this.bigNumerator = numerator;
+            this.bigDenominator = denominator;
+        }
+    }
+
+    /**
+     * Returns the quotient in lowest terms: an {@link IntegerNode} if the denominator divides the numerator, a
+     * {@code RationalNode} otherwise, or null if the denominator is zero.
+     */
+    static Node valueOf(IntegerNode numerator, IntegerNode denominator) {
+        if (denominator.isZero()) {
+            return null;
+        }
+        if (!numerator.isBig() && !denominator.isBig()) {
+            return reduce(numerator.value, denominator.value);
+        }
+        return reduce(numerator.toBigInteger(), denominator.toBigInteger());
+    }
+
+    public IntegerNode numerator() {
+        return bigNumerator != null ? new IntegerNode(bigNumerator) : new IntegerNode(numerator);
+    }
+
+    public IntegerNode denominator() {
+        return bigDenominator != null ? new IntegerNode(bigDenominator) : new IntegerNode(denominator);
+    }
+
+    public boolean isBig() {
+        return bigNumerator != null;
+    }
+
+    public int signum() {
+        return bigNumerator != null ? bigNumerator.signum() : Long.signum(numerator);
+    }
+
+    public double doubleValue() {
+        if (bigNumerator == null && Math.abs(numerator) < (1L << 53) && denominator < (1L << 53)) {
+            // Both are exact doubles, so the quotient is correctly rounded
+            return (double) numerator / denominator;
+        }
+        BigInteger numerator = numeratorBig().abs();
+        BigInteger denominator = denominatorBig();
+        // Scale so the integer quotient has 55 or 56 bits: the 53 of a double, a rounding bit and one to spare
+        int shift = 55 - numerator.bitLength() + denominator.bitLength();
+        BigInteger[] quotient = shift >= 0
+                ? numerator.shiftLeft(shift).divideAndRemainder(denominator)
+                : numerator.divideAndRemainder(denominator.shiftLeft(-shift));
+        BigInteger q = quotient[0];
+        int exponent = q.bitLength() - 1 - shift;
+        // Below the normal range the precision shrinks by one bit per binary order of magnitude
+        int precision = exponent >= -1022 ? 53 : 53 - (-1022 - exponent);
+        if (precision < 0) {
+            return signum() < 0 ? -0.0 : 0.0;
+        }
+        int drop = q.bitLength() - precision;
+        BigInteger kept = q.shiftRight(drop);
+        boolean sticky = quotient[1].signum() != 0 || q.getLowestSetBit() < drop - 1;
+        // Round half to even, once, on the exact quotient
+        if (q.testBit(drop - 1) && (sticky || kept.testBit(0))) {
+            kept = kept.add(BigInteger.ONE);
+        }
+        // Exact: kept has at most 53 bits and the result is representable, or overflows to infinity
+        double value = Math.scalb(kept.doubleValue(), drop - shift);
+        return signum() < 0 ? -value : value;
+    }
+
+    /**
+     * Returns the value as a decimal rounded to the context, or null if the context is unlimited and the decimal
+     * expansion does not terminate.
+     */
+    public BigDecimal toBigDecimal(MathContext mathContext) {
+        try {
+            return new BigDecimal(numeratorBig()).divide(new BigDecimal(denominatorBig()), mathContext);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    public int compareTo(RationalNode other) {
+        if (bigNumerator == null && other.bigNumerator == null) {
+            long high = Math.multiplyHigh(numerator, other.denominator);
+            long low = numerator * other.denominator;
+            long otherHigh = Math.multiplyHigh(other.numerator, denominator);
+            long otherLow = other.numerator * denominator;
+            // Compare the 128-bit cross products, signed in the high word and unsigned in the low one
+            int compare = Long.compare(high, otherHigh);
+            return compare != 0 ? compare : Long.compareUnsigned(low, otherLow);
+        }
+        return numeratorBig().multiply(other.denominatorBig()).compareTo(other.numeratorBig().multiply(denominatorBig()));
+    }
+
+    static Node add(Node x, Node y) {
+        if (isSmall(x) && isSmall(y)) {
+            long a = numerator(x);
+            long b = denominator(x);
+            long c = numerator(y);
+            long d = denominator(y);
+            try {
+                long g = gcd(b, d);
+                // a/b + c/d = (a d/g + c b/g) / (b d/g), and only a factor of g can be left in common
+                long sum = Math.addExact(Math.multiplyExact(a, d / g), Math.multiplyExact(c, b / g));
+                long h = gcd(sum, g);
+                return reduced(sum / h, Math.multiplyExact(b / g, d / h));
+            } catch (ArithmeticException e) {
+                // Overflowed; fall through to the big path
+            }
+        }
+        return reduce(numeratorBig(x).multiply(denominatorBig(y)).add(numeratorBig(y).multiply(denominatorBig(x))),
+                denominatorBig(x).multiply(denominatorBig(y)));
+    }
+
+    static Node subtract(Node x, Node y) {
+        return add(x, negate(y));
+    }
+
+    static Node multiply(Node x, Node y) {
+        if (isSmall(x) && isSmall(y)) {
+            long a = numerator(x);
+            long b = denominator(x);
+            long c = numerator(y);
+            long d = denominator(y);
+            try {
+                // Both operands are in lowest terms, so cancelling across is enough
+                long g = gcd(a, d);
+                long h = gcd(c, b);
+                return reduced(Math.multiplyExact(a / g, c / h), Math.multiplyExact(b / h, d / g));
+            } catch (ArithmeticException e) {
+                // Overflowed; fall through to the big path
+            }
+        }
+        return reduce(numeratorBig(x).multiply(numeratorBig(y)), denominatorBig(x).multiply(denominatorBig(y)));
+    }
+
+    /**
+     * Returns the quotient, or null if the divisor is zero.
+     */
+    static Node divide(Node x, Node y) {
+        Node reciprocal = reciprocal(y);
+        return reciprocal != null ? multiply(x, reciprocal) : null;
+    }
+
+    /**
+     * Raises an integer or fraction to an integer power, returning null if the base is zero and the exponent
+     * negative, or if the exponent is too large to compute.
+     */
+    static Node pow(Node base, IntegerNode exponent) {
+        if (exponent.signum() < 0) {
+            Node reciprocal = reciprocal(base);
+            return reciprocal != null ? pow(reciprocal, exponent.negate()) : null;
+        }
+        if (base instanceof IntegerNode) {
+            return ((IntegerNode) base).pow(exponent);
+        } else if (exponent.isZero()) {
+            return new IntegerNode(1);
+        }
+        RationalNode rational = (RationalNode) base;
+        IntegerNode numerator = rational.numerator().pow(exponent);
+        IntegerNode denominator = rational.denominator().pow(exponent);
+        if (numerator == null || denominator == null) {
+            return null;
+        }
+        // Powers of coprime numbers are coprime
+        return new RationalNode(numerator.toBigInteger(), denominator.toBigInteger());
+    }
+
+    private static Node negate(Node x) {
+        if (x instanceof IntegerNode) {
+            return ((IntegerNode) x).negate();
+        }
+        RationalNode rational = (RationalNode) x;
+        if (rational.bigNumerator == null && rational.numerator != Long.MIN_VALUE) {
+            return new RationalNode(-rational.numerator, rational.denominator);
+        }
+        return new RationalNode(rational.numeratorBig().negate(), rational.denominatorBig());
+    }
+
+    private static Node reciprocal(Node x) {
+        if (x instanceof IntegerNode) {
+            return valueOf(new IntegerNode(1), (IntegerNode) x);
+        }
+        RationalNode rational = (RationalNode) x;
+        return valueOf(rational.denominator(), rational.numerator());
+    }
+
+    private static Node reduce(long numerator, long denominator) {
+        long g = gcd(numerator, denominator);
+        if (g == Long.MIN_VALUE || (denominator < 0 && (numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE))) {
+            // The gcd or the sign change does not fit
+            return reduce(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+        }
+        if (denominator < 0) {
+            g = -g;
+        }
+        return reduced(numerator / g, denominator / g);
+    }
+
+    private static Node reduce(BigInteger numerator, BigInteger denominator) {
+        BigInteger g = numerator.gcd(denominator);
+        if (denominator.signum() < 0) {
+            g = g.negate();
+        }
+        numerator = numerator.divide(g);
+        denominator = denominator.divide(g);
+        if (denominator.equals(BigInteger.ONE)) {
+            return new IntegerNode(numerator);
+        }
+        return new RationalNode(numerator, denominator);
+    }
+
+    /**
+     * Wraps a numerator and a positive denominator that are coprime, except that a zero numerator may come with any
+     * denominator.
+     */
+    private static Node reduced(long numerator, long denominator) {
+        return denominator == 1 || numerator == 0 ? new IntegerNode(numerator) : new RationalNode(numerator, denominator);
+    }
+
+    /**
+     * Returns the greatest common divisor of the magnitudes, by the binary algorithm. The result is
+     * {@link Long#MIN_VALUE} if it is 2^63.
+     */
+    private static long gcd(long a, long b) {
+        if (a == 0 || b == 0) {
+            return Math.abs(a | b);
+        }
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a = Math.abs(a >> Long.numberOfTrailingZeros(a));
+        b = Math.abs(b >> Long.numberOfTrailingZeros(b));
+        while (a != b) {
+            if (a > b) {
+                a -= b;
+                a >>= Long.numberOfTrailingZeros(a);
+            } else {
+                b -= a;
+                b >>= Long.numberOfTrailingZeros(b);
+            }
+        }
+        return a << shift;
+    }
+
+    private static boolean isSmall(Node x) {
+        return x instanceof IntegerNode ? !((IntegerNode) x).isBig() : !((RationalNode) x).isBig();
+    }
+
+    private static long numerator(Node x) {
+        return x instanceof IntegerNode ? ((IntegerNode) x).value : ((RationalNode) x).numerator;
+    }
+
+    private static long denominator(Node x) {
+        return x instanceof IntegerNode ? 1 : ((RationalNode) x).denominator;
+    }
+
+    private static BigInteger numeratorBig(Node x) {
+        return x instanceof IntegerNode ? ((IntegerNode) x).toBigInteger() : ((RationalNode) x).numeratorBig();
+    }
+
+    private static BigInteger denominatorBig(Node x) {
+        return x instanceof IntegerNode ? BigInteger.ONE : ((RationalNode) x).denominatorBig();
+    }
+
+    private BigInteger numeratorBig() {
+        return bigNumerator != null ? bigNumerator : BigInteger.valueOf(numerator);
+    }
+
+    private BigInteger denominatorBig() {
+        return bigDenominator != null ? bigDenominator : BigInteger.valueOf(denominator);
+    }
+
+    private static boolean fitsLong(BigInteger value) {
+        return value.compareTo(LONG_MIN) >= 0 && value.compareTo(LONG_MAX) <= 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RationalNode that = (RationalNode) o;
+        // Both are in lowest terms and use the long fields whenever they fit, so equal values look the same
+        if (bigNumerator == null || that.bigNumerator == null) {
+            return bigNumerator == that.bigNumerator && numerator == that.numerator && denominator == that.denominator;
+        }
+        return bigNumerator.equals(that.bigNumerator) && bigDenominator.equals(that.bigDenominator);
+    }
+
+    @Override
+    public int hashCode() {
+        if (bigNumerator != null) {
+            return 31 * bigNumerator.hashCode() + bigDenominator.hashCode();
+        }
+        return 31 * Long.hashCode(numerator) + Long.hashCode(denominator);
+    }
+
+    @Override
+    public String toString() {
+        return "RationalNode{value=" + numeratorBig() + "/" + denominatorBig() + '}';
+    }
+}
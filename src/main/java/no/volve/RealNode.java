@@ -1,13 +1,15 @@
 package no.volve;
 
 import java.math.BigDecimal;
-import java.util.Objects;
 
 public class RealNode extends Node {
     public final BigDecimal value;
+    private final int hash;
 
     RealNode(BigDecimal value) {
         this.value = value;
+        // Equality ignores scale, so the hash must as well
+        this.hash = value.stripTrailingZeros().hashCode();
     }
 
     @Override
@@ -20,7 +22,7 @@ public class RealNode extends Node {
 
     @Override
     public int hashCode() {
-        return Objects.hash(value);
+        return hash;
     }
 
     @Override
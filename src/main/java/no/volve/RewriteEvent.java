@@ -0,0 +1,28 @@
+package no.volve;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one rule firing in an {@link EvaluationEngine}. Only emitted when enabled on the engine
+ * with {@link EvaluationEngine#setFlightRecorderEvents}, and then only while a recording has the event enabled.
+ */
+@Name("no.volve.Rewrite")
+@Label("Rewrite")
+@Category({"Magica", "Evaluation"})
+@Description("A rule rewrote a node")
+@StackTrace(false)
+class RewriteEvent extends jdk.jfr.Event {
+    @Label("Rule Index")
+    int ruleIndex;
+
+    @Label("Head")
+    String head;
+
+    @Label("Depth")
+    @Description("Depth of the rewritten node in the evaluated expression")
+    int depth;
+}
@@ -0,0 +1,137 @@
+package no.volve;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * In-memory recorder of the most recent rewrite steps of an {@link EvaluationEngine}.
+ * <p>
+ * Steps go into a fixed-size ring buffer, overwriting the oldest, and keep references to the nodes involved rather
+ * than formatting them, so recording a step is a few field writes. When an evaluation runs longer than the threshold,
+ * the buffered steps are handed to the slow-evaluation handler; this happens while the evaluation is still running,
+ * so a rewrite loop that never terminates is reported too. The handler is called at most once per top-level
+ * evaluation, from the evaluating thread.
+ */
+public class RewriteTrace {
+    private final AtomicReferenceArray<Step> steps;
+    private final AtomicLong sequence = new AtomicLong();
+    private final long thresholdNanos;
+    private final Consumer<List<Step>> slowEvaluationHandler;
+    private final ThreadLocal<Evaluation> evaluations = new ThreadLocal<>();
+
+    /**
+     * Creates a recorder keeping the last {@code capacity} steps, passing them to the handler whenever an evaluation
+     * exceeds {@code thresholdNanos}.
+     */
+    public RewriteTrace(int capacity, long thresholdNanos, Consumer<List<Step>> slowEvaluationHandler) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.steps = new AtomicReferenceArray<>(capacity);
+        this.thresholdNanos = thresholdNanos;
+        this.slowEvaluationHandler = slowEvaluationHandler;
+    }
+
+    /**
+     * Returns the buffered steps, oldest first.
+     */
+    public List<Step> steps() {
+        long end = sequence.get();
+        long start = Math.max(0, end - steps.length());
+        List<Step> result = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            Step step = steps.get((int) (i % steps.length()));
+            // Skip slots already overwritten by newer steps, or not yet written
+            if (step != null && step.sequence == i) {
+                result.add(step);
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        for (int i = 0; i < steps.length(); i++) {
+            steps.set(i, null);
+        }
+    }
+
+    void record(int ruleIndex, String head, int depth, Node before, Node after) {
+        long index = sequence.getAndIncrement();
+        long now = System.nanoTime();
+        steps.set((int) (index % steps.length()), new Step(index, now, ruleIndex, head, depth, before, after));
+
+        Evaluation evaluation = evaluations.get();
+        if (evaluation != null && !evaluation.reported && now - evaluation.start > thresholdNanos) {
+            evaluation.reported = true;
+            slowEvaluationHandler.accept(steps());
+        }
+    }
+
+    /**
+     * Starts timing a top-level evaluation. An evaluation started from within another on the same thread, such as
+     * one made by the slow-evaluation handler, belongs to the outer one.
+     */
+    void evaluationStarted() {
+        Evaluation evaluation = evaluations.get();
+        if (evaluation != null) {
+            evaluation.nesting++;
+            return;
+        }
+        evaluations.set(new Evaluation(System.nanoTime()));
+    }
+
+    void evaluationFinished() {
+        Evaluation evaluation = evaluations.get();
+        if (evaluation != null && evaluation.nesting > 0) {
+            evaluation.nesting--;
+            return;
+        }
+        evaluations.remove();
+        if (evaluation != null && !evaluation.reported && System.nanoTime() - evaluation.start > thresholdNanos) {
+            slowEvaluationHandler.accept(steps());
+        }
+    }
+
+    private static class Evaluation {
+        final long start;
+        boolean reported;
+        int nesting;
+
+        Evaluation(long start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * One rule firing: the rule's index in the engine's rule list, the head and depth of the rewritten node, and the
+     * node before and after.
+     */
+    public static class Step {
+        public final long sequence;
+        public final long timestampNanos;
+        public final int ruleIndex;
+        public final String head;
+        public final int depth;
+        final Node before;
+        final Node after;
+
+        Step(long sequence, long timestampNanos, int ruleIndex, String head, int depth, Node before, Node after) {
+            this.sequence = sequence;
+            this.timestampNanos = timestampNanos;
+            this.ruleIndex = ruleIndex;
+            this.head = head;
+            this.depth = depth;
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public String toString() {
+            return "Step{sequence=" + sequence + ", ruleIndex=" + ruleIndex + ", head=" + head + ", depth=" + depth
+                    + ", before=" + before + ", after=" + after + '}';
+        }
+    }
+}
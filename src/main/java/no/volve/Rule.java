@@ -7,6 +7,8 @@ import java.util.Map;
 public class Rule {
     public final Node pattern;
     public final NodeTransformer transformer;
+    // Compiled on first use, since only the compiled matching mode needs it
+    private CompiledPattern compiledPattern;
 
     public Rule(Node pattern, Node replacement) {
         this.pattern = pattern;
@@ -23,6 +25,19 @@ public class Rule {
         this.transformer = transformer;
     }
 
+    /**
+     * Returns the compiled form of the pattern. A compiled pattern is immutable, so threads that race to compile it
+     * first each get a correct one.
+     */
+    CompiledPattern compiledPattern() {
+        CompiledPattern compiled = compiledPattern;
+        if (compiled == null) {
+            compiled = CompiledPattern.compile(pattern);
+            compiledPattern = compiled;
+        }
+        return compiled;
+    }
+
     private Node buildReplacementNode(Node node, Map<String, Node> bindings) {
         if (node instanceof VariableNode) {
             VariableNode variableNode = (VariableNode) node;
@@ -0,0 +1,124 @@
+package no.volve;
+
+import java.util.*;
+
+/**
+ * Dispatch index over a rule list, keyed by the head symbol and arity class of each rule's pattern.
+ * A node only sees the rules that could possibly match its head and argument count, in the original rule order.
+ */
+class RuleIndex {
+    private final Map<String, HeadRules> rulesByHead = new HashMap<>();
+    private final List<Rule> anyHeadRules;
+
+    RuleIndex(List<Rule> rules) {
+        this(rules, Collections.emptySet());
+    }
+
+    /**
+     * Creates an index in which the given rules, matched orderlessly against any number of arguments, are
+     * candidates for every arity, like sequence patterns.
+     */
+    RuleIndex(List<Rule> rules, Set<Rule> anyArity) {
+        List<Rule> anyHead = new ArrayList<>();
+        Map<String, SortedSet<Integer>> fixedArities = new HashMap<>();
+        for (Rule rule : rules) {
+            String head = headOf(rule.pattern);
+            if (head == null) {
+                anyHead.add(rule);
+            } else {
+                SortedSet<Integer> arities = fixedArities.computeIfAbsent(head, h -> new TreeSet<>());
+                if (!anyArity.contains(rule) && !isSequencePattern((FunctionNode) rule.pattern)) {
+                    arities.add(((FunctionNode) rule.pattern).arguments.size());
+                }
+            }
+        }
+        this.anyHeadRules = Collections.unmodifiableList(anyHead);
+
+        for (Map.Entry<String, SortedSet<Integer>> entry : fixedArities.entrySet()) {
+            String head = entry.getKey();
+            Map<Integer, List<Rule>> byArity = new HashMap<>();
+            for (int arity : entry.getValue()) {
+                byArity.put(arity, select(rules, anyArity, head, arity));
+            }
+            rulesByHead.put(head, new HeadRules(byArity, select(rules, anyArity, head, -1)));
+        }
+    }
+
+    /**
+     * Returns the rules whose pattern could match the given node, in rule order.
+     */
+    List<Rule> candidates(Node node) {
+        if (node instanceof FunctionNode) {
+            FunctionNode functionNode = (FunctionNode) node;
+            HeadRules headRules = rulesByHead.get(functionNode.name);
+            if (headRules != null) {
+                return headRules.forArity(functionNode.arguments.size());
+            }
+        }
+        return anyHeadRules;
+    }
+
+    /**
+     * Selects, in order, the rules applicable to the given head and arity. An arity of -1 selects only the rules
+     * that do not depend on a fixed arity, i.e. sequence and orderless patterns and rules without a fixed head.
+     */
+    private static List<Rule> select(List<Rule> rules, Set<Rule> anyArity, String head, int arity) {
+        List<Rule> selected = new ArrayList<>();
+        for (Rule rule : rules) {
+            String ruleHead = headOf(rule.pattern);
+            if (ruleHead == null) {
+                selected.add(rule);
+            } else if (ruleHead.equals(head)) {
+                FunctionNode pattern = (FunctionNode) rule.pattern;
+                if (anyArity.contains(rule) || isSequencePattern(pattern) || pattern.arguments.size() == arity) {
+                    selected.add(rule);
+                }
+            }
+        }
+        return Collections.unmodifiableList(selected);
+    }
+
+    /**
+     * Returns the head symbol a pattern requires, or null if the pattern is not a function with a fixed head.
+     */
+    private static String headOf(Node pattern) {
+        if (pattern instanceof FunctionNode) {
+            String name = ((FunctionNode) pattern).name;
+            if (!isBlank(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSequencePattern(FunctionNode pattern) {
+        for (Node arg : pattern.arguments) {
+            if (arg instanceof FunctionNode) {
+                String name = ((FunctionNode) arg).name;
+                if ("BlankSequence".equals(name) || "BlankNullSequence".equals(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(String name) {
+        return "Blank".equals(name) || "BlankSequence".equals(name) || "BlankNullSequence".equals(name);
+    }
+
+    private static class HeadRules {
+        private final Map<Integer, List<Rule>> rulesByArity;
+        private final List<Rule> anyArityRules;
+
+        HeadRules(Map<Integer, List<Rule>> rulesByArity, List<Rule> anyArityRules) {
+            this.rulesByArity = rulesByArity;
+            this.anyArityRules = anyArityRules;
+        }
+
+        List<Rule> forArity(int arity) {
+            List<Rule> rules = rulesByArity.get(arity);
+            return rules != null ? rules : anyArityRules;
+        }
+    }
+}
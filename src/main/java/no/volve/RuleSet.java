@@ -0,0 +1,70 @@
+package no.volve;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable rule base together with the structures built from it for matching.
+ * <p>
+ * Building the index and the discrimination net costs far more than an {@link EvaluationEngine} itself, so a rule
+ * set is meant to be built once and shared by every engine that uses the same rules, on any number of threads.
+ * <p>
+ * Rules for a commutative head with at least two fixed arguments are matched as an {@link OrderlessPattern}.
+ */
+public final class RuleSet {
+    private static final AtomicInteger VERSIONS = new AtomicInteger();
+
+    /**
+     * Identifies this rule set in {@link EvaluationCache} keys, so every engine built on it shares its entries.
+     */
+    final int version = VERSIONS.incrementAndGet();
+    private final List<Rule> rules;
+    private final Map<String, Set<EvaluationEngine.Attribute>> functionAttributes;
+    private final Map<Rule, Integer> ruleIndices = new IdentityHashMap<>();
+    private final Map<Rule, OrderlessPattern> orderlessPatterns = new IdentityHashMap<>();
+    final RuleIndex ruleIndex;
+    final DiscriminationNet discriminationNet;
+
+    public RuleSet(List<Rule> rules, Map<String, Set<EvaluationEngine.Attribute>> functionAttributes) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        this.functionAttributes = Collections.unmodifiableMap(new HashMap<>(functionAttributes));
+        for (int i = 0; i < this.rules.size(); i++) {
+            Rule rule = this.rules.get(i);
+            ruleIndices.putIfAbsent(rule, i);
+            OrderlessPattern orderless = OrderlessPattern.compile(rule.pattern, this.functionAttributes);
+            if (orderless != null) {
+                orderlessPatterns.put(rule, orderless);
+            }
+        }
+        this.ruleIndex = new RuleIndex(this.rules, orderlessPatterns.keySet());
+        this.discriminationNet = new DiscriminationNet(this.rules, orderlessPatterns);
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public Map<String, Set<EvaluationEngine.Attribute>> getFunctionAttributes() {
+        return functionAttributes;
+    }
+
+    /**
+     * Returns the position of the rule in this set, which identifies it in metrics and traces.
+     */
+    int indexOf(Rule rule) {
+        return ruleIndices.get(rule);
+    }
+
+    /**
+     * Returns the orderless form of the rule's pattern, or null if the rule is matched positionally.
+     */
+    OrderlessPattern orderlessPattern(Rule rule) {
+        return orderlessPatterns.get(rule);
+    }
+}
@@ -1,12 +1,29 @@
 package no.volve;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * Evaluates expressions with the standard rules.
+ * <p>
+ * One evaluator can serve any number of threads. Its settings must be made before it is shared; after that,
+ * {@link #evaluate} may be called concurrently and reentrantly. The rules and nodes it works on are immutable and
+ * each evaluation keeps its state on the calling thread's stack, so evaluation itself takes no locks.
+ */
 public class StandardEvaluator {
-    private EvaluationEngine evaluationEngine;
+    private final EvaluationEngine evaluationEngine;
     private static final Map<String, Set<EvaluationEngine.Attribute>> FUNCTION_ATTRIBUTES = new HashMap<>();
+    private static final Map<MathContext, RuleSet> STANDARD_RULES = new ConcurrentHashMap<>();
 
     static {
         FUNCTION_ATTRIBUTES.put("Plus", EnumSet.of(EvaluationEngine.Attribute.COMMUTATIVE));
@@ -14,104 +31,211 @@ public class StandardEvaluator {
     }
 
     public StandardEvaluator() {
-        PatternMatcher patternMatcher = new PatternMatcher();
-        List<Rule> standardRules = Arrays.asList(
-                new Rule(parse("Plus[Blank[x], Blank[y]]"), new NodeTransformer() {
+        this(MathContext.UNLIMITED);
+    }
+
+    /**
+     * Creates an evaluator that rounds arbitrary-precision real arithmetic to the given context. With
+     * {@link MathContext#UNLIMITED} results are exact, and their scale grows with every multiplication.
+     */
+    public StandardEvaluator(MathContext mathContext) {
+        this(standardRules(mathContext));
+    }
+
+    /**
+     * Creates an evaluator for the given rules, which may be shared with other evaluators.
+     */
+    public StandardEvaluator(RuleSet ruleSet) {
+        evaluationEngine = new EvaluationEngine(new PatternMatcher(), ruleSet);
+    }
+
+    /**
+     * Returns the standard rules for the given context. They are built once per context and shared by every
+     * evaluator created for it.
+     */
+    public static RuleSet standardRules(MathContext mathContext) {
+        return STANDARD_RULES.computeIfAbsent(mathContext, context -> new RuleSet(createRules(context, StandardEvaluator::parse), FUNCTION_ATTRIBUTES));
+    }
+
+    /**
+     * Writes the patterns and replacements of the standard rules, so {@link #readRuleSnapshot} can rebuild them
+     * without parsing.
+     */
+    public static void writeRuleSnapshot(OutputStream output) throws IOException {
+        List<String> sources = new ArrayList<>();
+        List<Node> nodes = new ArrayList<>();
+        createRules(MathContext.UNLIMITED, fullForm -> {
+            sources.add(fullForm);
+            Node node = parse(fullForm);
+            nodes.add(node);
+            return node;
+        });
+        NodeWriter writer = new NodeWriter(output);
+        writer.write(snapshotHeader(sources));
+        for (Node node : nodes) {
+            writer.write(node);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Builds the standard rules from a snapshot written by {@link #writeRuleSnapshot}.
+     *
+     * @throws IllegalArgumentException if the snapshot is malformed or was written for different rules
+     */
+    public static RuleSet readRuleSnapshot(Path snapshot, MathContext mathContext) throws IOException {
+        // The snapshot is a few hundred bytes, too small for mapping it to pay off
+        NodeReader reader = new NodeReader(ByteBuffer.wrap(Files.readAllBytes(snapshot)));
+        Node header = reader.read();
+        List<String> sources = new ArrayList<>();
+        List<Rule> rules = createRules(mathContext, fullForm -> {
+            sources.add(fullForm);
+            Node node = reader.read();
+            if (node == null) {
+                throw new IllegalArgumentException("Rule snapshot is out of date");
+            }
+            return node;
+        });
+        if (!snapshotHeader(sources).equals(header) || reader.read() != null) {
+            throw new IllegalArgumentException("Rule snapshot is out of date");
+        }
+        return new RuleSet(rules, FUNCTION_ATTRIBUTES);
+    }
+
+    /**
+     * Identifies the rule sources a snapshot was written for, so a snapshot of older rules is rejected.
+     */
+    private static Node snapshotHeader(List<String> sources) {
+        return new FunctionNode("RuleSnapshot", Arrays.asList(new IntegerNode(sources.size()), new IntegerNode(sources.hashCode())));
+    }
+
+    /**
+     * Creates the standard rules, taking the node for every pattern and replacement from the source in order.
+     */
+    private static List<Rule> createRules(MathContext mathContext, Function<String, Node> source) {
+        return Arrays.asList(
+                new Rule(source.apply("Plus[Blank[x], Blank[y]]"), new ArithmeticTransformer() {
                     @Override
                     public Node transform(Node node, Map<String, Node> bindings) {
                         Node x = bindings.get("x");
                         Node y = bindings.get("y");
 
-                        if (!(x instanceof IntegerNode || x instanceof RealNode) || !(y instanceof IntegerNode || y instanceof RealNode)) {
+                        if (!isNumber(x) || !isNumber(y)) {
                             return null;
                         }
                         if (x instanceof IntegerNode && y instanceof IntegerNode) {
-                            return new IntegerNode(((IntegerNode) x).value + ((IntegerNode) y).value);
+                            return ((IntegerNode) x).add((IntegerNode) y);
+                        } else if (isExact(x) && isExact(y)) {
+                            return RationalNode.add(x, y);
+                        } else if (x instanceof MachineRealNode || y instanceof MachineRealNode) {
+                            return new MachineRealNode(doubleValue(x) + doubleValue(y));
                         } else {
-                            BigDecimal xValue = x instanceof IntegerNode ? BigDecimal.valueOf(((IntegerNode) x).value) : ((RealNode) x).value;
-                            BigDecimal yValue = y instanceof IntegerNode ? BigDecimal.valueOf(((IntegerNode) y).value) : ((RealNode) y).value;
+                            BigDecimal xValue = decimalValue(x, mathContext);
+                            BigDecimal yValue = decimalValue(y, mathContext);
 
-                            return new RealNode(xValue.add(yValue));
+                            return xValue != null && yValue != null ? new RealNode(xValue.add(yValue, mathContext)) : null;
                         }
                     }
                 }),
-                new Rule(parse("Subtract[Blank[x], Blank[y]]"), new NodeTransformer() {
+                new Rule(source.apply("Subtract[Blank[x], Blank[y]]"), new NodeTransformer() {
                     @Override
                     public Node transform(Node node, Map<String, Node> bindings) {
                         Node x = bindings.get("x");
                         Node y = bindings.get("y");
 
-                        if (!(x instanceof IntegerNode || x instanceof RealNode) || !(y instanceof IntegerNode || y instanceof RealNode)) {
+                        if (!isNumber(x) || !isNumber(y)) {
                             return null;
                         }
                         if (x instanceof IntegerNode && y instanceof IntegerNode) {
-                            return new IntegerNode(((IntegerNode) x).value - ((IntegerNode) y).value);
+                            return ((IntegerNode) x).subtract((IntegerNode) y);
+                        } else if (isExact(x) && isExact(y)) {
+                            return RationalNode.subtract(x, y);
+                        } else if (x instanceof MachineRealNode || y instanceof MachineRealNode) {
+                            return new MachineRealNode(doubleValue(x) - doubleValue(y));
                         } else {
-                            BigDecimal xValue = x instanceof IntegerNode ? BigDecimal.valueOf(((IntegerNode) x).value) : ((RealNode) x).value;
-                            BigDecimal yValue = y instanceof IntegerNode ? BigDecimal.valueOf(((IntegerNode) y).value) : ((RealNode) y).value;
+                            BigDecimal xValue = decimalValue(x, mathContext);
+                            BigDecimal yValue = decimalValue(y, mathContext);
 
-                            return new RealNode(xValue.subtract(yValue));
+                            return xValue != null && yValue != null ? new RealNode(xValue.subtract(yValue, mathContext)) : null;
                         }
                     }
                 }),
-                new Rule(parse("Times[Blank[x], Blank[y]]"), new NodeTransformer() {
+                new Rule(source.apply("Times[Blank[x], Blank[y]]"), new ArithmeticTransformer() {
                     @Override
                     public Node transform(Node node, Map<String, Node> bindings) {
                         Node x = bindings.get("x");
                         Node y = bindings.get("y");
 
-                        if (!(x instanceof IntegerNode || x instanceof RealNode) || !(y instanceof IntegerNode || y instanceof RealNode)) {
+                        if (!isNumber(x) || !isNumber(y)) {
                             return null;
                         }
                         if (x instanceof IntegerNode && y instanceof IntegerNode) {
-                            return new IntegerNode(((IntegerNode) x).value * ((IntegerNode) y).value);
+                            return ((IntegerNode) x).multiply((IntegerNode) y);
+                        } else if (isExact(x) && isExact(y)) {
+                            return RationalNode.multiply(x, y);
+                        } else if (x instanceof MachineRealNode || y instanceof MachineRealNode) {
+                            return new MachineRealNode(doubleValue(x) * doubleValue(y));
                         } else {
-                            BigDecimal xValue = x instanceof IntegerNode ? BigDecimal.valueOf(((IntegerNode) x).value) : ((RealNode) x).value;
-                            BigDecimal yValue = y instanceof IntegerNode ? BigDecimal.valueOf(((IntegerNode) y).value) : ((RealNode) y).value;
+                            BigDecimal xValue = decimalValue(x, mathContext);
+                            BigDecimal yValue = decimalValue(y, mathContext);
 
-                            return new RealNode(xValue.multiply(yValue));
+                            return xValue != null && yValue != null ? new RealNode(xValue.multiply(yValue, mathContext)) : null;
                         }
                     }
                 }),
-                new Rule(parse("Divide[Blank[x], Blank[y]]"), new NodeTransformer() {
+                new Rule(source.apply("Divide[Blank[x], Blank[y]]"), new NodeTransformer() {
                     @Override
                     public Node transform(Node node, Map<String, Node> bindings) {
                         Node x = bindings.get("x");
                         Node y = bindings.get("y");
 
-                        if (x instanceof IntegerNode && y instanceof IntegerNode) {
-                            int xValue = ((IntegerNode) x).value;
-                            int yValue = ((IntegerNode) y).value;
-                            if (xValue % yValue == 0) {
-                                return new IntegerNode(xValue / yValue);
+                        if (isExact(x) && isExact(y)) {
+                            return RationalNode.divide(x, y);
+                        } else if (isNumber(x) && isNumber(y) && (x instanceof MachineRealNode || y instanceof MachineRealNode)) {
+                            return new MachineRealNode(doubleValue(x) / doubleValue(y));
+                        } else if (isNumber(x) && isNumber(y) && mathContext.getPrecision() > 0) {
+                            BigDecimal xValue = decimalValue(x, mathContext);
+                            BigDecimal yValue = decimalValue(y, mathContext);
+                            if (yValue.signum() != 0) {
+                                return new RealNode(xValue.divide(yValue, mathContext));
                             }
                         }
                         return null;
                     }
                 }),
-                new Rule(parse("Power[Blank[x], Blank[y]]"), new NodeTransformer() {
+                new Rule(source.apply("Power[Blank[x], Blank[y]]"), new NodeTransformer() {
                     @Override
                     public Node transform(Node node, Map<String, Node> bindings) {
                         Node x = bindings.get("x");
                         Node y = bindings.get("y");
 
-                        if (x instanceof IntegerNode && y instanceof IntegerNode) {
-                            int xValue = ((IntegerNode) x).value;
-                            int yValue = ((IntegerNode) y).value;
-                            int result = (int) Math.pow(xValue, yValue);
-
-                            return new IntegerNode(result);
+                        if (isExact(x) && y instanceof IntegerNode) {
+                            return RationalNode.pow(x, (IntegerNode) y);
+                        } else if (isNumber(x) && isNumber(y) && (x instanceof MachineRealNode || y instanceof MachineRealNode)) {
+                            return new MachineRealNode(Math.pow(doubleValue(x), doubleValue(y)));
                         }
 
                         return null;
                     }
                 }),
-                new Rule(parse("Plus[BlankSequence[]]"), new NodeTransformer() {
+                new Rule(source.apply("Rational[Blank[x], Blank[y]]"), new NodeTransformer() {
+                    @Override
+                    public Node transform(Node node, Map<String, Node> bindings) {
+                        Node x = bindings.get("x");
+                        Node y = bindings.get("y");
+
+                        if (x instanceof IntegerNode && y instanceof IntegerNode) {
+                            return RationalNode.valueOf((IntegerNode) x, (IntegerNode) y);
+                        }
+                        return null;
+                    }
+                }),
+                new Rule(source.apply("Plus[BlankSequence[]]"), new NodeTransformer() {
                     @Override
                     public Node transform(Node node, Map<String, Node> bindings) {
                         FunctionNode functionNode = (FunctionNode) node;
                         List<Node> newArguments = functionNode.arguments.stream()
-                                .filter(arg -> !(arg instanceof IntegerNode && ((IntegerNode) arg).value == 0))
+                                .filter(arg -> !(arg instanceof IntegerNode && ((IntegerNode) arg).isZero()))
                                 .collect(Collectors.toList());
 
                         if (newArguments.size() == 0) {
@@ -123,12 +247,12 @@ public class StandardEvaluator {
                         }
                     }
                 }),
-                new Rule(parse("Times[BlankSequence[]]"), new NodeTransformer() {
+                new Rule(source.apply("Times[BlankSequence[]]"), new NodeTransformer() {
                     @Override
                     public Node transform(Node node, Map<String, Node> bindings) {
                         FunctionNode functionNode = (FunctionNode) node;
                         List<Node> newArguments = functionNode.arguments.stream()
-                                .filter(arg -> !(arg instanceof IntegerNode && ((IntegerNode) arg).value == 1))
+                                .filter(arg -> !(arg instanceof IntegerNode && ((IntegerNode) arg).isOne()))
                                 .collect(Collectors.toList());
 
                         if (newArguments.size() == 0) {
@@ -140,95 +264,149 @@ public class StandardEvaluator {
                         }
                     }
                 }),
-                new Rule(parse("Plus[BlankSequence[]]"), new NodeTransformer() {
+                new Rule(source.apply("Plus[BlankSequence[]]"), new NodeTransformer() {
                     @Override
                     public Node transform(Node node, Map<String, Node> bindings) {
-                        FunctionNode functionNode = (FunctionNode) node;
-                        Set<Node> toRemove = new HashSet<>();
-                        for (int i = 0; i < functionNode.arguments.size(); i++) {
-                            Node arg1 = functionNode.arguments.get(i);
-                            for (int j = i + 1; j < functionNode.arguments.size(); j++) {
-                                Node arg2 = functionNode.arguments.get(j);
-
-                                if (arg1 instanceof FunctionNode && ((FunctionNode) arg1).name.equals("Minus") &&
-                                        ((FunctionNode) arg1).arguments.size() == 1 && ((FunctionNode) arg1).arguments.get(0).equals(arg2)) {
-                                    toRemove.add(arg1);
-                                    toRemove.add(arg2);
-                                    break;
-                                }
-
-                                if (arg2 instanceof FunctionNode && ((FunctionNode) arg2).name.equals("Minus") &&
-                                        ((FunctionNode) arg2).arguments.size() == 1 && ((FunctionNode) arg2).arguments.get(0).equals(arg1)) {
-                                    toRemove.add(arg1);
-                                    toRemove.add(arg2);
-                                    break;
-                                }
-                            }
-                        }
-                        List<Node> newArguments = functionNode.arguments.stream()
-                                .filter(arg -> !toRemove.contains(arg))
-                                .collect(Collectors.toList());
-                        return new FunctionNode(functionNode.name, newArguments);
+                        Node collected = PolynomialForm.collect(node);
+                        return collected.equals(node) ? null : collected;
                     }
                 }),
-                new Rule(parse("Plus[BlankSequence[]]"), new NodeTransformer() {
+                new Rule(source.apply("N[Blank[x]]"), new NodeTransformer() {
                     @Override
                     public Node transform(Node node, Map<String, Node> bindings) {
-                        if (node instanceof FunctionNode) {
-                            FunctionNode functionNode = (FunctionNode) node;
-                            Map<Node, Integer> coefficients = new HashMap<>();
-                            boolean changed = false;
-
-                            for (Node arg : functionNode.arguments) {
-                                if (arg instanceof FunctionNode && ((FunctionNode) arg).name.equals("Times")) {
-                                    FunctionNode timesNode = (FunctionNode) arg;
-                                    Node first = timesNode.arguments.get(0);
-                                    Node second = timesNode.arguments.get(1);
-                                    if (first instanceof IntegerNode && second instanceof VariableNode) {
-                                        coefficients.put(second, coefficients.getOrDefault(second, 0) + ((IntegerNode) first).value);
-                                        changed = true;
-                                    }
-                                } else if (arg instanceof VariableNode) {
-                                    coefficients.put(arg, coefficients.getOrDefault(arg, 0) + 1);
-                                    changed = changed || coefficients.get(arg) > 1;
-                                }
-                            }
-
-                            if (changed) {
-                                List<Node> newArgs = coefficients.entrySet().stream()
-                                        .map(entry -> new FunctionNode("Times", Arrays.asList(new IntegerNode(entry.getValue()), entry.getKey())))
-                                        .collect(Collectors.toList());
-
-                                return new FunctionNode("Plus", newArgs);
-                            }
-                        }
-                        return null;
+                        Node x = bindings.get("x");
+                        return isNumber(x) ? new MachineRealNode(doubleValue(x)) : null;
                     }
                 }),
-                new Rule(parse("Subtract[Blank[x], 0]"), parse("x")),
-                new Rule(parse("Subtract[Blank[x], Blank[y]]"), parse("Plus[x, Minus[y]]")),
-                new Rule(parse("Plus[]"), parse("0")),
-                new Rule(parse("Times[]"), parse("1")),
-                new Rule(parse("Plus[Blank[x], Blank[x]]"), parse("Times[2, x]")),
-                new Rule(parse("Times[1, Blank[x]]"), parse("x")),
-                new Rule(parse("Plus[0, Blank[x]]"), parse("x")),
-                new Rule(parse("Times[0, Blank[x]]"), parse("0")),
-                new Rule(parse("Power[Blank[x], 0]"), parse("1")),
-                new Rule(parse("Power[Blank[x], 1]"), parse("x")),
-                new Rule(parse("Plus[Blank[x], Times[-1, Blank[x]]]"), parse("0")),
-                new Rule(parse("Times[Blank[x], -1]"), parse("Times[-1, x]")),
-                new Rule(parse("Times[-1, Times[-1, Blank[x]]]"), parse("x")),
-                new Rule(parse("Plus[Blank[x], Minus[Blank[x]]]"), parse("0")),
-                new Rule(parse("Times[Blank[x], Blank[x]]"), parse("Power[x, 2]"))
+                new Rule(source.apply("Subtract[Blank[x], 0]"), source.apply("x")),
+                new Rule(source.apply("Subtract[Blank[x], Blank[y]]"), source.apply("Plus[x, Minus[y]]")),
+                new Rule(source.apply("Plus[]"), source.apply("0")),
+                new Rule(source.apply("Times[]"), source.apply("1")),
+                new Rule(source.apply("Plus[Blank[x], Blank[x]]"), source.apply("Times[2, x]")),
+                new Rule(source.apply("Times[1, Blank[x]]"), source.apply("x")),
+                new Rule(source.apply("Plus[0, Blank[x]]"), source.apply("x")),
+                new Rule(source.apply("Times[0, Blank[x]]"), source.apply("0")),
+                new Rule(source.apply("Power[Blank[x], 0]"), source.apply("1")),
+                new Rule(source.apply("Power[Blank[x], 1]"), source.apply("x")),
+                new Rule(source.apply("Plus[Blank[x], Times[-1, Blank[x]]]"), source.apply("0")),
+                new Rule(source.apply("Times[Blank[x], -1]"), source.apply("Times[-1, x]")),
+                new Rule(source.apply("Times[-1, Times[-1, Blank[x]]]"), source.apply("x")),
+                new Rule(source.apply("Plus[Blank[x], Minus[Blank[x]]]"), source.apply("0")),
+                new Rule(source.apply("Times[Blank[x], Blank[x]]"), source.apply("Power[x, 2]")),
+                new Rule(source.apply("Times[BlankSequence[]]"), new NodeTransformer() {
+                    @Override
+                    public Node transform(Node node, Map<String, Node> bindings) {
+                        Node collected = PolynomialForm.collect(node);
+                        return collected.equals(node) ? null : collected;
+                    }
+                }),
+                new Rule(source.apply("Power[BlankSequence[]]"), new NodeTransformer() {
+                    @Override
+                    public Node transform(Node node, Map<String, Node> bindings) {
+                        Node collected = PolynomialForm.collect(node);
+                        return collected.equals(node) ? null : collected;
+                    }
+                }),
+                new Rule(source.apply("Expand[BlankSequence[]]"), new NodeTransformer() {
+                    @Override
+                    public Node transform(Node node, Map<String, Node> bindings) {
+                        List<Node> arguments = ((FunctionNode) node).arguments;
+                        return arguments.size() == 1 ? PolynomialForm.expand(arguments.get(0)) : null;
+                    }
+                })
         );
-        evaluationEngine = new EvaluationEngine(patternMatcher, standardRules, FUNCTION_ATTRIBUTES);
     }
 
     public Node evaluate(Node node) {
         return evaluationEngine.evaluate(node);
     }
 
-    private Node parse(String input) {
+    /**
+     * Evaluates a numeric expression for every row of the given columns, returning the column of results. The
+     * expression is not rewritten first, and large columns are split across the parallel pool, or the common pool
+     * if none is set.
+     */
+    public double[] evaluateColumns(Node node, Map<String, double[]> columns) {
+        ForkJoinPool pool = evaluationEngine.getParallelPool();
+        return ColumnEvaluator.evaluate(node, columns, pool != null ? pool : ForkJoinPool.commonPool());
+    }
+
+    public void setMatchingMode(EvaluationEngine.MatchingMode matchingMode) {
+        evaluationEngine.setMatchingMode(matchingMode);
+    }
+
+    public void setEvaluationCache(EvaluationCache evaluationCache) {
+        evaluationEngine.setEvaluationCache(evaluationCache);
+    }
+
+    public void setParallelPool(ForkJoinPool parallelPool) {
+        evaluationEngine.setParallelPool(parallelPool);
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        evaluationEngine.setMetricsEnabled(metricsEnabled);
+    }
+
+    public EvaluationMetrics getMetrics() {
+        return evaluationEngine.getMetrics();
+    }
+
+    public void setRewriteTrace(RewriteTrace rewriteTrace) {
+        evaluationEngine.setRewriteTrace(rewriteTrace);
+    }
+
+    public void setFlightRecorderEvents(boolean flightRecorderEvents) {
+        evaluationEngine.setFlightRecorderEvents(flightRecorderEvents);
+    }
+
+    /**
+     * Arithmetic on a commutative head, which only applies to numbers and gives the same result in either order.
+     */
+    private abstract static class ArithmeticTransformer extends NodeTransformer {
+        @Override
+        public boolean accepts(Node value) {
+            return isNumber(value);
+        }
+
+        @Override
+        public boolean isSymmetric() {
+            return true;
+        }
+    }
+
+    private static boolean isNumber(Node node) {
+        return isExact(node) || node instanceof RealNode || node instanceof MachineRealNode;
+    }
+
+    private static boolean isExact(Node node) {
+        return node instanceof IntegerNode || node instanceof RationalNode;
+    }
+
+    /**
+     * Returns the value of an exact or arbitrary-precision number as a decimal, or null if it is a fraction whose
+     * expansion does not terminate and the context is unlimited.
+     */
+    private static BigDecimal decimalValue(Node node, MathContext mathContext) {
+        if (node instanceof IntegerNode) {
+            return ((IntegerNode) node).toBigDecimal();
+        } else if (node instanceof RationalNode) {
+            return ((RationalNode) node).toBigDecimal(mathContext);
+        }
+        return ((RealNode) node).value;
+    }
+
+    private static double doubleValue(Node node) {
+        if (node instanceof IntegerNode) {
+            return ((IntegerNode) node).doubleValue();
+        } else if (node instanceof RationalNode) {
+            return ((RationalNode) node).doubleValue();
+        } else if (node instanceof RealNode) {
+            return ((RealNode) node).value.doubleValue();
+        }
+        return ((MachineRealNode) node).value;
+    }
+
+    private static Node parse(String input) {
         MathematicaParser parser = new MathematicaParser();
         return parser.parse(input);
     }
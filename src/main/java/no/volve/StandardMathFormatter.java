@@ -1,5 +1,6 @@
 package no.volve;
 
+import java.util.Arrays;
 import java.util.stream.Collectors;
 
 public class StandardMathFormatter {
@@ -23,43 +24,45 @@ public class StandardMathFormatter {
         } else if (node instanceof VariableNode) {
             return ((VariableNode) node).name;
         } else if (node instanceof IntegerNode) {
-            return Integer.toString(((IntegerNode) node).value);
+            return ((IntegerNode) node).toPlainString();
+        } else if (node instanceof RationalNode) {
+            RationalNode rational = (RationalNode) node;
+            return format(new FunctionNode("Divide", Arrays.asList(rational.numerator(), rational.denominator())));
         } else if (node instanceof RealNode) {
             return ((RealNode) node).value.toPlainString();
+        } else if (node instanceof MachineRealNode) {
+            return Double.toString(((MachineRealNode) node).value);
         }
         throw new IllegalStateException("Unknown node type: " + node.getClass().getName());
     }
 
     private String formatOperatorNode(FunctionNode functionNode, Operator operator) {
-        Node leftNode = functionNode.arguments.get(0);
-        Node rightNode = functionNode.arguments.size() > 1 ? functionNode.arguments.get(1) : null;
-
-        String left = format(leftNode);
-
-        if (rightNode != null) {
-            String right = format(rightNode);
+        if (functionNode.arguments.size() == 1) {
+            // A prefix operator binds its operand from the right
+            return operator.operatorCharacter + formatOperand(functionNode.arguments.get(0), operator, false);
+        }
 
-            if (leftNode instanceof FunctionNode) {
-                FunctionNode leftFunctionNode = (FunctionNode) leftNode;
-                Operator leftOperator = parser.getOperatorByFunctionName(leftFunctionNode.name);
-                if (leftOperator != null && (leftOperator.precedence < operator.precedence
-                        || (leftOperator.precedence == operator.precedence && operator.associativity == Operator.Associativity.RIGHT))) {
-                    left = "(" + left + ")";
-                }
-            }
+        // Operands after the first are formatted as right operands, so n-ary Plus and Times print as a chain
+        StringBuilder result = new StringBuilder(formatOperand(functionNode.arguments.get(0), operator, true));
+        for (int i = 1; i < functionNode.arguments.size(); i++) {
+            result.append(' ').append(operator.operatorCharacter).append(' ')
+                    .append(formatOperand(functionNode.arguments.get(i), operator, false));
+        }
+        return result.toString();
+    }
 
-            if (rightNode instanceof FunctionNode) {
-                FunctionNode rightFunctionNode = (FunctionNode) rightNode;
-                Operator rightOperator = parser.getOperatorByFunctionName(rightFunctionNode.name);
-                if (rightOperator != null && (rightOperator.precedence < operator.precedence
-                        || (rightOperator.precedence == operator.precedence && operator.associativity == Operator.Associativity.LEFT))) {
-                    right = "(" + right + ")";
-                }
+    private String formatOperand(Node node, Operator operator, boolean left) {
+        String formatted = format(node);
+        if (node instanceof FunctionNode || node instanceof RationalNode) {
+            // A fraction is printed as a division and grouped like one
+            String name = node instanceof FunctionNode ? ((FunctionNode) node).name : "Divide";
+            Operator operandOperator = parser.getOperatorByFunctionName(name);
+            Operator.Associativity groupedSide = left ? Operator.Associativity.RIGHT : Operator.Associativity.LEFT;
+            if (operandOperator != null && (operandOperator.precedence < operator.precedence
+                    || (operandOperator.precedence == operator.precedence && operator.associativity == groupedSide))) {
+                return "(" + formatted + ")";
             }
-
-            return left + " " + operator.operatorCharacter + " " + right;
-        } else {
-            return operator.operatorCharacter + left;
         }
+        return formatted;
     }
-}
\ No newline at end of file
+}
@@ -1,214 +1,222 @@
 package no.volve;
 
-import java.math.BigDecimal;
 import java.util.*;
 
 public class StandardMathParser {
-    private static final Set<String> FUNCTIONS = new HashSet<>(Arrays.asList("sin", "cos", "tan", "log", "exp"));
+    private static final MathFunction[] FUNCTIONS = MathFunction.values();
     private static final List<Operator> OPERATORS = Arrays.asList(
-        new Operator("Plus", 1, Operator.Associativity.LEFT, "+", Operator.OperatorType.INFIX),
+        new Operator("Plus", 1, Operator.Associativity.BOTH, "+", Operator.OperatorType.INFIX),
         new Operator("Subtract", 1, Operator.Associativity.LEFT, "-", Operator.OperatorType.INFIX),
-        new Operator("Times", 2, Operator.Associativity.LEFT, "*", Operator.OperatorType.INFIX),
+        new Operator("Times", 2, Operator.Associativity.BOTH, "*", Operator.OperatorType.INFIX),
         new Operator("Divide", 2, Operator.Associativity.LEFT, "/", Operator.OperatorType.INFIX),
         new Operator("Power", 3, Operator.Associativity.RIGHT, "^", Operator.OperatorType.INFIX),
         new Operator("Minus", 4, Operator.Associativity.RIGHT, "-", Operator.OperatorType.PREFIX)
     );
+    // Operators by character, so classifying a token is an array lookup
+    private static final Operator[] INFIX_OPERATORS = new Operator[128];
+    private static final Operator[] PREFIX_OPERATORS = new Operator[128];
 
-    private List<String> tokens;
+    static {
+        for (Operator operator : OPERATORS) {
+            Operator[] table = operator.operatorType == Operator.OperatorType.PREFIX ? PREFIX_OPERATORS : INFIX_OPERATORS;
+            table[operator.operatorCharacter.charAt(0)] = operator;
+        }
+    }
+
+    private final TokenStream tokens;
 
     public StandardMathParser(List<String> tokens) {
-        this.tokens = tokens;
+        this(new TokenStream(tokens));
     }
 
-    public Node parse() {
-        UnparsedNode rootNode = buildTree();
-        return reduceTree(rootNode);
+    public StandardMathParser(CharSequence input) {
+        this(new TokenStream(input));
     }
 
-    public static int getMaxPrecedence() {
-        return OPERATORS.stream().mapToInt(operator -> operator.precedence).max().orElse(0);
+    public StandardMathParser(TokenStream tokens) {
+        this.tokens = tokens;
     }
 
-    private UnparsedNode buildTree() {
-        Stack<UnparsedNode> stack = new Stack<>();
-        stack.push(new UnparsedNode());
-        boolean isFunctionCall = false;
-        for (String token : tokens) {
-            if (isOperator(token)) {
-                Operator operator;
-                if (isPrefixOperatorExpected(stack.peek())) {
-                    operator = findPrefixOperator(token);
-                } else {
-                    operator = findInfixOperator(token);
+    /**
+     * Parses the tokens in a single pass, by operator precedence. Every open parenthesis gets a {@link Group} with
+     * its own operand and operator stacks, and the groups are kept on an explicit stack, so neither long nor deeply
+     * nested input recurses.
+     * <p>
+     * Chains of an associative operator, such as {@code 1 + 2 + 3}, become a single n-ary node.
+     */
+    public Node parse() {
+        tokens.reset();
+        Deque<Group> groups = new ArrayDeque<>();
+        Group group = new Group(null);
+        boolean operandExpected = true;
+        boolean functionName = false;
+        int kind;
+        while ((kind = tokens.next()) != TokenStream.END) {
+            boolean afterFunctionName = functionName;
+            functionName = false;
+            if (kind == TokenStream.OPERATOR) {
+                Operator operator = operandExpected ? PREFIX_OPERATORS[tokens.firstChar()] : INFIX_OPERATORS[tokens.firstChar()];
+                if (operator == null) {
+                    throw new IllegalStateException("Unknown operator: " + tokens.text());
                 }
-
-                if (operator != null) {
-                    stack.peek().nodes.add(new OperatorNode(operator));
-                } else {
-                    throw new IllegalStateException("Unknown operator: " + token);
+                if (operator.operatorType == Operator.OperatorType.INFIX) {
+                    group.reduce(operator);
+                }
+                group.operators.add(operator);
+                operandExpected = true;
+            } else if (kind == TokenStream.NUMBER || kind == TokenStream.IDENTIFIER) {
+                if (!operandExpected) {
+                    group.completeItem();
                 }
-            } else if (isOperand(token) || isVariable(token) || isFunction(token)) {
-                if (isFunction(token)) {
-                    isFunctionCall = true;
+                if (kind == TokenStream.NUMBER) {
+                    group.operands.add(tokens.number());
+                } else {
+                    functionName = isFunction();
+                    group.operands.add(new VariableNode(tokens.text()));
                 }
-                stack.peek().nodes.add(createNode(token));
-            } else if (token.equals("(")) {
-                if (isFunctionCall) {
-                    isFunctionCall = false;
-                    Node functionNode = stack.peek().nodes.remove(stack.peek().nodes.size() - 1);
-                    UnparsedNode newNode = new UnparsedNode();
-                    FunctionNode newFunctionNode = new FunctionNode(((VariableNode) functionNode).name, newNode.nodes);
-                    stack.peek().nodes.add(newFunctionNode);
-                    stack.push(newNode);
+                operandExpected = false;
+            } else if (kind == TokenStream.LEFT_PARENTHESIS) {
+                groups.push(group);
+                if (afterFunctionName) {
+                    VariableNode name = (VariableNode) group.operands.remove(group.operands.size() - 1);
+                    group = new Group(name.name);
                 } else {
-                    UnparsedNode newNode = new UnparsedNode();
-                    stack.peek().nodes.add(newNode);
-                    stack.push(newNode);
+                    if (!operandExpected) {
+                        group.completeItem();
+                    }
+                    group = new Group(null);
                 }
-            } else if (token.equals(")")) {
-                if (stack.size() <= 1) {
+                operandExpected = true;
+            } else if (kind == TokenStream.RIGHT_PARENTHESIS) {
+                if (groups.isEmpty()) {
                     throw new IllegalStateException("Mismatched parentheses.");
                 }
-                stack.pop();
+                Node node = group.complete(operandExpected);
+                group = groups.pop();
+                group.operands.add(node);
+                operandExpected = false;
             } else {
-                throw new IllegalStateException("Unknown token: " + token);
+                throw new IllegalStateException("Unknown token: " + tokens.text());
             }
         }
 
-        if (stack.size() != 1) {
+        if (!groups.isEmpty()) {
             throw new IllegalStateException("Mismatched parentheses.");
         }
-
-        return stack.pop();
-    }
-
-    private boolean isPrefixOperatorExpected(UnparsedNode node) {
-        if (node.nodes.isEmpty()) {
-            return true;
-        }
-
-        Node lastNode = node.nodes.get(node.nodes.size() - 1);
-        return lastNode instanceof OperatorNode && ((OperatorNode) lastNode).operator.operatorType == Operator.OperatorType.INFIX;
-    }
-
-    private Operator findInfixOperator(String character) {
-        return OPERATORS.stream()
-                .filter(op -> op.operatorCharacter.equals(character) && op.operatorType == Operator.OperatorType.INFIX)
-                .findFirst()
-                .orElse(null);
+        return group.complete(operandExpected);
     }
 
-    private Operator findPrefixOperator(String character) {
-        return OPERATORS.stream()
-                .filter(op -> op.operatorCharacter.equals(character) && op.operatorType == Operator.OperatorType.PREFIX)
-                .findFirst()
-                .orElse(null);
+    public static int getMaxPrecedence() {
+        return OPERATORS.stream().mapToInt(operator -> operator.precedence).max().orElse(0);
     }
 
-    private Node reduceTree(UnparsedNode tree) {
-        for (int precedence = getMaxPrecedence(); precedence >= 0; precedence--) {
-            int i = 0;
-            while (i < tree.nodes.size()) {
-                Node node = tree.nodes.get(i);
-                if (node instanceof OperatorNode) {
-                    OperatorNode operatorNode = (OperatorNode) node;
-                    if (operatorNode.operator.precedence == precedence) {
-                        if (operatorNode.operator.operatorType == Operator.OperatorType.INFIX) {
-                            Node left = i > 0 ? tree.nodes.remove(i - 1) : null;
-                            Node right = tree.nodes.remove(i);
-                            FunctionNode functionNode = new FunctionNode(operatorNode.operator.functionName, Arrays.asList(left, right));
-                            tree.nodes.set(i - 1, functionNode);
-                            continue;
-                        } else if (operatorNode.operator.operatorType == Operator.OperatorType.PREFIX) {
-                            Node operand = tree.nodes.remove(i + 1);
-                            FunctionNode functionNode = new FunctionNode(operatorNode.operator.functionName, Collections.singletonList(operand));
-                            tree.nodes.set(i, functionNode);
-                        }
-                    }
-                } else if (node instanceof UnparsedNode) {
-                    tree.nodes.set(i, reduceTree((UnparsedNode) node));
-                }
-                i++;
+    private boolean isFunction() {
+        for (MathFunction function : FUNCTIONS) {
+            if (tokens.textEquals(function.functionName)) {
+                return true;
             }
         }
-        return tree.nodes.size() == 1 ? tree.nodes.get(0) : new FunctionNode("List", tree.nodes);
+        return false;
     }
 
-    private static boolean isOperator(String token) {
-        return OPERATORS.stream().anyMatch(op -> op.functionName.equals(token) || op.operatorCharacter.equals(token));
+    public Operator getOperatorByFunctionName(String functionName) {
+        for (Operator operator : OPERATORS) {
+            if (operator.functionName.equals(functionName)) {
+                return operator;
+            }
+        }
+        return null;
     }
 
-    private boolean isOperand(String token) {
-        return token.matches("-?\\d+(\\.\\d+)?");
-    }
+    /**
+     * The expressions inside one pair of parentheses, or at the top level. Expressions written next to each other
+     * without an operator become the items of a {@code List}, or the arguments of a function call.
+     */
+    private static class Group {
+        private final String functionName;
+        private final List<Node> items = new ArrayList<>();
+        private final List<Node> operands = new ArrayList<>();
+        private final List<Operator> operators = new ArrayList<>();
 
-    private boolean isVariable(String token) {
-        return token.matches("[a-zA-Z]+\\d*");
-    }
+        Group(String functionName) {
+            this.functionName = functionName;
+        }
 
-    private boolean isFunction(String token) {
-        return FUNCTIONS.contains(token);
-    }
+        /**
+         * Applies the stacked operators that bind tighter than the incoming infix operator.
+         */
+        void reduce(Operator incoming) {
+            while (!operators.isEmpty()) {
+                Operator top = operators.get(operators.size() - 1);
+                if (top.precedence < incoming.precedence
+                        || (top.precedence == incoming.precedence && incoming.associativity == Operator.Associativity.RIGHT)) {
+                    return;
+                }
+                apply(operators.remove(operators.size() - 1));
+            }
+        }
 
-    private Node createNode(String token) {
-        if (isOperand(token)) {
-            if (token.contains(".")) {
-                return new RealNode(new BigDecimal(token));
+        private void apply(Operator operator) {
+            if (operands.size() < (operator.operatorType == Operator.OperatorType.PREFIX ? 1 : 2)) {
+                throw new IllegalStateException("Missing operand for " + operator.operatorCharacter);
+            }
+            Node right = build(operands.remove(operands.size() - 1));
+            if (operator.operatorType == Operator.OperatorType.PREFIX) {
+                operands.add(new FunctionNode(operator.functionName, Collections.singletonList(right)));
+                return;
+            }
+            Node left = operands.remove(operands.size() - 1);
+            if (operator.associativity != Operator.Associativity.BOTH) {
+                operands.add(new FunctionNode(operator.functionName, Arrays.asList(build(left), right)));
+            } else if (left instanceof Chain && ((Chain) left).operator == operator) {
+                ((Chain) left).arguments.add(right);
+                operands.add(left);
             } else {
-                return new IntegerNode(Integer.parseInt(token));
+                operands.add(new Chain(operator, build(left), right));
             }
-        } else if (isVariable(token)) {
-            return new VariableNode(token);
-        } else {
-            throw new IllegalStateException("Unknown token type: " + token);
         }
-    }
 
-    public Operator getOperatorByFunctionName(String functionName) {
-        for (Operator operator : OPERATORS) {
-            if (operator.functionName.equals(functionName)) {
-                return operator;
+        void completeItem() {
+            while (!operators.isEmpty()) {
+                apply(operators.remove(operators.size() - 1));
             }
+            items.add(build(operands.remove(operands.size() - 1)));
         }
-        return null;
-    }
 
-    public class UnparsedNode extends Node {
-        public List<Node> nodes = new ArrayList<>();
-        public UnparsedNode() {
+        Node complete(boolean operandExpected) {
+            if (operandExpected && !operators.isEmpty()) {
+                throw new IllegalStateException("Missing operand for " + operators.get(operators.size() - 1).operatorCharacter);
+            }
+            if (!operands.isEmpty()) {
+                completeItem();
+            }
+            if (functionName != null) {
+                return new FunctionNode(functionName, items);
+            }
+            return items.size() == 1 ? items.get(0) : new FunctionNode("List", items);
         }
-        UnparsedNode(List<Node> nodes) {
-            this.nodes.addAll(nodes);
+
+        private static Node build(Node operand) {
+            return operand instanceof Chain ? ((Chain) operand).complete() : operand;
         }
     }
 
-    public class OperatorNode extends Node {
+    /**
+     * An n-ary node that may still get more arguments. It is turned into a {@link FunctionNode} once it becomes the
+     * operand of another operator, since a function node's arguments cannot change after it is constructed.
+     */
+    private static class Chain extends Node {
         private final Operator operator;
+        private final List<Node> arguments = new ArrayList<>();
 
-        public OperatorNode(Operator operator) {
+        Chain(Operator operator, Node left, Node right) {
             this.operator = operator;
+            arguments.add(left);
+            arguments.add(right);
         }
 
-        @Override
-        public String toString() {
-            return "OperatorNode{operator=" + operator + '}';
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
-            }
-            OperatorNode other = (OperatorNode) obj;
-            return Objects.equals(operator, other.operator);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(operator);
+        FunctionNode complete() {
+            return new FunctionNode(operator.functionName, arguments);
         }
     }
-}
\ No newline at end of file
+}
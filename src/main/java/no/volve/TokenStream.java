@@ -0,0 +1,256 @@
+package no.volve;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Cursor over the tokens of an infix expression, without creating an object per token.
+ * <p>
+ * Each call to {@link #next()} advances to the next token and returns its kind; the token itself is described by
+ * offsets into {@link #source()}. Numbers are converted directly from the characters, so a whole expression can be
+ * tokenized without allocating, and only the nodes built from the tokens allocate.
+ * <p>
+ * A stream reads either the characters of an expression, splitting them into tokens by the rules of
+ * {@link StandardMathTokenizer}, or a list of tokens already split.
+ */
+public final class TokenStream {
+    public static final int END = 0;
+    /** An integer or decimal literal, optionally signed when read from a token list. */
+    public static final int NUMBER = 1;
+    /** Letters optionally followed by digits. */
+    public static final int IDENTIFIER = 2;
+    /** One of {@code + - * / ^}. */
+    public static final int OPERATOR = 3;
+    public static final int LEFT_PARENTHESIS = 4;
+    public static final int RIGHT_PARENTHESIS = 5;
+    /** A run of characters that looks like a number or identifier but is not a valid one, such as {@code 1.2.3}. */
+    public static final int INVALID = 6;
+
+    private final CharSequence input;
+    private final List<String> tokens;
+    private int position;
+    private CharSequence source;
+    private int kind = END;
+    private int start;
+    private int end;
+
+    public TokenStream(CharSequence input) {
+        this.input = input;
+        this.tokens = null;
+        this.source = input;
+    }
+
+    public TokenStream(List<String> tokens) {
+        this.input = null;
+        this.tokens = tokens;
+        this.source = "";
+    }
+
+    /**
+     * Rewinds the stream to its first token.
+     */
+    public void reset() {
+        position = 0;
+        source = input != null ? input : "";
+        kind = END;
+        start = 0;
+        end = 0;
+    }
+
+    /**
+     * Advances to the next token and returns its kind, or {@link #END} when there are no more tokens.
+     *
+     * @throws IllegalArgumentException if the input contains a character that starts no token
+     */
+    public int next() {
+        if (tokens != null) {
+            if (position >= tokens.size()) {
+                return kind = END;
+            }
+            source = tokens.get(position++);
+            start = 0;
+            end = source.length();
+            return kind = classify(source, 0, end);
+        }
+
+        while (position < input.length() && input.charAt(position) == ' ') {
+            position++;
+        }
+        if (position >= input.length()) {
+            start = end = position;
+            return kind = END;
+        }
+
+        start = position;
+        char c = input.charAt(position);
+        if (Character.isDigit(c)) {
+            while (position < input.length() && (Character.isDigit(input.charAt(position)) || input.charAt(position) == '.')) {
+                position++;
+            }
+        } else if (Character.isLetter(c)) {
+            while (position < input.length() && Character.isLetterOrDigit(input.charAt(position))) {
+                position++;
+            }
+        } else if (isOperatorCharacter(c) || c == '(' || c == ')') {
+            position++;
+        } else {
+            throw new IllegalArgumentException("Unexpected character: " + c);
+        }
+        end = position;
+        return kind = classify(input, start, end);
+    }
+
+    public int kind() {
+        return kind;
+    }
+
+    /**
+     * Returns the characters the current token's offsets refer to.
+     */
+    public CharSequence source() {
+        return source;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    /**
+     * Returns the first character of the current token, which for operators and parentheses is the whole token.
+     */
+    public char firstChar() {
+        return source.charAt(start);
+    }
+
+    public String text() {
+        return source.subSequence(start, end).toString();
+    }
+
+    public boolean textEquals(String text) {
+        if (text.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (source.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current {@link #NUMBER} token as an {@link IntegerNode}, or a {@link RealNode} if it has a decimal
+     * point. Values with up to 18 digits are accumulated in a {@code long} without creating a string.
+     */
+    Node number() {
+        int i = start;
+        boolean negative = source.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '.') {
+                scale = 0;
+                continue;
+            }
+            unscaled = unscaled * 10 + (c - '0');
+            digits++;
+            if (scale >= 0) {
+                scale++;
+            }
+        }
+        if (digits > 18) {
+            return scale < 0 ? IntegerNode.parse(source.subSequence(start, end)) : new RealNode(new BigDecimal(text()));
+        }
+        if (negative) {
+            unscaled = -unscaled;
+        }
+        return scale < 0 ? new IntegerNode(unscaled) : new RealNode(BigDecimal.valueOf(unscaled, scale));
+    }
+
+    static boolean isOperatorCharacter(char c) {
+        return c == '+' || c == '-' || c == '*' || c == '/' || c == '^';
+    }
+
+    private static int classify(CharSequence s, int start, int end) {
+        if (end - start == 1) {
+            char c = s.charAt(start);
+            if (isOperatorCharacter(c)) {
+                return OPERATOR;
+            } else if (c == '(') {
+                return LEFT_PARENTHESIS;
+            } else if (c == ')') {
+                return RIGHT_PARENTHESIS;
+            }
+        }
+        if (isNumber(s, start, end)) {
+            return NUMBER;
+        } else if (isIdentifier(s, start, end)) {
+            return IDENTIFIER;
+        }
+        return INVALID;
+    }
+
+    /**
+     * Checks for {@code -?\d+(\.\d+)?}.
+     */
+    private static boolean isNumber(CharSequence s, int start, int end) {
+        int i = start;
+        if (i < end && s.charAt(i) == '-') {
+            i++;
+        }
+        int integerDigits = 0;
+        while (i < end && isAsciiDigit(s.charAt(i))) {
+            i++;
+            integerDigits++;
+        }
+        if (integerDigits == 0) {
+            return false;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            int fractionDigits = 0;
+            while (i < end && isAsciiDigit(s.charAt(i))) {
+                i++;
+                fractionDigits++;
+            }
+            if (fractionDigits == 0) {
+                return false;
+            }
+        }
+        return i == end;
+    }
+
+    /**
+     * Checks for {@code [a-zA-Z]+\d*}.
+     */
+    private static boolean isIdentifier(CharSequence s, int start, int end) {
+        int i = start;
+        while (i < end && isAsciiLetter(s.charAt(i))) {
+            i++;
+        }
+        if (i == start) {
+            return false;
+        }
+        while (i < end && isAsciiDigit(s.charAt(i))) {
+            i++;
+        }
+        return i == end;
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -23,7 +23,7 @@ class VariableNode extends Node {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return Objects.hashCode(name);
     }
 
     @Override
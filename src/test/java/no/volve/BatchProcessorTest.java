@@ -0,0 +1,61 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchProcessorTest {
+
+    private String run(BatchProcessor processor, String input, BatchProcessor.Summary[] summary) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        summary[0] = processor.run(new BufferedReader(new StringReader(input)), Channels.newChannel(output));
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testResultsInInputOrder() throws Exception {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            input.append(i).append(" + ").append(i).append('\n');
+            expected.append(2 * i).append('\n');
+        }
+        BatchProcessor.Summary[] summary = new BatchProcessor.Summary[1];
+
+        // A small queue makes the reader wait for the writer
+        String output = run(new BatchProcessor(4, 8), input.toString(), summary);
+
+        assertEquals(expected.toString(), output);
+        assertEquals(5000, summary[0].expressions);
+        assertEquals(0, summary[0].errors);
+    }
+
+    @Test
+    void testErrorsAndBlankLines() throws Exception {
+        BatchProcessor.Summary[] summary = new BatchProcessor.Summary[1];
+
+        String output = run(new BatchProcessor(2), "x + x\n\n1 $ 2\n2 * 3\n", summary);
+
+        assertEquals("2 * x\n\nError: Unexpected character: $\n6\n", output);
+        assertEquals(4, summary[0].expressions);
+        assertEquals(1, summary[0].errors);
+    }
+
+    @Test
+    void testLatencyPercentiles() {
+        BatchProcessor.LatencyHistogram histogram = new BatchProcessor.LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(500_000, histogram.percentile(50), 500_000 * 0.07);
+        assertEquals(990_000, histogram.percentile(99), 990_000 * 0.07);
+        assertEquals(1_000_000, histogram.max());
+    }
+}
@@ -0,0 +1,54 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BindingFrameTest {
+
+    @Test
+    void testUndoToMark() {
+        BindingFrame frame = new BindingFrame();
+        frame.bind("x", new IntegerNode(1));
+        int mark = frame.mark();
+        frame.bind("y", new IntegerNode(2));
+        frame.bind("x", new IntegerNode(3));
+
+        assertEquals(new IntegerNode(3), frame.get("x"));
+        frame.undo(mark);
+        assertEquals(new IntegerNode(1), frame.get("x"));
+        assertFalse(frame.isBound("y"));
+        assertNull(frame.get("y"));
+    }
+
+    @Test
+    void testGrowsBeyondInitialCapacity() {
+        BindingFrame frame = new BindingFrame();
+        for (int i = 0; i < 100; i++) {
+            frame.bind("v" + i, new IntegerNode(i));
+        }
+
+        assertEquals(new IntegerNode(42), frame.get("v42"));
+        assertEquals(100, frame.toMap(0).size());
+        frame.undo(0);
+        assertTrue(frame.toMap(0).isEmpty());
+    }
+
+    @Test
+    void testSequenceIsBuiltFromRange() {
+        BindingFrame frame = new BindingFrame();
+        FunctionNode function = new FunctionNode("f", List.of(new VariableNode("a"), new VariableNode("b"), new VariableNode("c")));
+        frame.bind("x", new VariableNode("a"));
+        int mark = frame.mark();
+        frame.bindSequence("rest", function, 1);
+
+        Map<String, Node> bindings = frame.toMap(mark);
+
+        assertEquals(Map.of("rest", new FunctionNode("Sequence", List.of(new VariableNode("b"), new VariableNode("c")))), bindings);
+        frame.undo(0);
+        assertEquals(1, bindings.size());
+    }
+}
@@ -0,0 +1,114 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnEvaluatorTest {
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    private Map<String, double[]> columns(int rows) {
+        double[] x = new double[rows];
+        double[] y = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            x[i] = i * 0.001;
+            y[i] = 1 + (i % 7);
+        }
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", x);
+        columns.put("y", y);
+        return columns;
+    }
+
+    @Test
+    void testMatchesCompiledFunction() {
+        Node expression = parse("Plus[Times[3, Power[x, 2]], Divide[sin[x], y], Minus[exp[Subtract[x, y]]], 0.5`]");
+        Map<String, double[]> columns = columns(ColumnEvaluator.BLOCK_SIZE * 3 + 17);
+        CompiledFunction f = ExpressionCompiler.compile(expression, List.of("x", "y"));
+
+        double[] result = ColumnEvaluator.evaluate(expression, columns, null);
+
+        for (int i = 0; i < result.length; i++) {
+            assertEquals(f.apply(new double[]{columns.get("x")[i], columns.get("y")[i]}), result[i], 1e-12);
+        }
+    }
+
+    @Test
+    void testFunctions() {
+        Node expression = parse("Plus[sin[x], cos[x], tan[x], log[y], exp[x], Minus[y]]");
+        Map<String, double[]> columns = columns(ColumnEvaluator.BLOCK_SIZE + 1);
+
+        double[] result = ColumnEvaluator.evaluate(expression, columns, null);
+
+        for (int i = 0; i < result.length; i++) {
+            double x = columns.get("x")[i];
+            double y = columns.get("y")[i];
+            assertEquals(Math.sin(x) + Math.cos(x) + Math.tan(x) + Math.log(y) + Math.exp(x) - y, result[i], 1e-12);
+        }
+    }
+
+    @Test
+    void testParallelMatchesSequential() {
+        Node expression = parse("Times[log[Plus[1, x]], cos[y], Power[y, 3]]");
+        Map<String, double[]> columns = columns(ColumnEvaluator.PARALLEL_THRESHOLD * 4 + 5);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertArrayEquals(ColumnEvaluator.evaluate(expression, columns, null),
+                    ColumnEvaluator.evaluate(expression, columns, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testRegistersAreReused() {
+        StringBuilder wide = new StringBuilder("Plus[");
+        for (int i = 0; i < 10000; i++) {
+            wide.append(i > 0 ? ", " : "").append("Times[").append(i).append(", x, sin[y]]");
+        }
+        Node expression = parse(wide.append("]").toString());
+        Map<String, double[]> columns = columns(ColumnEvaluator.BLOCK_SIZE + 3);
+
+        // The sum, one product at a time, and one sine at a time
+        assertEquals(3, new ColumnEvaluator(expression, columns).registerCount);
+        assertEquals(0, new ColumnEvaluator(parse("x"), columns).registerCount);
+        assertEquals(3, new ColumnEvaluator(parse("Subtract[Minus[x], Divide[y, 2]]"), columns).registerCount);
+
+        double[] result = ColumnEvaluator.evaluate(expression, columns, null);
+        double[] x = columns.get("x");
+        double[] y = columns.get("y");
+        for (int i = 0; i < result.length; i += 97) {
+            assertEquals(49995000 * x[i] * Math.sin(y[i]), result[i], 1e-6 * Math.abs(result[i]) + 1e-9);
+        }
+        assertArrayEquals(x, ColumnEvaluator.evaluate(parse("x"), columns, null));
+    }
+
+    @Test
+    void testEvaluateSymbolicResult() {
+        StandardEvaluator evaluator = new StandardEvaluator();
+        Node result = evaluator.evaluate(parse("Times[Plus[x, Times[2, 3]], y, y]"));
+
+        double[] values = evaluator.evaluateColumns(result, columns(10));
+
+        assertEquals((0.009 + 6) * 3 * 3, values[9], 1e-12);
+    }
+
+    @Test
+    void testInvalidColumns() {
+        Map<String, double[]> columns = columns(10);
+        columns.put("z", new double[5]);
+        assertThrows(IllegalArgumentException.class, () -> ColumnEvaluator.evaluate(parse("Plus[x, z]"), columns, null));
+        assertThrows(IllegalArgumentException.class, () -> ColumnEvaluator.evaluate(parse("w"), columns(10), null));
+        assertThrows(IllegalArgumentException.class, () -> ColumnEvaluator.evaluate(parse("1"), new HashMap<>(), null));
+        assertThrows(IllegalArgumentException.class, () -> ColumnEvaluator.evaluate(parse("sqrt[x]"), columns(10), null));
+    }
+}
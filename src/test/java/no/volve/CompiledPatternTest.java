@@ -0,0 +1,64 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CompiledPatternTest {
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    private void assertSameAsInterpreted(String patternInput, String candidateInput) {
+        Node pattern = parse(patternInput);
+        Node candidate = parse(candidateInput);
+
+        Map<String, Node> expectedBindings = new HashMap<>();
+        boolean expected = new PatternMatcher().match(pattern, candidate, expectedBindings);
+
+        CompiledPattern compiledPattern = CompiledPattern.compile(pattern);
+        Node[] slots = compiledPattern.newSlots();
+        boolean actual = compiledPattern.match(candidate, slots);
+
+        assertEquals(expected, actual, patternInput + " against " + candidateInput);
+        if (expected) {
+            assertEquals(expectedBindings, compiledPattern.bindings(slots), patternInput + " against " + candidateInput);
+        }
+    }
+
+    @Test
+    void testLiterals() {
+        assertSameAsInterpreted("42", "42");
+        assertSameAsInterpreted("42", "24");
+        assertSameAsInterpreted("x", "x");
+        assertSameAsInterpreted("x", "y");
+        assertSameAsInterpreted("Plus[x, y]", "Plus[x, y]");
+        assertSameAsInterpreted("Plus[x, y]", "Plus[y, x]");
+        assertSameAsInterpreted("Plus[x, y]", "Plus[x, y, z]");
+    }
+
+    @Test
+    void testBlanks() {
+        assertSameAsInterpreted("Blank[]", "x");
+        assertSameAsInterpreted("Plus[Blank[x], Blank[x]]", "Plus[z, z]");
+        assertSameAsInterpreted("Plus[Blank[x], Blank[x]]", "Plus[x, y]");
+        assertSameAsInterpreted("Plus[Blank[x], Times[-1, Blank[x]]]", "Plus[a, Times[-1, a]]");
+        assertSameAsInterpreted("Plus[Blank[x], Blank[y]]", "Plus[f[a], 2]");
+    }
+
+    @Test
+    void testSequences() {
+        assertSameAsInterpreted("Function[BlankSequence[x]]", "Function[x, y, x]");
+        assertSameAsInterpreted("Function[BlankSequence[x]]", "Function[]");
+        assertSameAsInterpreted("Function[BlankNullSequence[x]]", "Function[]");
+        assertSameAsInterpreted("Plus[BlankSequence[]]", "Plus[1, 2, 3]");
+        assertSameAsInterpreted("f[BlankSequence[], Blank[y], 1]", "f[a, b, c, 1]");
+        assertSameAsInterpreted("f[BlankSequence[], Blank[y], Blank[y]]", "f[a, b, c, c]");
+        assertSameAsInterpreted("f[BlankNullSequence[], Blank[y], Blank[y]]", "f[a, b]");
+    }
+}
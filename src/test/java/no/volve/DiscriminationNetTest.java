@@ -0,0 +1,120 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DiscriminationNetTest {
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    private List<Rule> rules(String... patterns) {
+        List<Rule> rules = new ArrayList<>();
+        for (String pattern : patterns) {
+            rules.add(new Rule(parse(pattern), parse("0")));
+        }
+        return rules;
+    }
+
+    private void assertSameAsInterpreted(List<Rule> rules, String candidateInput) {
+        Node candidate = parse(candidateInput);
+        PatternMatcher patternMatcher = new PatternMatcher();
+        List<Rule> expectedRules = new ArrayList<>();
+        List<Map<String, Node>> expectedBindings = new ArrayList<>();
+        for (Rule rule : rules) {
+            Map<String, Node> bindings = new HashMap<>();
+            if (patternMatcher.match(rule.pattern, candidate, bindings)) {
+                expectedRules.add(rule);
+                expectedBindings.add(bindings);
+            }
+        }
+
+        List<Rule> actualRules = new ArrayList<>();
+        List<Map<String, Node>> actualBindings = new ArrayList<>();
+        for (DiscriminationNet.Match match : new DiscriminationNet(rules).match(candidate)) {
+            actualRules.add(match.rule);
+            actualBindings.add(match.bindings);
+        }
+
+        assertEquals(expectedRules, actualRules, candidateInput);
+        assertEquals(expectedBindings, actualBindings, candidateInput);
+    }
+
+    @Test
+    void testSharedPrefixes() {
+        List<Rule> rules = rules(
+                "Plus[Blank[x], Blank[y]]",
+                "Plus[BlankSequence[]]",
+                "Plus[0, Blank[x]]",
+                "Plus[Blank[x], Blank[x]]",
+                "Plus[Blank[x], Times[-1, Blank[x]]]",
+                "Plus[BlankSequence[]]");
+        assertSameAsInterpreted(rules, "Plus[1, 2]");
+        assertSameAsInterpreted(rules, "Plus[0, x]");
+        assertSameAsInterpreted(rules, "Plus[x, x]");
+        assertSameAsInterpreted(rules, "Plus[x, Times[-1, x]]");
+        assertSameAsInterpreted(rules, "Plus[x, Times[-1, y]]");
+        assertSameAsInterpreted(rules, "Plus[x, y, z]");
+        assertSameAsInterpreted(rules, "Plus[]");
+        assertSameAsInterpreted(rules, "Times[x, y]");
+        assertSameAsInterpreted(rules, "x");
+    }
+
+    @Test
+    void testSequenceBindings() {
+        List<Rule> rules = rules(
+                "f[Blank[x], BlankSequence[rest]]",
+                "f[BlankNullSequence[all]]",
+                "f[Blank[x], BlankNullSequence[x]]");
+        assertSameAsInterpreted(rules, "f[]");
+        assertSameAsInterpreted(rules, "f[a]");
+        assertSameAsInterpreted(rules, "f[a, b, c]");
+    }
+
+    @Test
+    void testUnsupportedPatternsFallBack() {
+        List<Rule> rules = rules(
+                "f[BlankSequence[x], Blank[y]]",
+                "f[Blank[x], Blank[y]]",
+                "Blank[x]");
+        assertSameAsInterpreted(rules, "f[a, b]");
+        assertSameAsInterpreted(rules, "f[a, b, c]");
+        assertSameAsInterpreted(rules, "a");
+    }
+
+    @Test
+    void testNetWithoutPaths() {
+        assertSameAsInterpreted(rules(), "f[a]");
+        assertSameAsInterpreted(rules("f[BlankSequence[x], Blank[y]]"), "f[a, b]");
+    }
+
+    @Test
+    void testEvaluatorCrossCheck() {
+        StandardEvaluator interpreted = new StandardEvaluator();
+        interpreted.setMatchingMode(EvaluationEngine.MatchingMode.INTERPRETED);
+        StandardEvaluator compiled = new StandardEvaluator();
+        compiled.setMatchingMode(EvaluationEngine.MatchingMode.DISCRIMINATION_NET);
+        StandardEvaluator compiledPatterns = new StandardEvaluator();
+        compiledPatterns.setMatchingMode(EvaluationEngine.MatchingMode.COMPILED);
+
+        String[] inputs = {
+                "Plus[Times[2, Plus[1, 1]], Times[3, 4]]",
+                "Plus[x, y, Minus[x]]",
+                "Plus[x, Times[2, x]]",
+                "Times[-1, Times[-1, x]]",
+                "Subtract[Power[x, 1], Times[x, 1]]",
+                "Plus[2, x, f[x], 1.5, y, 1]",
+                "Plus[a, 1, b, Minus[c], 2, c]",
+                "Times[2, x, 3, x, y]"
+        };
+        for (String input : inputs) {
+            assertEquals(interpreted.evaluate(parse(input)), compiled.evaluate(parse(input)), input);
+            assertEquals(interpreted.evaluate(parse(input)), compiledPatterns.evaluate(parse(input)), input);
+        }
+    }
+}
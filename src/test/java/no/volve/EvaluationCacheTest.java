@@ -0,0 +1,89 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.MathContext;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationCacheTest {
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    @Test
+    void testRepeatedEvaluationHitsCache() {
+        EvaluationCache cache = new EvaluationCache(1024);
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setEvaluationCache(cache);
+
+        Node first = evaluator.evaluate(parse("Plus[Times[2, Plus[1, 1]], Times[3, 4]]"));
+        long misses = cache.stats().misses;
+        Node second = evaluator.evaluate(parse("Plus[Times[2, Plus[1, 1]], Times[3, 4]]"));
+
+        assertEquals(parse("16"), first);
+        assertSame(first, second);
+        assertEquals(1, cache.stats().hits);
+        assertEquals(misses, cache.stats().misses);
+    }
+
+    @Test
+    void testSubtreesAreCached() {
+        EvaluationCache cache = new EvaluationCache(1024);
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setEvaluationCache(cache);
+
+        evaluator.evaluate(parse("f[Plus[x, Times[2, x]]]"));
+        Node result = evaluator.evaluate(parse("g[Plus[x, Times[2, x]], y]"));
+
+        assertEquals(parse("g[Times[3, x], y]"), result);
+        assertEquals(1, cache.stats().hits);
+    }
+
+    @Test
+    void testEnginesOnOneRuleSetShareEntries() {
+        EvaluationCache cache = new EvaluationCache(1024);
+        StandardEvaluator first = new StandardEvaluator();
+        StandardEvaluator second = new StandardEvaluator();
+        first.setEvaluationCache(cache);
+        second.setEvaluationCache(cache);
+
+        Node result = first.evaluate(parse("Plus[1, 2]"));
+
+        assertSame(result, second.evaluate(parse("Plus[1, 2]")));
+        assertEquals(1, cache.stats().hits);
+        assertEquals(1, cache.stats().size);
+    }
+
+    @Test
+    void testSeparateRuleSetsDoNotShareEntries() {
+        EvaluationCache cache = new EvaluationCache(1024);
+        StandardEvaluator exact = new StandardEvaluator();
+        StandardEvaluator bounded = new StandardEvaluator(new MathContext(5));
+        exact.setEvaluationCache(cache);
+        bounded.setEvaluationCache(cache);
+
+        exact.evaluate(parse("Plus[1, 2]"));
+        bounded.evaluate(parse("Plus[1, 2]"));
+
+        assertEquals(0, cache.stats().hits);
+        assertEquals(2, cache.stats().size);
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        EvaluationCache cache = new EvaluationCache(32);
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setEvaluationCache(cache);
+
+        for (int i = 0; i < 1000; i++) {
+            evaluator.evaluate(parse("f[" + i + "]"));
+        }
+
+        EvaluationCache.Stats stats = cache.stats();
+        assertTrue(stats.size <= 32, stats.toString());
+        assertEquals(1000 - stats.size, stats.evictions);
+    }
+}
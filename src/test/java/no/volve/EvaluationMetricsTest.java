@@ -0,0 +1,110 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationMetricsTest {
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    private EvaluationMetrics.RuleStatistics statistics(EvaluationMetrics metrics, String pattern) {
+        return metrics.snapshot().rules.stream()
+                .filter(rule -> rule.getPattern().equals(pattern))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    void testRuleCountersInEveryMode() {
+        for (EvaluationEngine.MatchingMode mode : EvaluationEngine.MatchingMode.values()) {
+            StandardEvaluator evaluator = new StandardEvaluator();
+            evaluator.setMatchingMode(mode);
+            evaluator.setMetricsEnabled(true);
+
+            evaluator.evaluate(parse("f[Times[y, y], Plus[1, 2]]"));
+
+            EvaluationMetrics metrics = evaluator.getMetrics();
+            EvaluationMetrics.RuleStatistics square = statistics(metrics, "Times[Blank[x], Blank[x]]");
+            assertEquals(1, square.getFires(), mode.name());
+            assertTrue(square.getAttempts() >= square.getMatches());
+            assertTrue(square.getNanos() > 0);
+            assertEquals(1, statistics(metrics, "Plus[Blank[x], Blank[y]]").getFires(), mode.name());
+
+            // Numeric multiplication matches Times[y, y] as well, but bails out on the symbols
+            EvaluationMetrics.RuleStatistics multiply = statistics(metrics, "Times[Blank[x], Blank[y]]");
+            assertEquals(1, multiply.getRejections(), mode.name());
+            assertEquals(0, multiply.getFires(), mode.name());
+
+            assertTrue(metrics.getPasses() > 0);
+            assertTrue(metrics.getNodeAllocations() > 0);
+        }
+    }
+
+    @Test
+    void testRejectedCandidatesCountAsAttemptsInEveryMode() {
+        List<Rule> rules = Arrays.asList(
+                new Rule(parse("g[Blank[x], Blank[x]]"), parse("x")),
+                new Rule(parse("h[Blank[x], Blank[y], Blank[x]]"), parse("x")));
+        for (EvaluationEngine.MatchingMode mode : EvaluationEngine.MatchingMode.values()) {
+            EvaluationEngine engine = new EvaluationEngine(new PatternMatcher(), rules, Collections.emptyMap());
+            engine.setMatchingMode(mode);
+            engine.setMetricsEnabled(true);
+
+            // Each reaches the end of its path in the net, but binds x to different symbols
+            engine.evaluate(parse("g[a, b]"));
+            engine.evaluate(parse("h[a, b, c]"));
+
+            for (EvaluationMetrics.RuleStatistics rule : engine.getMetrics().snapshot().rules) {
+                assertEquals(1, rule.getAttempts(), mode.name() + " " + rule.getPattern());
+                assertEquals(0, rule.getMatches(), mode.name() + " " + rule.getPattern());
+            }
+        }
+    }
+
+    @Test
+    void testDisabledMetricsStayZero() {
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.evaluate(parse("Plus[x, x]"));
+
+        EvaluationMetrics.Snapshot snapshot = evaluator.getMetrics().snapshot();
+        assertEquals(0, snapshot.passes);
+        assertEquals(0, snapshot.nodeAllocations);
+        assertTrue(snapshot.rules.stream().allMatch(rule -> rule.getAttempts() == 0));
+
+        evaluator.setMetricsEnabled(true);
+        evaluator.evaluate(parse("Plus[z, z]"));
+        evaluator.getMetrics().reset();
+        assertEquals(0, evaluator.getMetrics().getPasses());
+    }
+
+    @Test
+    void testMBean() throws Exception {
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setMetricsEnabled(true);
+        evaluator.evaluate(parse("Plus[1, 2]"));
+
+        ObjectName name = evaluator.getMetrics().registerMBean("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(evaluator.getMetrics().getPasses(), server.getAttribute(name, "Passes"));
+            CompositeData[] rules = (CompositeData[]) server.getAttribute(name, "Rules");
+            assertEquals(evaluator.getMetrics().snapshot().rules.size(), rules.length);
+            assertEquals("Plus[Blank[x], Blank[y]]", rules[0].get("pattern"));
+            assertEquals(1L, rules[0].get("fires"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
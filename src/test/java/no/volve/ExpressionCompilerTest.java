@@ -0,0 +1,102 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCompilerTest {
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    @Test
+    void testArithmetic() {
+        CompiledFunction f = ExpressionCompiler.compile(
+                parse("Plus[Times[3, Power[x, 2]], Minus[Divide[y, 4]], Subtract[x, 1.5], 7]"), List.of("x", "y"));
+
+        assertEquals(3 * 4 - 10 / 4.0 + (2 - 1.5) + 7, f.apply(new double[]{2, 10}), 1e-12);
+        assertEquals(3 * 0.25 - 1 / 4.0 + (-0.5 - 1.5) + 7, f.apply(new double[]{-0.5, 1}), 1e-12);
+    }
+
+    @Test
+    void testFunctions() {
+        CompiledFunction f = ExpressionCompiler.compile(
+                parse("Plus[sin[x], cos[x], tan[x], log[x], exp[x]]"), List.of("x"));
+
+        double x = 0.7;
+        assertEquals(Math.sin(x) + Math.cos(x) + Math.tan(x) + Math.log(x) + Math.exp(x), f.apply(new double[]{x}), 1e-12);
+    }
+
+    @Test
+    void testParsedInfixExpression() {
+        Node expression = new StandardMathParser(new StandardMathTokenizer("2*x+sin(y)").tokenize()).parse();
+        CompiledFunction f = ExpressionCompiler.compile(expression, List.of("y", "x"));
+
+        assertEquals(2 * 3 + Math.sin(1), f.apply(new double[]{1, 3}), 1e-12);
+    }
+
+    @Test
+    void testManyVariables() {
+        List<String> variables = new ArrayList<>();
+        List<Node> terms = new ArrayList<>();
+        double[] arguments = new double[300];
+        for (int i = 0; i < arguments.length; i++) {
+            variables.add("x" + i);
+            terms.add(new VariableNode("x" + i));
+            arguments[i] = i;
+        }
+        CompiledFunction f = ExpressionCompiler.compile(new FunctionNode("Plus", terms), variables);
+
+        assertEquals(299 * 300 / 2.0, f.apply(arguments));
+    }
+
+    @Test
+    void testOversizedExpressionIsInterpreted() {
+        List<Node> terms = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            terms.add(new FunctionNode("Times", List.of(new IntegerNode(2), new VariableNode("x"))));
+        }
+        CompiledFunction f = ExpressionCompiler.compile(new FunctionNode("Plus", terms), List.of("x"));
+
+        assertEquals(20000.0, f.apply(new double[]{0.5}));
+    }
+
+    @Test
+    void testMatchesInterpretation() {
+        Node expression = parse("Divide[Plus[Power[x, 3], Times[-2, x, y]], Plus[1, Power[y, 2]]]");
+        Map<String, Integer> slots = new HashMap<>();
+        slots.put("x", 0);
+        slots.put("y", 1);
+        CompiledFunction compiled = ExpressionCompiler.compile(expression, List.of("x", "y"));
+        CompiledFunction interpreted = ExpressionCompiler.interpret(expression, slots);
+
+        for (double x = -2; x <= 2; x += 0.25) {
+            double[] arguments = {x, 1 - x};
+            assertEquals(interpreted.apply(arguments), compiled.apply(arguments));
+        }
+    }
+
+    @Test
+    void testUnsupportedExpressions() {
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile(parse("f[x]"), List.of("x")));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile(parse("Plus[x, z]"), List.of("x")));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.compile(parse("Power[x]"), List.of("x")));
+        // Interpretation is not preceded by validation, and must not fall back to some other function
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCompiler.interpret(parse("sqrt[x]"), Map.of("x", 0)));
+    }
+
+    @Test
+    void testInterpretedFunctions() {
+        CompiledFunction f = ExpressionCompiler.interpret(parse("Plus[sin[x], cos[x], tan[x], log[x], exp[x]]"), Map.of("x", 0));
+
+        double x = 0.7;
+        assertEquals(Math.sin(x) + Math.cos(x) + Math.tan(x) + Math.log(x) + Math.exp(x), f.apply(new double[]{x}), 1e-12);
+    }
+}
@@ -2,8 +2,16 @@ package no.volve;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.math.BigDecimal;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -132,4 +140,128 @@ public class MathematicaParserTest {
         Node actual = new FunctionNode("Plus", Arrays.asList(new VariableNode("x"), new VariableNode("y"), new VariableNode("z")));
         assertEquals(expected, actual);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testParseBigInteger() {
+        Node ast = parser.parse("f[123456789012345678901234567890, -9223372036854775808]");
+        assertEquals("FunctionNode{name='f', arguments=[IntegerNode{value=123456789012345678901234567890}, IntegerNode{value=-9223372036854775808}]}", ast.toString());
+    }
+
+    @Test
+    void testParseMachineNumber() {
+        Node ast = parser.parse("f[1.5`, -2`]");
+        assertEquals("FunctionNode{name='f', arguments=[MachineRealNode{value=1.5}, MachineRealNode{value=-2.0}]}", ast.toString());
+    }
+
+    @Test
+    void testParseNumberWithPrecision() {
+        FunctionNode ast = (FunctionNode) parser.parse("f[1.5`20, x, -2.71828`3, 7`2]");
+        assertEquals(Arrays.asList(
+                new RealNode(new BigDecimal("1.5000000000000000000")),
+                new VariableNode("x"),
+                new RealNode(new BigDecimal("-2.72")),
+                new RealNode(new BigDecimal("7.0"))), ast.arguments);
+        assertEquals("1.5000000000000000000", ((RealNode) ast.arguments.get(0)).value.toPlainString());
+        assertEquals("-2.72", ((RealNode) ast.arguments.get(2)).value.toPlainString());
+    }
+
+    @Test
+    void testParsePrecisionAcrossChunks() throws IOException {
+        List<Node> nodes = new ArrayList<>();
+        parser.parseAll(trickle("12.25`30 x"), nodes::add);
+        assertEquals(Arrays.asList(new RealNode(new BigDecimal("12.25")), new VariableNode("x")), nodes);
+        assertEquals(30, ((RealNode) nodes.get(0)).value.precision());
+    }
+
+    @Test
+    void testRejectUnsupportedPrecision() {
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("f[1.5``20, x]"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("f[1.5`20.5, x]"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("f[1.5`0, x]"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("f[1.5`99999999999, x]"));
+    }
+
+    /**
+     * Hands out at most three characters per read, so tokens are split across refills.
+     */
+    private static Reader trickle(String input) {
+        return new FilterReader(new StringReader(input)) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 3));
+            }
+        };
+    }
+
+    @Test
+    void testParseAllAcrossChunks() throws IOException {
+        String input = "Plus[Times[-12345678901234567890123, alpha], 3.25]\n  beta, 1.5`\nf[]";
+        List<Node> nodes = new ArrayList<>();
+
+        parser.parseAll(trickle(input), nodes::add);
+
+        assertEquals(Arrays.asList(
+                parser.parse("Plus[Times[-12345678901234567890123, alpha], 3.25]"),
+                new VariableNode("beta"),
+                new MachineRealNode(1.5),
+                new FunctionNode("f", Collections.emptyList())), nodes);
+    }
+
+    @Test
+    void testParseAllFromCharBuffer() {
+        List<Node> nodes = new ArrayList<>();
+        CharBuffer input = CharBuffer.wrap("ignored f[x] g[y, 2]");
+        input.position(8);
+
+        parser.parseAll(input, nodes::add);
+
+        assertEquals(Arrays.asList(parser.parse("f[x]"), parser.parse("g[y, 2]")), nodes);
+    }
+
+    @Test
+    void testExpressionIsReturnedBeforeReadingFurther() throws IOException {
+        Reader input = new Reader() {
+            private boolean read;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                if (read) {
+                    throw new IOException("Read past the first expression");
+                }
+                read = true;
+                "f[x]".getChars(0, 4, buffer, offset);
+                return 4;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        assertEquals(parser.parse("f[x]"), parser.parse(input));
+    }
+
+    @Test
+    void testDeepNesting() throws IOException {
+        int depth = 200_000;
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            input.append("f[");
+        }
+        input.append('x');
+        for (int i = 0; i < depth; i++) {
+            input.append(']');
+        }
+
+        Node node = parser.parse(trickle(input.toString()));
+        for (int i = 0; i < depth; i++) {
+            node = ((FunctionNode) node).arguments.get(0);
+        }
+        assertEquals(new VariableNode("x"), node);
+    }
+
+    @Test
+    void testUnterminatedFunction() {
+        assertThrows(IllegalArgumentException.class, () -> parser.parseAll(trickle("f[x, g[y]"), node -> { }));
+    }
+}
@@ -0,0 +1,72 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeFactoryTest {
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    @Test
+    void testStructurallyEqualNodesAreIdentical() {
+        Node first = NodeFactory.intern(parse("Plus[Times[2, x], Power[x, 2]]"));
+        Node second = NodeFactory.intern(parse("Plus[Times[2, x], Power[x, 2]]"));
+        assertSame(first, second);
+    }
+
+    @Test
+    void testSubexpressionsAreShared() {
+        FunctionNode first = NodeFactory.intern((FunctionNode) parse("f[g[x, y], 1]"));
+        FunctionNode second = NodeFactory.intern((FunctionNode) parse("h[g[x, y]]"));
+        assertSame(first.arguments.get(0), second.arguments.get(0));
+    }
+
+    @Test
+    void testDifferentNodesStayDifferent() {
+        Node first = NodeFactory.intern(parse("f[x, y]"));
+        Node second = NodeFactory.intern(parse("f[y, x]"));
+        assertNotSame(first, second);
+        assertNotEquals(first, second);
+        assertNotEquals(NodeFactory.integer(1), NodeFactory.intern(parse("1.0")));
+    }
+
+    @Test
+    void testInternedNodesEqualPlainNodes() {
+        Node plain = parse("f[g[x], 2]");
+        Node interned = NodeFactory.function("f", Arrays.asList(
+                NodeFactory.function("g", Arrays.asList(NodeFactory.variable("x"))),
+                NodeFactory.integer(2)));
+        assertEquals(plain, interned);
+        assertEquals(interned, plain);
+        assertEquals(plain.hashCode(), interned.hashCode());
+    }
+
+    @Test
+    void testRealNodesIgnoreScale() {
+        RealNode a = new RealNode(new BigDecimal("1.5"));
+        RealNode b = new RealNode(new BigDecimal("1.50"));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+
+    @Test
+    void testRealNodesKeepTheirScale() {
+        RealNode a = NodeFactory.intern(new RealNode(new BigDecimal("1.5")));
+        RealNode b = NodeFactory.intern(new RealNode(new BigDecimal("1.50")));
+        assertEquals("1.50", b.value.toPlainString());
+        assertSame(a, NodeFactory.intern(new RealNode(new BigDecimal("1.5"))));
+
+        Node first = NodeFactory.intern(parse("f[1.5, x]"));
+        Node second = NodeFactory.intern(parse("f[1.50, x]"));
+        assertNotSame(first, second);
+        assertEquals(first, second);
+        assertSame(first, NodeFactory.intern(parse("f[1.5, x]")));
+    }
+}
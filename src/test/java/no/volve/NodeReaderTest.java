@@ -0,0 +1,156 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeReaderTest {
+    private final MathematicaParser parser = new MathematicaParser();
+
+    private static byte[] write(Node... nodes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NodeWriter writer = new NodeWriter(bytes)) {
+            for (Node node : nodes) {
+                writer.write(node);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Node> readAll(NodeReader reader) {
+        List<Node> nodes = new ArrayList<>();
+        Node node;
+        while ((node = reader.read()) != null) {
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        List<Node> nodes = Arrays.asList(
+                parser.parse("Plus[Times[-3, x], Power[x, 2], f[], Sin[y]]"),
+                new IntegerNode(Long.MIN_VALUE),
+                new IntegerNode(new BigInteger("-123456789012345678901234567890")),
+                new RealNode(new BigDecimal("-2.500")),
+                new MachineRealNode(-0.0),
+                new VariableNode("α"),
+                RationalNode.valueOf(new IntegerNode(Long.MIN_VALUE), new IntegerNode(3)),
+                RationalNode.valueOf(new IntegerNode(new BigInteger("123456789012345678901234567890")), new IntegerNode(7)));
+
+        List<Node> decoded = readAll(new NodeReader(ByteBuffer.wrap(write(nodes.toArray(new Node[0])))));
+
+        assertEquals(nodes, decoded);
+        assertEquals(3, ((RealNode) decoded.get(3)).value.scale());
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(((MachineRealNode) decoded.get(4)).value));
+    }
+
+    @Test
+    void testSharedSubtreesAreWrittenOnce() throws IOException {
+        Node shared = parser.parse("Times[Plus[alpha, beta, gamma], Power[delta, 12345]]");
+        Node single = new FunctionNode("f", Collections.singletonList(shared));
+        Node repeated = new FunctionNode("f", Arrays.asList(shared, parser.parse("Times[Plus[alpha, beta, gamma], Power[delta, 12345]]"), shared));
+
+        byte[] bytes = write(repeated);
+        FunctionNode decoded = (FunctionNode) new NodeReader(ByteBuffer.wrap(bytes)).read();
+
+        assertEquals(repeated, decoded);
+        assertSame(decoded.arguments.get(0), decoded.arguments.get(1));
+        assertSame(decoded.arguments.get(0), decoded.arguments.get(2));
+        assertTrue(bytes.length < write(single).length + 6);
+    }
+
+    @Test
+    void testReferencesAcrossNodesAndReset() throws IOException {
+        Node first = parser.parse("g[Plus[x, y]]");
+        Node second = parser.parse("h[Plus[x, y]]");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NodeWriter writer = new NodeWriter(bytes)) {
+            writer.write(first);
+            writer.write(second);
+            writer.reset();
+            writer.write(second);
+        }
+
+        List<Node> decoded = readAll(new NodeReader(ByteBuffer.wrap(bytes.toByteArray())));
+
+        assertEquals(Arrays.asList(first, second, second), decoded);
+        assertSame(((FunctionNode) decoded.get(0)).arguments.get(0), ((FunctionNode) decoded.get(1)).arguments.get(0));
+        assertNotSame(((FunctionNode) decoded.get(1)).arguments.get(0), ((FunctionNode) decoded.get(2)).arguments.get(0));
+    }
+
+    @Test
+    void testDeepTree() throws IOException {
+        int depth = 100_000;
+        Node node = new VariableNode("x");
+        for (int i = 0; i < depth; i++) {
+            node = new FunctionNode("f", Arrays.asList(node, new IntegerNode(i)));
+        }
+
+        Node decoded = new NodeReader(ByteBuffer.wrap(write(node))).read();
+
+        for (int i = depth - 1; i >= 0; i--) {
+            assertEquals(new IntegerNode(i), ((FunctionNode) decoded).arguments.get(1));
+            decoded = ((FunctionNode) decoded).arguments.get(0);
+        }
+        assertEquals(new VariableNode("x"), decoded);
+    }
+
+    @Test
+    void testTablesAreResetOnLongStreams() throws IOException {
+        Node[] nodes = new Node[NodeWriter.TABLE_LIMIT];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new FunctionNode("f", Collections.singletonList(new IntegerNode(i)));
+        }
+        byte[] bytes = write(nodes);
+
+        // After a reset the head symbol is introduced again: a function tag, a new symbol, length 1 and its name
+        int introductions = 0;
+        for (int i = 0; i + 3 < bytes.length; i++) {
+            if (bytes[i] == NodeWriter.FUNCTION && bytes[i + 1] == 0 && bytes[i + 2] == 1 && bytes[i + 3] == 'f') {
+                introductions++;
+            }
+        }
+        assertTrue(introductions > 1);
+        assertEquals(Arrays.asList(nodes), readAll(new NodeReader(ByteBuffer.wrap(bytes))));
+    }
+
+    @Test
+    void testMappedFile(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("nodes.bin");
+        List<Node> nodes = new ArrayList<>();
+        try (OutputStream output = Files.newOutputStream(file); NodeWriter writer = new NodeWriter(output)) {
+            for (int i = 0; i < 1000; i++) {
+                Node node = parser.parse("Plus[Times[" + i + ", x], Power[y, 2]]");
+                nodes.add(node);
+                writer.write(node);
+            }
+        }
+
+        try (NodeReader reader = NodeReader.open(file)) {
+            assertEquals(nodes, readAll(reader));
+        }
+    }
+
+    @Test
+    void testMalformedInput() throws IOException {
+        byte[] bytes = write(parser.parse("Plus[x, y]"));
+
+        assertThrows(IllegalArgumentException.class, () -> new NodeReader(ByteBuffer.wrap(bytes, 0, bytes.length - 1)).read());
+        assertThrows(IllegalArgumentException.class, () -> new NodeReader(ByteBuffer.wrap(new byte[]{'n', 'o', 'p', 'e', 1})));
+    }
+}
@@ -0,0 +1,172 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderlessPatternTest {
+    private static final Map<String, Set<EvaluationEngine.Attribute>> ATTRIBUTES =
+            Map.of("Plus", EnumSet.of(EvaluationEngine.Attribute.COMMUTATIVE), "Times", EnumSet.of(EvaluationEngine.Attribute.COMMUTATIVE));
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    private OrderlessPattern compile(String pattern) {
+        return OrderlessPattern.compile(parse(pattern), ATTRIBUTES);
+    }
+
+    @Test
+    void testOnlyCommutativeFixedPatternsAreOrderless() {
+        assertNotNull(compile("Plus[Blank[x], Blank[y]]"));
+        assertNull(compile("Subtract[Blank[x], Blank[y]]"));
+        assertNull(compile("Plus[BlankSequence[]]"));
+        assertNull(compile("Plus[Blank[x]]"));
+        assertNull(compile("Plus[]"));
+    }
+
+    @Test
+    void testMatchesArgumentsInAnyOrder() {
+        OrderlessPattern pattern = compile("Plus[Blank[x], Times[-1, Blank[x]]]");
+
+        assertTrue(pattern.matches(parse("Plus[Times[-1, a], a]")));
+        assertTrue(pattern.matches(parse("Plus[b, Times[-1, a], c, a]")));
+        assertFalse(pattern.matches(parse("Plus[b, Times[-1, a], c]")));
+        assertFalse(pattern.matches(parse("Times[Times[-1, a], a]")));
+    }
+
+    @Test
+    void testRewritesMatchedArgumentsOnly() {
+        OrderlessPattern pattern = compile("Plus[Blank[x], Times[-1, Blank[x]]]");
+        NodeTransformer zero = new NodeTransformer() {
+            @Override
+            public Node transform(Node node, Map<String, Node> bindings) {
+                return new IntegerNode(0);
+            }
+        };
+
+        assertEquals(parse("0"), pattern.rewrite(parse("Plus[a, Times[-1, a]]"), zero));
+        assertEquals(parse("Plus[b, 0, c]"), pattern.rewrite(parse("Plus[b, Times[-1, a], c, a]"), zero));
+        assertNull(pattern.rewrite(parse("Plus[b, c]"), zero));
+    }
+
+    @Test
+    void testTriesFurtherAssignmentsWhenRejected() {
+        OrderlessPattern pattern = compile("Plus[Blank[x], Blank[y]]");
+        NodeTransformer add = new NodeTransformer() {
+            @Override
+            public Node transform(Node node, Map<String, Node> bindings) {
+                Node x = bindings.get("x");
+                Node y = bindings.get("y");
+                return x instanceof IntegerNode && y instanceof IntegerNode ? ((IntegerNode) x).add((IntegerNode) y) : null;
+            }
+        };
+
+        assertEquals(parse("Plus[a, 3, b]"), pattern.rewrite(parse("Plus[a, 1, b, 2]"), add));
+    }
+
+    @Test
+    void testInterchangeableBlanksAreTriedOnce() {
+        OrderlessPattern pattern = compile("Plus[Blank[x], Blank[y]]");
+        List<Node> subjects = new ArrayList<>();
+
+        assertNull(pattern.rewrite(parse("Plus[a, b, c]"), new NodeTransformer() {
+            @Override
+            public Node transform(Node node, Map<String, Node> bindings) {
+                subjects.add(node);
+                return null;
+            }
+
+            @Override
+            public boolean isSymmetric() {
+                return true;
+            }
+        }));
+
+        assertEquals(List.of(parse("Plus[a, b]"), parse("Plus[a, c]"), parse("Plus[b, c]")), subjects);
+    }
+
+    @Test
+    void testAsymmetricTransformerSeesEveryOrder() {
+        OrderlessPattern pattern = compile("Plus[Blank[x], Blank[y]]");
+        List<String> tried = new ArrayList<>();
+        NodeTransformer difference = new NodeTransformer() {
+            @Override
+            public Node transform(Node node, Map<String, Node> bindings) {
+                VariableNode x = (VariableNode) bindings.get("x");
+                VariableNode y = (VariableNode) bindings.get("y");
+                tried.add(x.name + y.name);
+                return x.name.equals("c") && y.name.equals("a") ? new VariableNode("ca") : null;
+            }
+        };
+
+        assertEquals(parse("Plus[ca, b]"), pattern.rewrite(parse("Plus[a, b, c]"), difference));
+        assertEquals(List.of("ab", "ac", "ba", "bc", "ca"), tried);
+    }
+
+    @Test
+    void testRejectedValuesAreNeverTransformed() {
+        List<Node> terms = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            terms.add(new VariableNode("v" + i));
+        }
+        terms.add(500, new IntegerNode(2));
+        terms.add(new IntegerNode(1));
+        List<Node> subjects = new ArrayList<>();
+        NodeTransformer add = new NodeTransformer() {
+            @Override
+            public Node transform(Node node, Map<String, Node> bindings) {
+                subjects.add(node);
+                return ((IntegerNode) bindings.get("x")).add((IntegerNode) bindings.get("y"));
+            }
+
+            @Override
+            public boolean accepts(Node value) {
+                return value instanceof IntegerNode;
+            }
+        };
+
+        Node result = compile("Plus[Blank[x], Blank[y]]").rewrite(new FunctionNode("Plus", terms), add);
+
+        assertEquals(List.of(parse("Plus[2, 1]")), subjects);
+        assertEquals(new IntegerNode(3), ((FunctionNode) result).arguments.get(500));
+        assertEquals(1001, ((FunctionNode) result).arguments.size());
+    }
+
+    @Test
+    void testLiteralsPruneWideSums() {
+        List<Node> terms = new ArrayList<>();
+        for (char c = 'a'; c <= 'z'; c++) {
+            terms.add(new VariableNode("v" + c));
+            terms.add(new FunctionNode("f", List.of(new VariableNode("v" + c))));
+        }
+        Collections.shuffle(terms);
+        List<Node> withPair = new ArrayList<>(terms);
+        withPair.add(17, new VariableNode("p"));
+        withPair.add(new FunctionNode("Times", List.of(new IntegerNode(-1), new VariableNode("p"))));
+        int[] calls = new int[1];
+        NodeTransformer zero = new NodeTransformer() {
+            @Override
+            public Node transform(Node node, Map<String, Node> bindings) {
+                calls[0]++;
+                return new IntegerNode(0);
+            }
+        };
+
+        OrderlessPattern pattern = compile("Plus[Blank[x], Times[-1, Blank[x]]]");
+        assertNull(pattern.rewrite(new FunctionNode("Plus", terms), zero));
+        Node result = pattern.rewrite(new FunctionNode("Plus", withPair), zero);
+
+        assertEquals(1, calls[0]);
+        assertEquals(terms.size() + 1, ((FunctionNode) result).arguments.size());
+        assertTrue(((FunctionNode) result).arguments.contains(new IntegerNode(0)));
+    }
+}
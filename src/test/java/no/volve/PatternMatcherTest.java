@@ -3,6 +3,10 @@ package no.volve;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class PatternMatcherTest {
@@ -110,4 +114,61 @@ class PatternMatcherTest {
         assertTrue(patternMatcher.match(pattern, candidate3));
     }
 
+
+    @Test
+    void testBindingsAcrossSequenceSplits() {
+        Node pattern = parse("f[BlankSequence[], Blank[x], Blank[x], BlankSequence[rest]]");
+        Map<String, Node> bindings = new HashMap<>();
+
+        assertTrue(patternMatcher.match(pattern, parse("f[a, b, c, c, d, e]"), bindings));
+
+        assertEquals(Map.of("x", parse("c"), "rest", parse("Sequence[d, e]")), bindings);
+    }
+
+    @Test
+    void testFailedMatchLeavesBindingsUnchanged() {
+        Node pattern = parse("f[Blank[x], Blank[y], 1]");
+        Map<String, Node> bindings = new HashMap<>(Map.of("x", parse("a")));
+
+        assertFalse(patternMatcher.match(pattern, parse("f[a, b, 2]"), bindings));
+        assertEquals(Map.of("x", parse("a")), bindings);
+        assertFalse(patternMatcher.match(pattern, parse("f[b, b, 1]"), bindings));
+        assertTrue(patternMatcher.match(pattern, parse("f[a, b, 1]"), bindings));
+        assertEquals(Map.of("x", parse("a"), "y", parse("b")), bindings);
+    }
+
+    @Test
+    void testFailedMatchDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Node pattern = parse("f[BlankSequence[], Blank[x], Blank[x], BlankSequence[rest]]");
+        StringBuilder input = new StringBuilder("f[");
+        for (int i = 0; i < 64; i++) {
+            input.append(i > 0 ? ", " : "").append(i);
+        }
+        Node candidate = parse(input.append("]").toString());
+        for (int i = 0; i < 100; i++) {
+            assertFalse(patternMatcher.match(pattern, candidate));
+        }
+
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        boolean matched = false;
+        for (int i = 0; i < 1000; i++) {
+            matched |= patternMatcher.match(pattern, candidate);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        assertFalse(matched);
+        // Copying the bindings for each of the 64 splits took megabytes here
+        assertTrue(allocated < 64 * 1024, allocated + " bytes");
+    }
+
+    @Test
+    void testMatchBindingsAreIndependentOfLaterMatches() {
+        Map<String, Node> first = patternMatcher.matchBindings(parse("f[Blank[x], BlankSequence[y]]"), parse("f[a, b, c]"));
+        Map<String, Node> second = patternMatcher.matchBindings(parse("f[Blank[x]]"), parse("f[d]"));
+
+        assertEquals(Map.of("x", parse("a"), "y", parse("Sequence[b, c]")), first);
+        assertEquals(Map.of("x", parse("d")), second);
+        assertNull(patternMatcher.matchBindings(parse("f[Blank[x]]"), parse("g[d]")));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PolynomialTest {
+    private static final int VARIABLES = 6;
+
+    private Polynomial variable(int variable) {
+        return Polynomial.variable(variable);
+    }
+
+    private Polynomial constant(long value) {
+        return Polynomial.constant(BigInteger.valueOf(value));
+    }
+
+    private Polynomial sum(Polynomial... terms) {
+        Polynomial sum = new Polynomial();
+        for (Polynomial term : terms) {
+            sum.add(term);
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the term with the given exponents, returning its coefficient or zero if there is none.
+     */
+    private BigInteger coefficient(Polynomial polynomial, int... exponents) {
+        for (int term = 0; term < polynomial.size(); term++) {
+            boolean same = true;
+            for (int variable = 0; variable < VARIABLES; variable++) {
+                same &= polynomial.exponent(term, variable) == (variable < exponents.length ? exponents[variable] : 0);
+            }
+            if (same) {
+                return polynomial.coefficient(term);
+            }
+        }
+        return BigInteger.ZERO;
+    }
+
+    @Test
+    void testLikeTermsCombine() {
+        Polynomial polynomial = sum(variable(0), constant(2), variable(0), variable(5), constant(-2));
+
+        assertEquals(2, polynomial.termCount());
+        assertEquals(BigInteger.TWO, coefficient(polynomial, 1));
+        assertEquals(BigInteger.ONE, coefficient(polynomial, 0, 0, 0, 0, 0, 1));
+        assertEquals(BigInteger.ZERO, coefficient(polynomial));
+    }
+
+    @Test
+    void testMultiply() {
+        // (x + y)(x - y) = x^2 - y^2
+        Polynomial difference = variable(1);
+        difference.negate();
+        Polynomial product = sum(variable(0), variable(1)).multiply(sum(variable(0), difference));
+
+        assertEquals(2, product.termCount());
+        assertEquals(BigInteger.ONE, coefficient(product, 2));
+        assertEquals(BigInteger.valueOf(-1), coefficient(product, 0, 2));
+    }
+
+    @Test
+    void testPowMatchesRepeatedMultiplication() {
+        Polynomial base = sum(variable(0), variable(4), constant(3));
+        Polynomial repeated = constant(1);
+        for (int i = 0; i < 7; i++) {
+            repeated = repeated.multiply(base);
+        }
+        Polynomial power = base.pow(7);
+
+        assertEquals(36, power.termCount());
+        assertEquals(repeated.termCount(), power.termCount());
+        assertEquals(BigInteger.valueOf(2187), coefficient(power));
+        // 7! / (2! 2! 3!) * 3^3 for x^2 z^2
+        assertEquals(BigInteger.valueOf(5670), coefficient(power, 2, 0, 0, 0, 2));
+        for (int term = 0; term < power.size(); term++) {
+            int x = power.exponent(term, 0);
+            int z = power.exponent(term, 4);
+            assertEquals(power.coefficient(term), coefficient(repeated, x, 0, 0, 0, z));
+        }
+    }
+
+    @Test
+    void testCoefficientOverflowPromotes() {
+        Polynomial polynomial = sum(constant(Long.MAX_VALUE), constant(Long.MAX_VALUE));
+        assertEquals(BigInteger.valueOf(Long.MAX_VALUE).shiftLeft(1), coefficient(polynomial));
+
+        polynomial.add(constant(-Long.MAX_VALUE));
+        assertEquals(BigInteger.valueOf(Long.MAX_VALUE), coefficient(polynomial));
+
+        Polynomial square = constant(Long.MIN_VALUE).multiply(constant(Long.MIN_VALUE));
+        assertEquals(BigInteger.valueOf(Long.MIN_VALUE).pow(2), coefficient(square));
+
+        Polynomial negated = constant(Long.MIN_VALUE);
+        negated.negate();
+        assertEquals(BigInteger.valueOf(Long.MIN_VALUE).negate(), coefficient(negated));
+    }
+
+    @Test
+    void testExponentOverflowIsDetected() {
+        Polynomial power = variable(3).pow(Polynomial.MAX_EXPONENT);
+        assertEquals(Polynomial.MAX_EXPONENT, power.exponent(0, 3));
+        assertEquals(0, power.exponent(0, 2));
+        assertThrows(ArithmeticException.class, () -> power.multiply(variable(3)));
+    }
+
+    @Test
+    void testFactorsAreSparseAndSorted() {
+        Polynomial product = variable(100_000).multiply(variable(5)).multiply(variable(100_000));
+
+        assertEquals(2, product.factorCount(0));
+        assertEquals(5, product.factorVariable(0, 0));
+        assertEquals(1, product.factorExponent(0, 0));
+        assertEquals(100_000, product.factorVariable(0, 1));
+        assertEquals(2, product.factorExponent(0, 1));
+        assertEquals(0, product.exponent(0, 6));
+        assertEquals(0, constant(3).factorCount(0));
+    }
+
+    @Test
+    void testWideSumStaysSmall() {
+        Polynomial sum = new Polynomial();
+        for (int i = 0; i < 100_000; i++) {
+            sum.add(variable(i));
+        }
+        sum.add(variable(99_999));
+
+        assertEquals(100_000, sum.termCount());
+        assertEquals(BigInteger.TWO, sum.coefficient(99_999));
+        assertEquals(1, sum.factorCount(99_999));
+    }
+}
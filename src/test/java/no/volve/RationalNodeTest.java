@@ -0,0 +1,127 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RationalNodeTest {
+    private static Node rational(long numerator, long denominator) {
+        return RationalNode.valueOf(new IntegerNode(numerator), new IntegerNode(denominator));
+    }
+
+    private static Node rational(String numerator, String denominator) {
+        return RationalNode.valueOf(new IntegerNode(new BigInteger(numerator)), new IntegerNode(new BigInteger(denominator)));
+    }
+
+    @Test
+    void testNormalization() {
+        RationalNode half = (RationalNode) rational(-3, -6);
+        assertEquals(new IntegerNode(1), half.numerator());
+        assertEquals(new IntegerNode(2), half.denominator());
+        assertEquals(rational(-1, 2), rational(2, -4));
+        assertEquals(new IntegerNode(-3), rational(9, -3));
+        assertEquals(new IntegerNode(0), rational(0, -5));
+        assertNull(rational(1, 0));
+        assertEquals(rational(Long.MIN_VALUE, 3), rational("-9223372036854775808", "3"));
+        assertEquals(rational("9223372036854775808", "3"), rational(Long.MIN_VALUE, -3));
+        assertEquals(new IntegerNode(1), rational(Long.MIN_VALUE, Long.MIN_VALUE));
+    }
+
+    @Test
+    void testArithmetic() {
+        assertEquals(rational(1, 2), RationalNode.add(rational(1, 3), rational(1, 6)));
+        assertEquals(new IntegerNode(1), RationalNode.add(rational(1, 2), rational(1, 2)));
+        assertEquals(new IntegerNode(0), RationalNode.add(rational(1, 2), rational(-1, 2)));
+        assertEquals(rational(7, 2), RationalNode.add(new IntegerNode(3), rational(1, 2)));
+        assertEquals(rational(-1, 6), RationalNode.subtract(rational(1, 3), rational(1, 2)));
+        assertEquals(rational(1, 3), RationalNode.multiply(rational(2, 3), rational(1, 2)));
+        assertEquals(new IntegerNode(0), RationalNode.multiply(new IntegerNode(0), rational(1, 2)));
+        assertEquals(new IntegerNode(4), RationalNode.divide(rational(2, 3), rational(1, 6)));
+        assertNull(RationalNode.divide(rational(2, 3), new IntegerNode(0)));
+        assertEquals(rational(-8, 27), RationalNode.pow(rational(-2, 3), new IntegerNode(3)));
+        assertEquals(rational(9, 4), RationalNode.pow(rational(2, 3), new IntegerNode(-2)));
+        assertEquals(new IntegerNode(1), RationalNode.pow(rational(2, 3), new IntegerNode(0)));
+        assertNull(RationalNode.pow(new IntegerNode(0), new IntegerNode(-1)));
+    }
+
+    @Test
+    void testOverflowPromotesAndDemotes() {
+        Node big = RationalNode.multiply(rational(Long.MAX_VALUE, 2), rational(Long.MAX_VALUE, 3));
+        assertTrue(((RationalNode) big).isBig());
+        assertEquals(rational(BigInteger.valueOf(Long.MAX_VALUE).pow(2).toString(), "6"), big);
+
+        Node small = RationalNode.divide(big, rational(Long.MAX_VALUE, 1));
+        assertFalse(((RationalNode) small).isBig());
+        assertEquals(rational(Long.MAX_VALUE, 6), small);
+
+        assertEquals(rational("-27670116110564327421", "2"), RationalNode.add(rational(-Long.MAX_VALUE, 2), new IntegerNode(-Long.MAX_VALUE)));
+    }
+
+    @Test
+    void testLongAndBigPathsAgree() {
+        long[] values = {1, 2, 3, 6, 7, 12, 1L << 31, 3037000499L, Long.MAX_VALUE / 3, Long.MAX_VALUE, Long.MIN_VALUE + 1};
+        for (long a : values) {
+            for (long b : values) {
+                Node x = rational(a, b);
+                Node y = rational(-b, 7);
+                Node bigX = rational(BigInteger.valueOf(a).toString(), BigInteger.valueOf(b).toString());
+                // A big denominator multiple forces the other operand onto the BigInteger path
+                Node viaBig = RationalNode.subtract(RationalNode.add(bigX, rational("1", "36893488147419103232")), rational("1", "36893488147419103232"));
+                assertEquals(x, viaBig);
+                assertEquals(RationalNode.add(x, y), RationalNode.add(viaBig, y), a + "/" + b);
+                assertEquals(RationalNode.multiply(x, y), RationalNode.multiply(y, x), a + "/" + b);
+            }
+        }
+    }
+
+    @Test
+    void testCompareTo() {
+        RationalNode third = (RationalNode) rational(1, 3);
+        RationalNode half = (RationalNode) rational(1, 2);
+        assertTrue(third.compareTo(half) < 0);
+        assertTrue(half.compareTo(third) > 0);
+        assertEquals(0, half.compareTo((RationalNode) rational(2, 4)));
+        // The cross products overflow a long
+        RationalNode large = (RationalNode) rational(Long.MAX_VALUE, Long.MAX_VALUE - 1);
+        RationalNode larger = (RationalNode) rational(Long.MAX_VALUE - 1, Long.MAX_VALUE - 2);
+        assertTrue(large.compareTo(larger) < 0);
+        assertTrue(((RationalNode) rational(-Long.MAX_VALUE, 2)).compareTo((RationalNode) rational(-Long.MAX_VALUE + 2, 3)) < 0);
+    }
+
+    @Test
+    void testConversions() {
+        RationalNode third = (RationalNode) rational(1, 3);
+        assertEquals(1.0 / 3, third.doubleValue());
+        assertNull(third.toBigDecimal(MathContext.UNLIMITED));
+        assertEquals(new BigDecimal("0.33333"), third.toBigDecimal(new MathContext(5)));
+        assertEquals(new BigDecimal("0.125"), ((RationalNode) rational(1, 8)).toBigDecimal(MathContext.UNLIMITED));
+        assertEquals(1.0 / 3, ((RationalNode) rational("12345678901234567890123", "37037036703703703670370")).doubleValue(), 1e-15);
+    }
+
+    private static double doubleValue(BigInteger numerator, BigInteger denominator) {
+        return ((RationalNode) RationalNode.valueOf(new IntegerNode(numerator), new IntegerNode(denominator))).doubleValue();
+    }
+
+    @Test
+    void testDoubleValueRoundsOnce() {
+        BigInteger scale = BigInteger.ONE.shiftLeft(200);
+        BigInteger tie = scale.add(BigInteger.ONE.shiftLeft(147));
+        // Just above and below halfway between 1 and the next double, too close for 16 decimal digits to tell
+        assertEquals(Math.nextUp(1.0), doubleValue(tie.add(BigInteger.ONE), scale));
+        assertEquals(1.0, doubleValue(tie.subtract(BigInteger.ONE), scale));
+        assertEquals(-Math.nextUp(1.0), doubleValue(tie.add(BigInteger.ONE).negate(), scale));
+        assertEquals(1.0 / 3, doubleValue(BigInteger.ONE.shiftLeft(300), BigInteger.valueOf(3).shiftLeft(300).add(BigInteger.ONE)));
+
+        // Subnormal results round at their own precision: halfway to the smallest double ties to zero
+        BigInteger tiny = BigInteger.ONE.shiftLeft(1075);
+        assertEquals(0.0, doubleValue(BigInteger.ONE, tiny));
+        assertEquals(Double.MIN_VALUE, doubleValue(BigInteger.valueOf(3), tiny.shiftLeft(1)));
+        assertEquals(Double.MIN_VALUE * 2, doubleValue(BigInteger.valueOf(5), tiny));
+        assertEquals(Double.MIN_VALUE * 4, doubleValue(BigInteger.valueOf(7), tiny));
+        assertEquals(Double.POSITIVE_INFINITY, doubleValue(BigInteger.ONE.shiftLeft(1100), BigInteger.valueOf(3)));
+    }
+}
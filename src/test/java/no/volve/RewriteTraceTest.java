@@ -0,0 +1,100 @@
+package no.volve;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RewriteTraceTest {
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    @Test
+    void testRecordsRewriteSequence() {
+        RewriteTrace trace = new RewriteTrace(16, Long.MAX_VALUE, steps -> fail("Not slow"));
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setRewriteTrace(trace);
+
+        evaluator.evaluate(parse("f[Times[y, y], Plus[1, 2]]"));
+
+        List<RewriteTrace.Step> steps = trace.steps();
+        assertEquals(List.of("Times", "Plus"), steps.stream().map(step -> step.head).collect(Collectors.toList()));
+        assertEquals(List.of(1, 1), steps.stream().map(step -> step.depth).collect(Collectors.toList()));
+        assertEquals(parse("Power[y, 2]"), steps.get(0).after);
+        assertTrue(steps.get(0).sequence < steps.get(1).sequence);
+    }
+
+    @Test
+    void testKeepsOnlyLastSteps() {
+        RewriteTrace trace = new RewriteTrace(3, Long.MAX_VALUE, steps -> fail("Not slow"));
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setRewriteTrace(trace);
+
+        evaluator.evaluate(parse("f[Plus[1, 2], Plus[3, 4], Plus[5, 6], Plus[7, 8], Plus[9, 10]]"));
+
+        List<RewriteTrace.Step> steps = trace.steps();
+        assertEquals(3, steps.size());
+        assertEquals(parse("19"), steps.get(2).after);
+    }
+
+    @Test
+    void testSlowEvaluationIsReportedOnce() {
+        List<List<RewriteTrace.Step>> reports = new ArrayList<>();
+        RewriteTrace trace = new RewriteTrace(8, 0, reports::add);
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setRewriteTrace(trace);
+
+        evaluator.evaluate(parse("f[Plus[1, 2], Plus[3, 4]]"));
+
+        assertEquals(1, reports.size());
+        assertFalse(reports.get(0).isEmpty());
+    }
+
+    @Test
+    void testEvaluationFromHandlerBelongsToOuterEvaluation() {
+        List<List<RewriteTrace.Step>> reports = new ArrayList<>();
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setRewriteTrace(new RewriteTrace(8, 0, steps -> {
+            reports.add(steps);
+            assertEquals(parse("11"), evaluator.evaluate(parse("Plus[5, 6]")));
+        }));
+
+        assertEquals(parse("f[3, 7]"), evaluator.evaluate(parse("f[Plus[1, 2], Plus[3, 4]]")));
+
+        assertEquals(1, reports.size());
+    }
+
+    @Test
+    void testFlightRecorderEvents() throws Exception {
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setFlightRecorderEvents(true);
+        Path file = Files.createTempFile("rewrite", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("no.volve.Rewrite");
+            recording.start();
+            evaluator.evaluate(parse("g[Times[y, y]]"));
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("no.volve.Rewrite"))
+                    .collect(Collectors.toList());
+            assertEquals(1, events.size());
+            assertEquals("Times", events.get(0).getString("head"));
+            assertEquals(1, events.get(0).getInt("depth"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
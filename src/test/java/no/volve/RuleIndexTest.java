@@ -0,0 +1,47 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RuleIndexTest {
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    private final Rule plusPair = new Rule(parse("Plus[Blank[x], Blank[y]]"), parse("x"));
+    private final Rule plusSequence = new Rule(parse("Plus[BlankSequence[]]"), parse("0"));
+    private final Rule plusTriple = new Rule(parse("Plus[Blank[x], Blank[y], Blank[z]]"), parse("x"));
+    private final Rule anything = new Rule(parse("Blank[x]"), parse("x"));
+    private final Rule powerPair = new Rule(parse("Power[Blank[x], 1]"), parse("x"));
+
+    private final RuleIndex index = new RuleIndex(Arrays.asList(plusPair, plusSequence, plusTriple, anything, powerPair));
+
+    @Test
+    void testCandidatesForFixedArity() {
+        List<Rule> candidates = index.candidates(parse("Plus[a, b]"));
+        assertEquals(Arrays.asList(plusPair, plusSequence, anything), candidates);
+    }
+
+    @Test
+    void testCandidatesForOtherArity() {
+        List<Rule> candidates = index.candidates(parse("Plus[a, b, c, d]"));
+        assertEquals(Arrays.asList(plusSequence, anything), candidates);
+    }
+
+    @Test
+    void testCandidatesForOtherHead() {
+        assertEquals(Arrays.asList(anything, powerPair), index.candidates(parse("Power[a, 1]")));
+        assertEquals(Arrays.asList(anything), index.candidates(parse("Sin[a]")));
+    }
+
+    @Test
+    void testCandidatesForAtom() {
+        assertEquals(Arrays.asList(anything), index.candidates(parse("x")));
+    }
+}
@@ -0,0 +1,72 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleSetTest {
+
+    @Test
+    void testStandardRulesAreShared() {
+        RuleSet rules = StandardEvaluator.standardRules(MathContext.UNLIMITED);
+
+        assertSame(rules, StandardEvaluator.standardRules(MathContext.UNLIMITED));
+        assertNotSame(rules, StandardEvaluator.standardRules(MathContext.DECIMAL64));
+        assertThrows(UnsupportedOperationException.class, () -> rules.getRules().clear());
+    }
+
+    @Test
+    void testEnginesShareRuleSetButNotSettings() {
+        RuleSet rules = StandardEvaluator.standardRules(MathContext.UNLIMITED);
+        EvaluationEngine first = new EvaluationEngine(new PatternMatcher(), rules);
+        EvaluationEngine second = new EvaluationEngine(new PatternMatcher(), rules);
+        first.setMatchingMode(EvaluationEngine.MatchingMode.COMPILED);
+
+        Node expression = new StandardMathParser("2 * 3 + x * x").parse();
+
+        assertEquals(first.evaluate(expression), second.evaluate(expression));
+        assertEquals(EvaluationEngine.MatchingMode.DISCRIMINATION_NET, second.getMatchingMode());
+        assertNotSame(first.getMetrics(), second.getMetrics());
+    }
+
+    @Test
+    void testSnapshotRoundTrip(@TempDir Path directory) throws IOException {
+        Path snapshot = directory.resolve("rules.bin");
+        try (OutputStream output = Files.newOutputStream(snapshot)) {
+            StandardEvaluator.writeRuleSnapshot(output);
+        }
+
+        RuleSet loaded = StandardEvaluator.readRuleSnapshot(snapshot, MathContext.DECIMAL64);
+        RuleSet standard = StandardEvaluator.standardRules(MathContext.DECIMAL64);
+
+        assertEquals(standard.getRules().size(), loaded.getRules().size());
+        for (int i = 0; i < standard.getRules().size(); i++) {
+            assertEquals(standard.getRules().get(i).pattern, loaded.getRules().get(i).pattern);
+        }
+        StandardEvaluator fromSnapshot = new StandardEvaluator(loaded);
+        StandardEvaluator built = new StandardEvaluator(standard);
+        for (String input : Arrays.asList("1 / 3 + 2.5", "x * x - x * x", "(2 ^ 10 - 24) * y")) {
+            Node expression = new StandardMathParser(input).parse();
+            assertEquals(built.evaluate(expression), fromSnapshot.evaluate(expression), input);
+        }
+    }
+
+    @Test
+    void testOutdatedSnapshotIsRejected(@TempDir Path directory) throws IOException {
+        Path snapshot = directory.resolve("rules.bin");
+        try (OutputStream output = Files.newOutputStream(snapshot); NodeWriter writer = new NodeWriter(output)) {
+            writer.write(new FunctionNode("RuleSnapshot", Arrays.asList(new IntegerNode(1), new IntegerNode(0))));
+            writer.write(new MathematicaParser().parse("Plus[Blank[x], Blank[y]]"));
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> StandardEvaluator.readRuleSnapshot(snapshot, MathContext.UNLIMITED));
+    }
+}
@@ -0,0 +1,166 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StandardEvaluatorConcurrencyTest {
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int ITERATIONS = 200;
+
+    private static final String[] EXPRESSIONS = {
+            "Plus[Times[2, Plus[1, 1]], Times[3, 4]]",
+            "f[Times[y, y], Plus[1, 2]]",
+            "Plus[x, Times[2, x]]",
+            "Power[Plus[2, 3], 4]",
+            "Times[Plus[1, 2], Plus[3, 4], Plus[5, 6]]",
+            "g[Plus[1.5, 2.25], Times[y, y], Plus[x, Times[2, x]]]",
+            "Plus[Times[x, x], Times[x, x]]",
+            wideSum(200),
+    };
+
+    private static String wideSum(int terms) {
+        StringBuilder builder = new StringBuilder("f[");
+        for (int i = 1; i <= terms; i++) {
+            builder.append(i > 1 ? ", " : "").append("Plus[").append(i).append(", Times[").append(i).append(", 2]]");
+        }
+        return builder.append("]").toString();
+    }
+
+    private Node parse(String input) {
+        MathematicaParser parser = new MathematicaParser();
+        return parser.parse(input);
+    }
+
+    private List<Node> evaluateSequentially(StandardEvaluator evaluator) {
+        List<Node> results = new ArrayList<>();
+        for (String expression : EXPRESSIONS) {
+            results.add(evaluator.evaluate(parse(expression)));
+        }
+        return results;
+    }
+
+    /**
+     * Runs the task on every thread at once, returning the failures it reported.
+     */
+    private List<String> runConcurrently(ThreadTask task) throws Exception {
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    task.run(thread, failures);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return new ArrayList<>(failures);
+    }
+
+    @Test
+    void testSharedEvaluatorMatchesSequentialResults() throws Exception {
+        List<Node> expected = evaluateSequentially(new StandardEvaluator());
+        // The same input trees are evaluated by every thread, so their normal-form marks are raced for as well
+        List<Node> inputs = new ArrayList<>();
+        for (String expression : EXPRESSIONS) {
+            inputs.add(parse(expression));
+        }
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setEvaluationCache(new EvaluationCache(64));
+
+        List<String> failures = runConcurrently((thread, report) -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                int index = (thread + i) % inputs.size();
+                Node result = evaluator.evaluate(inputs.get(index));
+                if (!expected.get(index).equals(result)) {
+                    report.add(EXPRESSIONS[index] + " evaluated to " + result);
+                }
+            }
+        });
+
+        assertEquals(List.of(), failures);
+    }
+
+    @Test
+    void testMetricsCountEveryEvaluation() throws Exception {
+        StandardEvaluator sequential = new StandardEvaluator();
+        sequential.setMetricsEnabled(true);
+        evaluateSequentially(sequential);
+        EvaluationMetrics.Snapshot once = sequential.getMetrics().snapshot();
+
+        StandardEvaluator evaluator = new StandardEvaluator();
+        evaluator.setMetricsEnabled(true);
+        runConcurrently((thread, report) -> {
+            for (int i = 0; i < 20; i++) {
+                evaluateSequentially(evaluator);
+            }
+        });
+
+        EvaluationMetrics.Snapshot total = evaluator.getMetrics().snapshot();
+        assertEquals(once.passes * THREADS * 20, total.passes);
+        for (int i = 0; i < once.rules.size(); i++) {
+            assertEquals(once.rules.get(i).getFires() * THREADS * 20, total.rules.get(i).getFires());
+        }
+    }
+
+    @Test
+    void testThroughputWithOneEvaluatorOnAllThreads(TestReporter reporter) throws Exception {
+        StandardEvaluator evaluator = new StandardEvaluator();
+        List<String> warmup = runConcurrently((thread, report) -> evaluateSequentially(evaluator));
+        assertEquals(List.of(), warmup);
+
+        long start = System.nanoTime();
+        List<String> failures = runConcurrently((thread, report) -> {
+            for (int i = 0; i < ITERATIONS / 10; i++) {
+                if (evaluateSequentially(evaluator).size() != EXPRESSIONS.length) {
+                    report.add("Missing results");
+                }
+            }
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertEquals(List.of(), failures);
+        long evaluations = (long) THREADS * (ITERATIONS / 10) * EXPRESSIONS.length;
+        reporter.publishEntry("threads", String.valueOf(THREADS));
+        reporter.publishEntry("expressions/s", String.format("%.0f", evaluations / seconds));
+    }
+
+    @Test
+    void testNodeArgumentsCannotBeChanged() {
+        List<Node> arguments = new ArrayList<>(List.of(new IntegerNode(1), new VariableNode("x")));
+        FunctionNode node = new FunctionNode("f", arguments);
+        int hash = node.hashCode();
+
+        arguments.add(new IntegerNode(2));
+
+        assertEquals(2, node.arguments.size());
+        assertEquals(hash, node.hashCode());
+        assertThrows(UnsupportedOperationException.class, () -> node.arguments.set(0, new IntegerNode(3)));
+        assertThrows(UnsupportedOperationException.class, () -> node.arguments.sort(null));
+    }
+
+    private interface ThreadTask {
+        void run(int thread, Queue<String> failures) throws Exception;
+    }
+}
@@ -3,12 +3,21 @@ package no.volve;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class StandardEvaluatorTest {
     private final StandardEvaluator evaluator = new StandardEvaluator();
@@ -18,6 +27,15 @@ public class StandardEvaluatorTest {
         return parser.parse(input);
     }
 
+    /**
+     * Evaluates with Plus commutative but without any rules, so only the ordering of the arguments is applied.
+     */
+    private Node sort(Node input) {
+        Map<String, Set<EvaluationEngine.Attribute>> attributes = new HashMap<>();
+        attributes.put("Plus", EnumSet.of(EvaluationEngine.Attribute.COMMUTATIVE));
+        return new EvaluationEngine(new PatternMatcher(), new ArrayList<>(), attributes).evaluate(input);
+    }
+
     @Test
     public void testPlusSameVariable() {
         Node input = parse("Plus[x, x]");
@@ -220,6 +238,14 @@ public class StandardEvaluatorTest {
     void testSortingIntegersAndRealNumbers() {
         Node input = parse("Plus[2, 1.5, 1]");
         Node expected = parse("Plus[1, 2, 1.5]");
+        Node actual = sort(input);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testSumOfIntegersAndRealNumbers() {
+        Node input = parse("Plus[2, 1.5, 1]");
+        Node expected = parse("4.5");
         Node actual = evaluator.evaluate(input);
         assertEquals(expected, actual);
     }
@@ -260,6 +286,14 @@ public class StandardEvaluatorTest {
     void testSortingMixedTypes() {
         Node input = parse("Plus[2, x, f[x], 1.5, y, 1]");
         Node expected = parse("Plus[1, 2, 1.5, x, y, f[x]]");
+        Node actual = sort(input);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testNumbersInMixedSumAreFolded() {
+        Node input = parse("Plus[2, x, f[x], 1.5, y, 1]");
+        Node expected = parse("Plus[4.5, x, y, f[x]]");
         Node actual = evaluator.evaluate(input);
         assertEquals(expected, actual);
     }
@@ -268,6 +302,22 @@ public class StandardEvaluatorTest {
     void testCommutativePlusArgumentSorting() {
         Node input = parse("Plus[2, x, f[x], 1.5, f[f[x]], g[x], f[g[x]], f[x, y], 1]");
         Node expected = parse("Plus[1, 2, 1.5, x, f[x], f[f[x]], f[g[x]], f[x, y], g[x]]");
+        Node actual = sort(input);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testCommutativePlusSymbolicArgumentSorting() {
+        Node input = parse("Plus[g[x], f[x, y], f[g[x]], y, f[f[x]], f[x], x]");
+        Node expected = parse("Plus[x, y, f[x], f[f[x]], f[g[x]], f[x, y], g[x]]");
+        Node actual = evaluator.evaluate(input);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testNumbersAmongSortedTermsAreFolded() {
+        Node input = parse("Plus[2, x, f[x], 1.5, f[f[x]], g[x], f[g[x]], f[x, y], 1]");
+        Node expected = parse("Plus[4.5, x, f[x], f[f[x]], f[g[x]], f[x, y], g[x]]");
         Node actual = evaluator.evaluate(input);
         assertEquals(expected, actual);
     }
@@ -284,6 +334,14 @@ public class StandardEvaluatorTest {
     void testSortingIntegersRealNumbersAndVariables() {
         Node input = parse("Plus[2, x, 1.5, y, 1]");
         Node expected = parse("Plus[1, 2, 1.5, x, y]");
+        Node actual = sort(input);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testNumbersAmongVariablesAreFolded() {
+        Node input = parse("Plus[2, x, 1.5, y, 1]");
+        Node expected = parse("Plus[4.5, x, y]");
         Node actual = evaluator.evaluate(input);
         assertEquals(expected, actual);
     }
@@ -320,6 +378,22 @@ public class StandardEvaluatorTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    void testWideSumFoldsNumbersAnywhere() {
+        Node input = parse("Plus[1, x, 2, y, 3]");
+        Node expected = parse("Plus[6, x, y]");
+        Node actual = evaluator.evaluate(input);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testWideProductCombinesEqualFactors() {
+        Node input = parse("Times[2, x, y, 3, x]");
+        Node expected = parse("Times[6, y, Power[x, 2]]");
+        Node actual = evaluator.evaluate(input);
+        assertEquals(expected, actual);
+    }
+
     @Test
     void testTimesMinus() {
         Node input = parse("Plus[Times[2, x], Minus[x]]");
@@ -400,4 +474,223 @@ public class StandardEvaluatorTest {
         assertEquals(expected, actual);
     }
 
-}
\ No newline at end of file
+
+    @Test
+    void testNormalFormIsNotReevaluated() {
+        Node result = evaluator.evaluate(parse("Plus[Times[1, f[x, y]], Times[1, g[z]]]"));
+        assertSame(result, evaluator.evaluate(result));
+        assertEquals(parse("Plus[f[x, y], g[z]]"), new StandardEvaluator().evaluate(result));
+    }
+
+    @Test
+    void testWrappedWideSumIsEvaluatedOnce() {
+        int terms = 10000;
+        AtomicInteger visits = new AtomicInteger();
+        List<Rule> rules = Arrays.asList(
+                new Rule(parse("Times[BlankSequence[]]"), new NodeTransformer() {
+                    @Override
+                    public Node transform(Node node, Map<String, Node> bindings) {
+                        List<Node> arguments = ((FunctionNode) node).arguments;
+                        return arguments.size() == 2 && arguments.get(0).equals(new IntegerNode(1)) ? arguments.get(1) : null;
+                    }
+                }),
+                new Rule(parse("f[Blank[x], g[Blank[y]]]"), new NodeTransformer() {
+                    @Override
+                    public Node transform(Node node, Map<String, Node> bindings) {
+                        visits.incrementAndGet();
+                        return null;
+                    }
+                }));
+        EvaluationEngine engine = new EvaluationEngine(new PatternMatcher(), rules, new HashMap<>());
+        List<Node> sum = new ArrayList<>();
+        for (int i = 0; i < terms; i++) {
+            sum.add(new FunctionNode("f", Arrays.asList(new VariableNode("x" + i), parse("g[y]"))));
+        }
+        Node node = new FunctionNode("Plus", sum);
+        for (int i = 0; i < 100; i++) {
+            node = new FunctionNode("Times", Arrays.asList(new IntegerNode(1), node));
+        }
+
+        assertEquals(new FunctionNode("Plus", sum), engine.evaluate(node));
+        // Unwrapping each of the 100 layers rewrites the node around the sum, but the sum itself is evaluated once
+        assertEquals(terms, visits.get());
+    }
+
+    @Test
+    void testParallelEvaluationMatchesSequential() {
+        StringBuilder input = new StringBuilder("List[");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                input.append(", ");
+            }
+            input.append("f[Times[x, x, 1], Plus[").append(i).append(", 1], Subtract[Power[y, 1], 0]]");
+        }
+        input.append("]");
+
+        StandardEvaluator parallelEvaluator = new StandardEvaluator();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallelEvaluator.setParallelPool(pool);
+            assertEquals(evaluator.evaluate(parse(input.toString())), parallelEvaluator.evaluate(parse(input.toString())));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testIntegerOverflowPromotes() {
+        assertEquals(parse("18446744073709551614"), evaluator.evaluate(parse("Plus[9223372036854775807, 9223372036854775807]")));
+        assertEquals(parse("85070591730234615847396907784232501249"), evaluator.evaluate(parse("Times[9223372036854775807, 9223372036854775807]")));
+        assertEquals(parse("-9223372036854775808"), evaluator.evaluate(parse("Subtract[-9223372036854775807, 1]")));
+        assertEquals(parse("1"), evaluator.evaluate(parse("Plus[18446744073709551616, -18446744073709551615]")));
+    }
+
+    @Test
+    void testPowerIsExact() {
+        assertEquals(parse("1267650600228229401496703205376"), evaluator.evaluate(parse("Power[2, 100]")));
+        assertEquals(parse("-2187"), evaluator.evaluate(parse("Power[-3, 7]")));
+        assertEquals(evaluator.evaluate(parse("Rational[1, 2]")), evaluator.evaluate(parse("Power[2, -1]")));
+        assertEquals(parse("-1"), evaluator.evaluate(parse("Power[-1, -3]")));
+    }
+
+    @Test
+    void testHugePowerStaysSymbolic() {
+        assertEquals(parse("Power[3, 20000000]"), evaluator.evaluate(parse("Power[3, 20000000]")));
+        assertEquals(parse("Power[2, 2000000000]"), evaluator.evaluate(parse("Power[2, 2000000000]")));
+        assertEquals(parse("Power[-7, 99999999999999999999]"), evaluator.evaluate(parse("Power[-7, 99999999999999999999]")));
+        assertEquals(parse("1"), evaluator.evaluate(parse("Power[-1, 99999999999999999998]")));
+
+        Node large = evaluator.evaluate(parse("Power[2, 100000]"));
+        assertEquals(100001, ((IntegerNode) large).toBigInteger().bitLength());
+    }
+
+    @Test
+    void testRealKeepsItsScaleAfterAnEqualReal() {
+        assertEquals("2.5", ((RealNode) evaluator.evaluate(parse("2.5"))).value.toPlainString());
+        assertEquals("2.50", ((RealNode) evaluator.evaluate(parse("2.50"))).value.toPlainString());
+        evaluator.evaluate(parse("f[2.5]"));
+        FunctionNode function = (FunctionNode) evaluator.evaluate(parse("f[2.50]"));
+        assertEquals("2.50", ((RealNode) function.arguments.get(0)).value.toPlainString());
+    }
+
+    @Test
+    void testDivideByZeroStaysSymbolic() {
+        assertEquals(parse("Divide[1, 0]"), evaluator.evaluate(parse("Divide[1, 0]")));
+        assertEquals(parse("3"), evaluator.evaluate(parse("Divide[36893488147419103233, 12297829382473034411]")));
+    }
+
+    @Test
+    void testMachineRealContagion() {
+        assertEquals(new MachineRealNode(3.5), evaluator.evaluate(parse("Plus[1.5`, 2]")));
+        assertEquals(new MachineRealNode(3.75), evaluator.evaluate(parse("Times[1.5, 2.5`]")));
+        assertEquals(new MachineRealNode(0.5), evaluator.evaluate(parse("Divide[1, 2.0`]")));
+        assertEquals(new MachineRealNode(0.25), evaluator.evaluate(parse("Power[2, -2.0`]")));
+        assertEquals(new MachineRealNode(3.0), evaluator.evaluate(parse("N[Plus[1, 2]]")));
+        assertEquals(parse("N[x]"), evaluator.evaluate(parse("N[x]")));
+    }
+
+    @Test
+    void testBoundedRealPrecision() {
+        StandardEvaluator boundedEvaluator = new StandardEvaluator(new MathContext(5));
+        assertEquals(new RealNode(new BigDecimal("1.5625")), boundedEvaluator.evaluate(parse("Times[1.25, 1.25]")));
+        assertEquals(new RealNode(new BigDecimal("1.9531")), boundedEvaluator.evaluate(parse("Times[Times[1.25, 1.25], 1.25]")));
+        assertEquals(new RealNode(new BigDecimal("0.33333")), boundedEvaluator.evaluate(parse("Divide[1.0, 3]")));
+        assertEquals(new RealNode(new BigDecimal("1.953125")), evaluator.evaluate(parse("Times[Times[1.25, 1.25], 1.25]")));
+    }
+
+    @Test
+    void testLikeTermsAreCollected() {
+        assertEquals(parse("Times[3, x, y]"), evaluator.evaluate(parse("Plus[Times[x, y], Times[3, y, x], Minus[Times[y, x]]]")));
+        assertEquals(parse("Plus[Power[x, 2], Times[3, f[x]]]"), evaluator.evaluate(parse("Plus[f[x], Power[x, 2], Times[2, f[x]]]")));
+        assertEquals(parse("0"), evaluator.evaluate(parse("Plus[f[x], Minus[f[x]]]")));
+    }
+
+    @Test
+    void testEqualFactorsAreCollected() {
+        assertEquals(parse("Times[10, y, Power[x, 4]]"), evaluator.evaluate(parse("Times[2, x, Power[x, 3], y, 5]")));
+        assertEquals(parse("Times[8, Power[x, 3]]"), evaluator.evaluate(parse("Power[Times[2, x], 3]")));
+        assertEquals(parse("Power[Plus[1, x], 2]"), evaluator.evaluate(parse("Times[Plus[x, 1], Plus[1, x]]")));
+        assertEquals(parse("Power[x, -2]"), evaluator.evaluate(parse("Times[Power[x, -1], Power[x, -1]]")));
+    }
+
+    @Test
+    void testExpand() {
+        assertEquals(parse("Plus[1, Power[x, 2], Times[2, x]]"), evaluator.evaluate(parse("Expand[Power[Plus[x, 1], 2]]")));
+        assertEquals(parse("Plus[Power[x, 2], Times[-1, Power[y, 2]]]"), evaluator.evaluate(parse("Expand[Times[Plus[x, y], Subtract[x, y]]]")));
+        assertEquals(parse("f[x]"), evaluator.evaluate(parse("Expand[f[x]]")));
+    }
+
+    @Test
+    void testLargeSumIsCollected() {
+        StringBuilder input = new StringBuilder("Plus[");
+        long[] coefficients = new long[40];
+        for (int i = 0; i < 3000; i++) {
+            input.append(i > 0 ? ", " : "").append("Times[").append(i % 7 + 1).append(", Power[x, ").append(i % 40 + 2).append("]]");
+            coefficients[i % 40] += i % 7 + 1;
+        }
+        input.append("]");
+
+        StringBuilder expected = new StringBuilder("Plus[");
+        for (int i = 0; i < coefficients.length; i++) {
+            expected.append(i > 0 ? ", " : "").append("Times[").append(coefficients[i]).append(", Power[x, ").append(i + 2).append("]]");
+        }
+        expected.append("]");
+
+        assertEquals(evaluator.evaluate(parse(expected.toString())), evaluator.evaluate(parse(input.toString())));
+        assertEquals(40, ((FunctionNode) evaluator.evaluate(parse(input.toString()))).arguments.size());
+    }
+
+    @Test
+    void testWideSumIsCollected() {
+        List<Node> terms = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            terms.add(new FunctionNode("f", List.of(new IntegerNode(i))));
+        }
+        Node wide = new FunctionNode("Plus", terms);
+        assertEquals(20000, ((FunctionNode) evaluator.evaluate(wide)).arguments.size());
+
+        // One pair of like terms and one cancelling pair among 20000 kernels
+        List<Node> withLikeTerms = new ArrayList<>(terms);
+        withLikeTerms.add(parse("f[0]"));
+        withLikeTerms.add(parse("Minus[f[7]]"));
+        List<Node> collected = ((FunctionNode) evaluator.evaluate(new FunctionNode("Plus", withLikeTerms))).arguments;
+        assertEquals(19999, collected.size());
+        assertTrue(collected.contains(parse("Times[2, f[0]]")));
+        assertFalse(collected.contains(parse("f[7]")));
+    }
+
+    @Test
+    void testRationalArithmetic() {
+        assertEquals(evaluator.evaluate(parse("Rational[1, 2]")), evaluator.evaluate(parse("Plus[Divide[1, 3], Divide[1, 6]]")));
+        assertEquals(evaluator.evaluate(parse("Rational[3, 2]")), evaluator.evaluate(parse("Times[Divide[2, 3], Divide[9, 4]]")));
+        assertEquals(evaluator.evaluate(parse("Rational[27, 8]")), evaluator.evaluate(parse("Power[Divide[2, 3], -3]")));
+        assertEquals(evaluator.evaluate(parse("Rational[-2, 3]")), evaluator.evaluate(parse("Divide[4, -6]")));
+        assertEquals(parse("0"), evaluator.evaluate(parse("Subtract[Divide[1, 2], Divide[2, 4]]")));
+        assertEquals(parse("2"), evaluator.evaluate(parse("Times[Divide[2, 3], 3]")));
+        assertEquals(new MachineRealNode(1.0 / 3), evaluator.evaluate(parse("N[Divide[1, 3]]")));
+    }
+
+    @Test
+    void testRationalSumStaysCompact() {
+        // The harmonic number H(30) = 9304682830147 / 2329089562800
+        StringBuilder input = new StringBuilder("Plus[");
+        for (int i = 1; i <= 30; i++) {
+            input.append(i > 1 ? ", " : "").append("Divide[1, ").append(i).append("]");
+        }
+        input.append("]");
+
+        Node result = evaluator.evaluate(parse(input.toString()));
+
+        assertEquals(evaluator.evaluate(parse("Rational[9304682830147, 2329089562800]")), result);
+    }
+
+    @Test
+    void testRationalWithReals() {
+        assertEquals(new MachineRealNode(0.5 + 1.0 / 3), evaluator.evaluate(parse("Plus[Divide[1, 3], 0.5`]")));
+        assertEquals(new RealNode(new BigDecimal("0.75")), evaluator.evaluate(parse("Plus[Divide[1, 4], 0.5]")));
+        // A third has no exact decimal, so it stays apart without a bounded precision
+        assertEquals(2, ((FunctionNode) evaluator.evaluate(parse("Plus[Divide[1, 3], 0.5]"))).arguments.size());
+        StandardEvaluator boundedEvaluator = new StandardEvaluator(new MathContext(5));
+        assertEquals(new RealNode(new BigDecimal("0.83333")), boundedEvaluator.evaluate(parse("Plus[Divide[1, 3], 0.5]")));
+    }
+}
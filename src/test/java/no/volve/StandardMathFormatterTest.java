@@ -64,4 +64,22 @@ public class StandardMathFormatterTest {
         StandardMathFormatter formatter = new StandardMathFormatter(parser);
         assertEquals("sin(x) * cos(y)", formatter.format(parsedExpression));
     }
+
+    @Test
+    public void testFormatRational() {
+        StandardMathParser parser = new StandardMathParser(Arrays.asList("x", "^", "2"));
+        StandardMathFormatter formatter = new StandardMathFormatter(parser);
+        Node half = RationalNode.valueOf(new IntegerNode(-1), new IntegerNode(2));
+        assertEquals("-1 / 2", formatter.format(half));
+        assertEquals("(-1 / 2) ^ x", formatter.format(new FunctionNode("Power", Arrays.asList(half, new VariableNode("x")))));
+    }
+
+    @Test
+    public void testFormatRoundTrip() {
+        for (String expression : new String[]{"a * b * (c + d) * e", "a ^ b ^ c", "(a ^ b) ^ c", "a - (b - c) + d",
+                "-(x + y)", "-(x ^ 2)", "-x ^ 2", "--x"}) {
+            StandardMathParser parser = new StandardMathParser(expression);
+            assertEquals(expression, new StandardMathFormatter(parser).format(parser.parse()));
+        }
+    }
 }
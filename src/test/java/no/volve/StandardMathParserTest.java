@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.Collections;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class StandardMathParserTest {
 
@@ -97,13 +98,82 @@ class StandardMathParserTest {
         StandardMathParser parser = new StandardMathParser(Arrays.asList("1", "+", "2", "+", "3"));
         Node parsedExpression = parser.parse();
         FunctionNode expectedExpression = new FunctionNode("Plus", Arrays.asList(
-                new FunctionNode("Plus", Arrays.asList(
-                        new IntegerNode(1),
-                        new IntegerNode(2))),
+                new IntegerNode(1),
+                new IntegerNode(2),
                 new IntegerNode(3)));
         assertEquals(expectedExpression, parsedExpression);
     }
 
+    @Test
+    public void testChainsAreFlatOnlyWithinOneOperator() {
+        Node parsedExpression = new StandardMathParser("a*b*c - d + (e + f) + g").parse();
+        Node expectedExpression = new FunctionNode("Plus", Arrays.asList(
+                new FunctionNode("Subtract", Arrays.asList(
+                        new FunctionNode("Times", Arrays.asList(
+                                new VariableNode("a"),
+                                new VariableNode("b"),
+                                new VariableNode("c"))),
+                        new VariableNode("d"))),
+                new FunctionNode("Plus", Arrays.asList(
+                        new VariableNode("e"),
+                        new VariableNode("f"))),
+                new VariableNode("g")));
+        assertEquals(expectedExpression, parsedExpression);
+    }
+
+    @Test
+    public void testPowerIsRightAssociative() {
+        Node parsedExpression = new StandardMathParser("-a^b^c").parse();
+        Node expectedExpression = new FunctionNode("Power", Arrays.asList(
+                new FunctionNode("Minus", Collections.singletonList(new VariableNode("a"))),
+                new FunctionNode("Power", Arrays.asList(
+                        new VariableNode("b"),
+                        new VariableNode("c")))));
+        assertEquals(expectedExpression, parsedExpression);
+    }
+
+    @Test
+    public void testFunctionArgumentExpression() {
+        Node parsedExpression = new StandardMathParser("-sin(x - 1)").parse();
+        Node expectedExpression = new FunctionNode("Minus", Collections.singletonList(
+                new FunctionNode("sin", Collections.singletonList(
+                        new FunctionNode("Subtract", Arrays.asList(
+                                new VariableNode("x"),
+                                new IntegerNode(1)))))));
+        assertEquals(expectedExpression, parsedExpression);
+    }
+
+    @Test
+    public void testLongAndDeeplyNestedInput() {
+        StringBuilder sum = new StringBuilder("0");
+        for (int i = 1; i < 100_000; i++) {
+            sum.append(" + ").append(i);
+        }
+        assertEquals(100_000, ((FunctionNode) new StandardMathParser(sum).parse()).arguments.size());
+
+        int depth = 50_000;
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            nested.append("-(");
+        }
+        nested.append('x');
+        for (int i = 0; i < depth; i++) {
+            nested.append(')');
+        }
+        Node node = new StandardMathParser(nested).parse();
+        for (int i = 0; i < depth; i++) {
+            node = ((FunctionNode) node).arguments.get(0);
+        }
+        assertEquals(new VariableNode("x"), node);
+    }
+
+    @Test
+    public void testMissingOperand() {
+        assertThrows(IllegalStateException.class, () -> new StandardMathParser("1 +").parse());
+        assertThrows(IllegalStateException.class, () -> new StandardMathParser("(2 * ) + 1").parse());
+        assertThrows(IllegalStateException.class, () -> new StandardMathParser("(1 + 2").parse());
+    }
+
     @Test
     public void testParseSingleFunctionCall() {
         StandardMathParser parser = new StandardMathParser(Arrays.asList("sin", "(", "x", ")"));
@@ -0,0 +1,83 @@
+package no.volve;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenStreamTest {
+
+    @Test
+    void testKindsAndOffsets() {
+        TokenStream stream = new TokenStream(" sin(x1) ^ 2.50");
+
+        assertEquals(TokenStream.IDENTIFIER, stream.next());
+        assertEquals(1, stream.start());
+        assertEquals(4, stream.end());
+        assertTrue(stream.textEquals("sin"));
+        assertEquals(TokenStream.LEFT_PARENTHESIS, stream.next());
+        assertEquals(TokenStream.IDENTIFIER, stream.next());
+        assertEquals("x1", stream.text());
+        assertEquals(TokenStream.RIGHT_PARENTHESIS, stream.next());
+        assertEquals(TokenStream.OPERATOR, stream.next());
+        assertEquals('^', stream.firstChar());
+        assertEquals(TokenStream.NUMBER, stream.next());
+        assertEquals(new RealNode(new BigDecimal("2.50")), stream.number());
+        assertEquals(TokenStream.END, stream.next());
+        assertEquals(TokenStream.END, stream.next());
+    }
+
+    @Test
+    void testNumbers() {
+        TokenStream stream = new TokenStream("42 123456789012345678 1234567890123456789012 0.001 12345678901234567890.5");
+
+        stream.next();
+        assertEquals(new IntegerNode(42), stream.number());
+        stream.next();
+        assertEquals(new IntegerNode(123456789012345678L), stream.number());
+        stream.next();
+        assertEquals(new IntegerNode(new BigInteger("1234567890123456789012")), stream.number());
+        stream.next();
+        assertEquals(new RealNode(new BigDecimal("0.001")), stream.number());
+        stream.next();
+        assertEquals(new RealNode(new BigDecimal("12345678901234567890.5")), stream.number());
+    }
+
+    @Test
+    void testInvalidTokens() {
+        TokenStream stream = new TokenStream("1.2.3 x1y");
+        assertEquals(TokenStream.INVALID, stream.next());
+        assertEquals("1.2.3", stream.text());
+        assertEquals(TokenStream.INVALID, stream.next());
+
+        TokenStream unexpected = new TokenStream("1 $ 2");
+        assertEquals(TokenStream.NUMBER, unexpected.next());
+        assertThrows(IllegalArgumentException.class, unexpected::next);
+        assertThrows(IllegalStateException.class, () -> new StandardMathParser("1.2.3 + x").parse());
+    }
+
+    @Test
+    void testTokenList() {
+        TokenStream stream = new TokenStream(Arrays.asList("-5", "*", "(", "y", ")"));
+
+        assertEquals(TokenStream.NUMBER, stream.next());
+        assertEquals(new IntegerNode(-5), stream.number());
+        assertEquals(TokenStream.OPERATOR, stream.next());
+        assertEquals(TokenStream.LEFT_PARENTHESIS, stream.next());
+        assertEquals(TokenStream.IDENTIFIER, stream.next());
+        assertEquals(TokenStream.RIGHT_PARENTHESIS, stream.next());
+        assertEquals(TokenStream.END, stream.next());
+
+        stream.reset();
+        assertEquals(TokenStream.NUMBER, stream.next());
+    }
+
+    @Test
+    void testParseFromCharacters() {
+        Node expected = new StandardMathParser(new StandardMathTokenizer("2*x - sin(y)^3").tokenize()).parse();
+        assertEquals(expected, new StandardMathParser("2*x - sin(y)^3").parse());
+    }
+}